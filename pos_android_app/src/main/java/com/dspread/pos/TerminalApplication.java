@@ -8,9 +8,15 @@ import com.dspread.pos.common.manager.FragmentCacheManager;
 import com.dspread.pos.posAPI.POSManager;
 import com.dspread.pos.ui.main.MainActivity;
 import com.dspread.pos.utils.DevUtils;
+import com.dspread.pos.utils.PosLog;
 import com.dspread.pos.utils.TRACE;
 import com.dspread.pos.managers.ApiManager;
 import com.dspread.pos.managers.PrinterManager;
+import com.dspread.pos.common.http.NetworkClient;
+import com.dspread.pos.common.metrics.Metrics;
+import com.dspread.pos.common.trace.TraceStore;
+import com.dspread.pos.common.trace.Tracer;
+import com.dspread.pos.managers.ConnectivityMonitor;
 import com.dspread.pos.managers.StorageManager;
 import com.dspread.pos_android_app.BuildConfig;
 import com.dspread.pos_android_app.R;
@@ -19,6 +25,8 @@ import com.tencent.bugly.crashreport.CrashReport;
 import com.tencent.upgrade.bean.UpgradeConfig;
 import com.tencent.upgrade.core.UpgradeManager;
 
+import java.io.File;
+
 import me.goldze.mvvmhabit.base.BaseApplication;
 import me.goldze.mvvmhabit.crash.CaocConfig;
 
@@ -34,6 +42,8 @@ public class TerminalApplication extends BaseApplication {
         
         // MINIMAL initialization - only what's absolutely necessary
         TRACE.setContext(this);
+        // Release build type (VERBOSE_LOGS false): debug/verbose logs skipped before any message is built
+        PosLog.setLevel(BuildConfig.VERBOSE_LOGS ? PosLog.Level.VERBOSE : PosLog.Level.INFO);
         
         // STEP 2: Test ApiManager + StorageManager initialization (SYNCHRONOUS)
         TRACE.i("TerminalApplication: Testing ApiManager + StorageManager initialization (SYNC)");
@@ -58,6 +68,28 @@ public class TerminalApplication extends BaseApplication {
             ApiManager apiManager = ApiManager.getInstance(TerminalApplication.this);
             StorageManager storageManager = StorageManager.getInstance();
             
+            // Resume automatic retries of failed certifications (journal is read off the main thread)
+            storageManager.startRetryScheduler();
+            
+            // Periodically archive old certified invoices and compact the journal
+            storageManager.startMaintenance();
+            
+            // Drain pending invoices whenever a validated network comes back
+            ConnectivityMonitor.initialize(TerminalApplication.this);
+            
+            // Context of exported metrics, to compare app and firmware versions
+            Metrics.getInstance().setLabel("app", BuildConfig.VERSION_NAME);
+            Metrics.getInstance().setLabel("firmware", Build.DISPLAY);
+            Metrics.getInstance().setLabel("model", Build.MODEL);
+            
+            // Last sales' traces, for offline analysis of slow sales (32 x 16 KB ring file)
+            Tracer.getInstance().setStore(new TraceStore(new File(getFilesDir(), "traces.ring"), 32, 16 * 1024));
+            
+            // Request/response bodies in logs: debug build type only, bounded per body
+            if (BuildConfig.VERBOSE_LOGS) {
+                NetworkClient.getInstance().setBodyCaptureLimit(2000);
+            }
+            
             TRACE.i("TerminalApplication: All managers initialized and verified successfully");
             TRACE.i("TerminalApplication: ApiManager instance: " + (apiManager != null ? "OK" : "NULL"));
             TRACE.i("TerminalApplication: StorageManager instance: " + (storageManager != null ? "OK" : "NULL"));
@@ -0,0 +1,32 @@
+package com.dspread.pos.common.http;
+
+/**
+ * Échec d'un appel API sous forme d'exception, pour les variantes RxJava
+ *
+ * Porte le code HTTP (null sans réponse du serveur) et la catégorie de l'échec.
+ */
+public final class ApiException extends Exception {
+    private final Integer httpCode;
+    private final ErrorCategory category;
+
+    public ApiException(String message, Integer httpCode, ErrorCategory category) {
+        super(message);
+        this.httpCode = httpCode;
+        this.category = category;
+    }
+
+    public Integer getHttpCode() {
+        return httpCode;
+    }
+
+    public ErrorCategory getCategory() {
+        return category;
+    }
+
+    /**
+     * Vrai si l'erreur est une ApiException transitoire (voir {@link ErrorCategory#isTransient()})
+     */
+    public static boolean isTransient(Throwable error) {
+        return error instanceof ApiException && ((ApiException) error).category.isTransient();
+    }
+}
@@ -18,14 +18,20 @@ public abstract class ApiResult<T> {
     public static final class Error<T> extends ApiResult<T> {
         private final String message;
         private final Integer code;
+        private final ErrorCategory category;
         
         public Error(String message) {
             this(message, null);
         }
         
         public Error(String message, Integer code) {
+            this(message, code, code != null ? ErrorCategory.forHttpStatus(code) : ErrorCategory.LOCAL);
+        }
+
+        public Error(String message, Integer code, ErrorCategory category) {
             this.message = message;
             this.code = code;
+            this.category = category;
         }
         
         public String message() {
@@ -35,5 +41,9 @@ public abstract class ApiResult<T> {
         public Integer code() {
             return code;
         }
+
+        public ErrorCategory category() {
+            return category;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+package com.dspread.pos.common.http;
+
+import android.util.Log;
+
+/**
+ * Disjoncteur devant un serveur distant
+ *
+ * - fermé : les appels passent ; le taux d'échec est mesuré sur les
+ *   {@link #WINDOW} derniers appels ;
+ * - ouvert : au-delà du seuil, les appels sont refusés sans attendre le réseau
+ *   pendant {@code openMs} ;
+ * - semi-ouvert : passé ce délai, un seul appel sonde le serveur. Son succès
+ *   referme le circuit, son échec le rouvre.
+ *
+ * Seuls les échecs transitoires ({@link ErrorCategory#isTransient()}) comptent :
+ * un rejet REJxxx prouve que le serveur répond.
+ */
+public final class CircuitBreaker {
+    private static final String TAG = "CircuitBreaker";
+    static final int WINDOW = 20;
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final long openMs;
+    private final boolean[] outcomes = new boolean[WINDOW];
+    private int count;
+    private int next;
+    private int failures;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    /**
+     * @param minCalls appels mesurés avant de pouvoir ouvrir le circuit
+     * @param failureRateThreshold taux d'échec (0..1) qui ouvre le circuit
+     * @param openMs durée d'ouverture avant la sonde
+     */
+    public CircuitBreaker(String name, int minCalls, double failureRateThreshold, long openMs) {
+        this.name = name;
+        this.minCalls = Math.min(minCalls, WINDOW);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMs = openMs;
+    }
+
+    /**
+     * Autorise un appel
+     *
+     * @return false si le circuit est ouvert (ou qu'une sonde est déjà en cours)
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openMs) {
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+                probeInFlight = true;
+                return true;
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+            reset();
+            transition(State.CLOSED);
+            return;
+        }
+        recordOutcome(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+            open();
+            return;
+        }
+        recordOutcome(true);
+        if (state == State.CLOSED && count >= minCalls && failures >= failureRateThreshold * count) {
+            open();
+        }
+    }
+
+    /**
+     * Enregistre l'issue d'un appel autorisé selon sa catégorie d'erreur (null = succès)
+     */
+    public void record(ErrorCategory category) {
+        if (category != null && category.isTransient()) {
+            onFailure();
+        } else {
+            onSuccess();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void recordOutcome(boolean failed) {
+        if (count == WINDOW && outcomes[next]) {
+            failures--;
+        }
+        outcomes[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW) {
+            count++;
+        }
+    }
+
+    private void open() {
+        openedAt = System.currentTimeMillis();
+        transition(State.OPEN);
+    }
+
+    private void reset() {
+        count = 0;
+        next = 0;
+        failures = 0;
+    }
+
+    private void transition(State target) {
+        if (state != target) {
+            Log.w(TAG, name + ": " + state + " -> " + target);
+            state = target;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.dspread.pos.common.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Nature d'un échec d'appel, déterminée là où l'échec se produit
+ *
+ * Les catégories transitoires ({@link #isTransient()}) signalent un serveur
+ * injoignable ou indisponible : la facture peut être mise en file hors ligne et
+ * renvoyée plus tard. Les autres décrivent une réponse définitive.
+ */
+public enum ErrorCategory {
+    /** Connexion impossible ou coupée (DNS, TCP, TLS, lecture interrompue) */
+    NETWORK(true),
+    /** Délai de l'appel ou échéance de la chaîne dépassé */
+    TIMEOUT(true),
+    /** Circuit ouvert : appel refusé sans passer par le réseau */
+    CIRCUIT_OPEN(true),
+    /** Serveur en erreur ou surchargé (5xx, 429) */
+    SERVER(true),
+    /** Requête refusée par le serveur (4xx, rejets REJxxx) */
+    REJECTED(false),
+    /** Réponse reçue mais illisible */
+    INVALID_RESPONSE(false),
+    /** Échec sans appel réseau (données invalides, stockage, ...) */
+    LOCAL(false);
+
+    private final boolean transientFailure;
+
+    ErrorCategory(boolean transientFailure) {
+        this.transientFailure = transientFailure;
+    }
+
+    public boolean isTransient() {
+        return transientFailure;
+    }
+
+    public static ErrorCategory forHttpStatus(int statusCode) {
+        if (statusCode == 408) {
+            return TIMEOUT;
+        }
+        if (statusCode == 429 || statusCode >= 500) {
+            return SERVER;
+        }
+        return REJECTED;
+    }
+
+    public static ErrorCategory forException(IOException e) {
+        // SocketTimeoutException et le délai d'appel OkHttp sont des InterruptedIOException
+        return e instanceof InterruptedIOException ? TIMEOUT : NETWORK;
+    }
+}
@@ -4,8 +4,11 @@ import android.util.Log;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
 
+import java.util.regex.Pattern;
+
 public final class ErrorHandler {
     private static final String TAG = "ErrorHandler";
+    private static final Pattern REJECTION_CODE = Pattern.compile("\\bREJ\\d{3}\\b");
     private ErrorHandler() {}
 
     public static String map(int statusCode, String body) {
@@ -66,6 +69,21 @@ public final class ErrorHandler {
         }
     }
     
+    /**
+     * Indique si un échec mérite une nouvelle tentative : erreurs de transport
+     * (pas de code HTTP, timeout), 408/425/429 et 5xx. Les rejets REJxxx et les
+     * autres 4xx sont définitifs : renvoyer la même facture donnerait le même rejet.
+     */
+    public static boolean isRetryable(Integer statusCode, String message) {
+        if (message != null && REJECTION_CODE.matcher(message).find()) {
+            return false;
+        }
+        if (statusCode == null) {
+            return true;
+        }
+        return statusCode == 408 || statusCode == 425 || statusCode == 429 || statusCode >= 500;
+    }
+
     /**
      * Extrait le message d'erreur détaillé depuis un JSON de réponse d'erreur
      */
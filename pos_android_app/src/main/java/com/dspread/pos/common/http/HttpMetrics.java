@@ -0,0 +1,116 @@
+package com.dspread.pos.common.http;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Response;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+
+/**
+ * Temps jusqu'au premier octet (TTFB) des appels du transport partagé
+ *
+ * Les appels sont classés selon la connexion utilisée : « froide » (DNS, TCP et
+ * TLS payés par l'appel) ou « chaude » (connexion du pool réutilisée). La
+ * différence entre les deux moyennes mesure le gain du pré-chauffage.
+ */
+public final class HttpMetrics {
+
+    /**
+     * Instantané des compteurs
+     */
+    public static final class Snapshot {
+        private final long coldCalls;
+        private final long coldTtfbTotalMs;
+        private final long warmCalls;
+        private final long warmTtfbTotalMs;
+        private final long lastCallAt;
+
+        Snapshot(long coldCalls, long coldTtfbTotalMs, long warmCalls, long warmTtfbTotalMs, long lastCallAt) {
+            this.coldCalls = coldCalls;
+            this.coldTtfbTotalMs = coldTtfbTotalMs;
+            this.warmCalls = warmCalls;
+            this.warmTtfbTotalMs = warmTtfbTotalMs;
+            this.lastCallAt = lastCallAt;
+        }
+
+        public long getColdCalls() { return coldCalls; }
+        public long getWarmCalls() { return warmCalls; }
+        public long getColdTtfbAvgMs() { return coldCalls > 0 ? coldTtfbTotalMs / coldCalls : 0; }
+        public long getWarmTtfbAvgMs() { return warmCalls > 0 ? warmTtfbTotalMs / warmCalls : 0; }
+
+        /**
+         * Heure (ms) de la dernière réponse reçue, 0 si aucune
+         */
+        public long getLastCallAt() { return lastCallAt; }
+
+        @Override
+        public String toString() {
+            return "cold " + coldCalls + " call(s) avg TTFB " + getColdTtfbAvgMs() + "ms, warm "
+                    + warmCalls + " call(s) avg TTFB " + getWarmTtfbAvgMs() + "ms";
+        }
+    }
+
+    private long coldCalls;
+    private long coldTtfbTotalMs;
+    private long warmCalls;
+    private long warmTtfbTotalMs;
+    private volatile long lastCallAt;
+
+    HttpMetrics() {}
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(coldCalls, coldTtfbTotalMs, warmCalls, warmTtfbTotalMs, lastCallAt);
+    }
+
+    /**
+     * Heure (ms) de la dernière réponse reçue, 0 si aucune
+     */
+    public long lastCallAt() {
+        return lastCallAt;
+    }
+
+    synchronized void record(boolean cold, long ttfbMs) {
+        if (cold) {
+            coldCalls++;
+            coldTtfbTotalMs += ttfbMs;
+        } else {
+            warmCalls++;
+            warmTtfbTotalMs += ttfbMs;
+        }
+        lastCallAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Fabrique d'écouteurs à installer sur le client de base
+     */
+    EventListener.Factory listenerFactory() {
+        return call -> new CallTimer();
+    }
+
+    private final class CallTimer extends EventListener {
+        private long callStartNanos;
+        private boolean connected;
+        private boolean recorded;
+
+        @Override
+        public void callStart(Call call) {
+            callStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connected = true;
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            // Une redirection ou une nouvelle tentative ne compte qu'une fois
+            if (recorded) {
+                return;
+            }
+            recorded = true;
+            record(connected, (System.nanoTime() - callStartNanos) / 1_000_000);
+        }
+    }
+}
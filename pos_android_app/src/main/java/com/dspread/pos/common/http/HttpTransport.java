@@ -0,0 +1,80 @@
+package com.dspread.pos.common.http;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Transport HTTP partagé par toute l'application
+ *
+ * Un seul pool de connexions et un seul dispatcher : les clients spécialisés
+ * ({@link NetworkClient}, {@link RetrofitClient}, ...) sont dérivés par
+ * {@link #newBuilder()} et réutilisent ainsi les connexions déjà établies
+ * (keep-alive, HTTP/2 quand le serveur le propose) au lieu de refaire une
+ * poignée de main TLS à chaque appel. Chaque appel alimente {@link #metrics()}
+ * et, s'il appartient à une vente tracée, porte l'identifiant de trace ({@link TraceInterceptor}).
+ */
+public final class HttpTransport {
+    private static final int TIMEOUT_SECONDS = 30;
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final int MAX_REQUESTS = 32;
+    // Couvre la fenêtre d'envoi du moteur de synchronisation et les appels de l'écran
+    private static final int MAX_REQUESTS_PER_HOST = 8;
+    // Garde les connexions HTTP/2 ouvertes à travers les NAT des réseaux mobiles
+    private static final int PING_INTERVAL_SECONDS = 30;
+
+    private static final HttpMetrics metrics = new HttpMetrics();
+    private static volatile OkHttpClient client;
+
+    private HttpTransport() {}
+
+    /**
+     * Client de base partagé
+     */
+    public static OkHttpClient client() {
+        if (client == null) {
+            synchronized (HttpTransport.class) {
+                if (client == null) client = create();
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Builder d'un client dérivé : pool de connexions et dispatcher partagés
+     */
+    public static OkHttpClient.Builder newBuilder() {
+        return client().newBuilder();
+    }
+
+    /**
+     * TTFB des appels, connexions froides et chaudes séparées
+     */
+    public static HttpMetrics metrics() {
+        return metrics;
+    }
+
+    private static OkHttpClient create() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .pingInterval(PING_INTERVAL_SECONDS, TimeUnit.SECONDS)
+                .eventListenerFactory(metrics.listenerFactory())
+                .addInterceptor(new TraceInterceptor())
+                .retryOnConnectionFailure(true)
+                .connectTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .readTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .writeTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+}
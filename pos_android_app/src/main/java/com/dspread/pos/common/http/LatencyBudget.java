@@ -0,0 +1,78 @@
+package com.dspread.pos.common.http;
+
+import java.util.Arrays;
+
+/**
+ * Délai d'un point d'entrée, adapté à sa latence observée
+ *
+ * Garde les {@link #WINDOW} dernières durées d'appel et en déduit le délai :
+ * p99 × facteur, borné par un plancher et un plafond. Tant que moins de
+ * {@link #MIN_SAMPLES} appels ont été mesurés, le plafond s'applique.
+ */
+public final class LatencyBudget {
+    static final int WINDOW = 128;
+    static final int MIN_SAMPLES = 20;
+
+    private final String name;
+    private final long floorMs;
+    private final long ceilingMs;
+    private final double factor;
+    private final long[] samples = new long[WINDOW];
+    private int count;
+    private int next;
+
+    public LatencyBudget(String name, long floorMs, long ceilingMs, double factor) {
+        this.name = name;
+        this.floorMs = floorMs;
+        this.ceilingMs = ceilingMs;
+        this.factor = factor;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Enregistre la durée d'un appel (un appel coupé par le délai compte pour le délai)
+     */
+    public synchronized void record(long elapsedMs) {
+        samples[next] = Math.max(0, elapsedMs);
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW) {
+            count++;
+        }
+    }
+
+    /**
+     * 99e centile des durées mesurées, 0 si aucune
+     */
+    public synchronized long p99Ms() {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(0.99 * count) - 1;
+        return sorted[Math.max(0, rank)];
+    }
+
+    /**
+     * Délai à appliquer au prochain appel
+     */
+    public long timeoutMs() {
+        long p99;
+        synchronized (this) {
+            if (count < MIN_SAMPLES) {
+                return ceilingMs;
+            }
+            p99 = p99Ms();
+        }
+        long timeout = (long) Math.ceil(p99 * factor);
+        return Math.max(floorMs, Math.min(ceilingMs, timeout));
+    }
+
+    @Override
+    public String toString() {
+        return name + ": p99 " + p99Ms() + "ms, timeout " + timeoutMs() + "ms";
+    }
+}
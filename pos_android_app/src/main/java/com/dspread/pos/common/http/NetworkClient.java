@@ -2,22 +2,39 @@ package com.dspread.pos.common.http;
 
 import android.util.Log;
 import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
 import okhttp3.*;
 import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Timeout;
 import javax.net.ssl.*;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 public final class NetworkClient {
     private static final String TAG = "NetworkClient";
-    private static final int TIMEOUT_SECONDS = 30;
+
+    private static final int ERROR_PREVIEW_LIMIT = 500;
+    // Disjoncteur par serveur : ouvert à 50 % d'échecs sur au moins 6 appels, sonde après 30 s
+    private static final int BREAKER_MIN_CALLS = 6;
+    private static final double BREAKER_FAILURE_RATE = 0.5;
+    private static final long BREAKER_OPEN_MS = 30_000;
 
     private static volatile NetworkClient instance;
     private final OkHttpClient client;
     private final Gson gson;
+    // Octets des corps copiés dans les logs (0 = désactivé)
+    private volatile int bodyCaptureLimit;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
 
     private NetworkClient() {
         // Create a trust manager that accepts all certificates
@@ -50,11 +67,8 @@ public final class NetworkClient {
             sslContext = null;
         }
 
-        // Build OkHttpClient with custom SSL socket factory
-        OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder()
-                .connectTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
-                .readTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
-                .writeTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        // Build OkHttpClient with custom SSL socket factory (shared pool and dispatcher)
+        OkHttpClient.Builder clientBuilder = HttpTransport.newBuilder();
         
         if (sslContext != null) {
             clientBuilder.sslSocketFactory(sslContext.getSocketFactory(), (X509TrustManager) trustAllCerts[0])
@@ -74,64 +88,272 @@ public final class NetworkClient {
         return instance;
     }
 
+    /**
+     * Disjoncteur du serveur de l'URL (hôte et port)
+     */
+    public CircuitBreaker circuitBreaker(HttpUrl url) {
+        return breakers.computeIfAbsent(url.host() + ":" + url.port(),
+                server -> new CircuitBreaker(server, BREAKER_MIN_CALLS, BREAKER_FAILURE_RATE, BREAKER_OPEN_MS));
+    }
+
+    /**
+     * Active la copie des corps de requête et de réponse dans les logs, bornée à
+     * {@code limitBytes} octets par corps (0 = désactivé, par défaut)
+     */
+    public void setBodyCaptureLimit(int limitBytes) {
+        this.bodyCaptureLimit = Math.max(0, limitBytes);
+    }
+
+    public boolean isBodyCaptureEnabled() {
+        return bodyCaptureLimit > 0;
+    }
+
+    /**
+     * Exécute la requête et décode la réponse JSON en flux depuis le socket, sans
+     * passer par une chaîne intermédiaire
+     */
     public <T> void execute(Request request, Class<T> type, Callback<T> cb) {
+        execute(request, type, null, 0, cb);
+    }
+
+    /**
+     * Exécute la requête avec le délai du point d'entrée, borné par une échéance
+     *
+     * @param budget délai adaptatif du point d'entrée, alimenté par la durée de l'appel (peut être null)
+     * @param deadlineAtMs heure (ms) à laquelle l'appel doit avoir abouti, 0 si aucune
+     */
+    public <T> void execute(Request request, Class<T> type, LatencyBudget budget, long deadlineAtMs, Callback<T> cb) {
         String url = request.url().toString();
         String method = request.method();
-        String requestBodyPreview = getRequestBodyPreview(request);
-        Log.i(TAG, "Executing request: " + method + " " + url);
-        
-        client.newCall(request).enqueue(new okhttp3.Callback() {
+        long budgetMs = budget != null ? budget.timeoutMs() : 0;
+        long timeoutMs = budgetMs;
+        if (deadlineAtMs > 0) {
+            long remainingMs = deadlineAtMs - System.currentTimeMillis();
+            if (remainingMs <= 0) {
+                Log.w(TAG, "Deadline exceeded before " + method + " " + url);
+                cb.onResult(new ApiResult.Error<T>("Deadline exceeded - request timeout", null, ErrorCategory.TIMEOUT));
+                return;
+            }
+            timeoutMs = timeoutMs > 0 ? Math.min(timeoutMs, remainingMs) : remainingMs;
+        }
+        CircuitBreaker breaker = circuitBreaker(request.url());
+        if (!breaker.tryAcquire()) {
+            Log.w(TAG, "Circuit open, not sending " + method + " " + url);
+            cb.onResult(new ApiResult.Error<T>("Circuit open - server unavailable, request not sent", null, ErrorCategory.CIRCUIT_OPEN));
+            return;
+        }
+        Callback<T> done = res -> {
+            breaker.record(res instanceof ApiResult.Error ? ((ApiResult.Error<T>) res).category() : null);
+            cb.onResult(res);
+        };
+        int captureLimit = bodyCaptureLimit;
+        String requestBodyPreview = captureLimit > 0 ? getRequestBodyPreview(request, captureLimit) : null;
+        Log.i(TAG, "Executing request: " + method + " " + url + (timeoutMs > 0 ? " (timeout " + timeoutMs + "ms)" : ""));
+        if (requestBodyPreview != null) {
+            Log.i(TAG, "Request body: " + requestBodyPreview);
+        }
+
+        Call newCall = client.newCall(request);
+        if (timeoutMs > 0) {
+            // Couvre tout l'appel : connexion, envoi, attente et lecture du corps
+            newCall.timeout().timeout(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        long startNanos = System.nanoTime();
+        boolean budgetBound = budgetMs > 0 && timeoutMs == budgetMs;
+        newCall.enqueue(new okhttp3.Callback() {
             @Override public void onFailure(Call call, IOException e) {
+                if (budgetBound && e instanceof InterruptedIOException) {
+                    // Coupé par le délai du point d'entrée : le p99 doit pouvoir remonter
+                    budget.record(elapsedMs(startNanos));
+                }
                 String errorMsg = getDetailedErrorMessage(e, url);
                 Log.e(TAG, "Request failed: " + method + " " + url + ": " + e.getMessage(), e);
                 if (requestBodyPreview != null) {
                     Log.e(TAG, "Request body: " + requestBodyPreview);
                 }
-                cb.onResult(new ApiResult.Error<T>(errorMsg));
+                done.onResult(new ApiResult.Error<T>(errorMsg, null, ErrorCategory.forException(e)));
             }
             @Override public void onResponse(Call call, Response response) {
+                if (budget != null) {
+                    budget.record(elapsedMs(startNanos));
+                }
+                // Décodé dans le try, livré une seule fois après : une exception levée par
+                // l'appelant ne doit pas produire un second résultat
+                ApiResult<T> result;
                 try (ResponseBody body = response.body()) {
                     if (body == null) {
-                        cb.onResult(new ApiResult.Error<T>("Empty response from server"));
-                        return;
-                    }
-                    String payload = body.string();
-                    if (response.isSuccessful()) {
-                        // Log response for debugging
-                        Log.i(TAG, "Response body: " + (payload != null && payload.length() > 500 
-                            ? payload.substring(0, 500) + "..." : payload));
+                        result = new ApiResult.Error<T>("Empty response from server", null, ErrorCategory.INVALID_RESPONSE);
+                    } else if (response.isSuccessful()) {
+                        if (captureLimit > 0) {
+                            // Copie bornée, sans consommer le flux décodé ensuite
+                            Log.i(TAG, "Response body: " + preview(response.peekBody(captureLimit).string(), captureLimit));
+                        }
                         try {
-                            T data = gson.fromJson(payload, type);
-                            cb.onResult(new ApiResult.Success<T>(data));
+                            result = new ApiResult.Success<T>(decode(body, type));
                         } catch (JsonSyntaxException ex) {
-                            Log.e(TAG, "JSON parsing error: " + ex.getMessage() + ", Response: " + payload);
-                            cb.onResult(new ApiResult.Error<T>("Invalid response format: " + ex.getMessage()));
+                            Log.e(TAG, "JSON parsing error: " + ex.getMessage());
+                            result = new ApiResult.Error<T>("Invalid response format: " + ex.getMessage(), null, ErrorCategory.INVALID_RESPONSE);
                         }
                     } else {
-                        // Log error response for debugging - ALWAYS show body for 400 errors
-                        String bodyPreview = payload != null && payload.length() > 0 
-                            ? (payload.length() > 500 ? payload.substring(0, 500) + "..." : payload)
-                            : "(empty)";
+                        // Corps d'erreur courts : lus en entier pour ErrorHandler
+                        String payload = body.string();
+                        String bodyPreview = payload.length() > 0 ? preview(payload, ERROR_PREVIEW_LIMIT) : "(empty)";
                         Log.e(TAG, "HTTP " + response.code() + " error for: " + method + " " + url);
                         if (requestBodyPreview != null) {
                             Log.e(TAG, "Request body: " + requestBodyPreview);
                         }
                         Log.e(TAG, "Response body: " + bodyPreview);
-                        if (response.code() == 400) {
-                            // For 400 errors, always log full body for debugging
-                            Log.e(TAG, "HTTP 400 Full response body: " + (payload != null ? payload : "(null)"));
-                        }
                         String msg = ErrorHandler.map(response.code(), payload);
-                        cb.onResult(new ApiResult.Error<T>(msg, response.code()));
+                        result = new ApiResult.Error<T>(msg, response.code());
                     }
+                } catch (IOException e) {
+                    // Connexion coupée pendant la lecture du corps : erreur réseau
+                    Log.e(TAG, "Error reading response: " + method + " " + url + ": " + e.getMessage());
+                    result = new ApiResult.Error<T>(getDetailedErrorMessage(e, url), null, ErrorCategory.forException(e));
                 } catch (Exception e) {
                     Log.e(TAG, "Unexpected error: " + e.getMessage());
-                    cb.onResult(new ApiResult.Error<T>("Unexpected error: " + e.getMessage()));
+                    result = new ApiResult.Error<T>("Unexpected error: " + e.getMessage(), null, ErrorCategory.INVALID_RESPONSE);
                 }
+                done.onResult(result);
             }
         });
     }
 
+    /**
+     * Exécute un GET derrière le cache de réponses
+     *
+     * - entrée plus récente que {@code ttlMs} : servie sans appel réseau ;
+     * - entrée expirée : requête conditionnelle (If-None-Match / If-Modified-Since),
+     *   un 304 renouvelle l'entrée sans retransférer le corps ;
+     * - réseau indisponible ou erreur serveur (5xx) : l'entrée expirée est servie
+     *   telle quelle (stale-if-error) plutôt qu'une erreur.
+     *
+     * La lecture du cache (fichier) se fait sur l'exécuteur réseau, jamais sur le
+     * thread appelant : le résultat arrive toujours de manière asynchrone.
+     */
+    public <T> void executeCached(Request request, Class<T> type, ResponseCache cache, long ttlMs, Callback<T> cb) {
+        client.dispatcher().executorService().execute(() -> executeCachedNow(request, type, cache, ttlMs, cb));
+    }
+
+    private <T> void executeCachedNow(Request request, Class<T> type, ResponseCache cache, long ttlMs, Callback<T> cb) {
+        String url = request.url().toString();
+        ResponseCache.Entry cached = cache.get(url);
+        if (cached != null && System.currentTimeMillis() - cached.getStoredAt() < ttlMs) {
+            Log.i(TAG, "Cache hit: " + url);
+            deliverCached(cached, type, cb);
+            return;
+        }
+
+        CircuitBreaker breaker = circuitBreaker(request.url());
+        if (!breaker.tryAcquire()) {
+            if (cached != null) {
+                Log.w(TAG, "Circuit open, serving stale cache for " + url);
+                deliverCached(cached, type, cb);
+            } else {
+                cb.onResult(new ApiResult.Error<T>("Circuit open - server unavailable, request not sent", null, ErrorCategory.CIRCUIT_OPEN));
+            }
+            return;
+        }
+
+        Request.Builder conditional = request.newBuilder();
+        if (cached != null && cached.getEtag() != null) {
+            conditional.header("If-None-Match", cached.getEtag());
+        }
+        if (cached != null && cached.getLastModified() != null) {
+            conditional.header("If-Modified-Since", cached.getLastModified());
+        }
+        Log.i(TAG, "Executing request: " + request.method() + " " + url + (cached != null ? " (revalidate)" : ""));
+
+        client.newCall(conditional.build()).enqueue(new okhttp3.Callback() {
+            @Override public void onFailure(Call call, IOException e) {
+                breaker.record(ErrorCategory.forException(e));
+                if (cached != null) {
+                    Log.w(TAG, "Network unavailable, serving stale cache for " + url + ": " + e.getMessage());
+                    deliverCached(cached, type, cb);
+                } else {
+                    Log.e(TAG, "Request failed: GET " + url + ": " + e.getMessage());
+                    cb.onResult(new ApiResult.Error<T>(getDetailedErrorMessage(e, url), null, ErrorCategory.forException(e)));
+                }
+            }
+            @Override public void onResponse(Call call, Response response) {
+                breaker.record(response.isSuccessful() || response.code() == 304
+                        ? null : ErrorCategory.forHttpStatus(response.code()));
+                try (ResponseBody body = response.body()) {
+                    if (response.code() == 304 && cached != null) {
+                        cache.put(url, cached.revalidated(System.currentTimeMillis()));
+                        deliverCached(cached, type, cb);
+                        return;
+                    }
+                    String payload = body != null ? body.string() : "";
+                    if (response.isSuccessful()) {
+                        T data;
+                        try {
+                            data = parse(payload, type);
+                        } catch (JsonSyntaxException ex) {
+                            Log.e(TAG, "JSON parsing error: " + ex.getMessage());
+                            cb.onResult(new ApiResult.Error<T>("Invalid response format: " + ex.getMessage(), null, ErrorCategory.INVALID_RESPONSE));
+                            return;
+                        }
+                        cache.put(url, new ResponseCache.Entry(payload, response.header("ETag"),
+                                response.header("Last-Modified"), System.currentTimeMillis()));
+                        cb.onResult(new ApiResult.Success<T>(data));
+                    } else if (response.code() >= 500 && cached != null) {
+                        Log.w(TAG, "HTTP " + response.code() + ", serving stale cache for " + url);
+                        deliverCached(cached, type, cb);
+                    } else {
+                        Log.e(TAG, "HTTP " + response.code() + " error for: GET " + url);
+                        cb.onResult(new ApiResult.Error<T>(ErrorHandler.map(response.code(), payload), response.code()));
+                    }
+                } catch (IOException e) {
+                    if (cached != null) {
+                        deliverCached(cached, type, cb);
+                    } else {
+                        cb.onResult(new ApiResult.Error<T>(getDetailedErrorMessage(e, url), null, ErrorCategory.forException(e)));
+                    }
+                }
+            }
+        });
+    }
+
+    private <T> void deliverCached(ResponseCache.Entry entry, Class<T> type, Callback<T> cb) {
+        try {
+            cb.onResult(new ApiResult.Success<T>(parse(entry.getBody(), type)));
+        } catch (JsonSyntaxException ex) {
+            cb.onResult(new ApiResult.Error<T>("Invalid cached response: " + ex.getMessage(), null, ErrorCategory.INVALID_RESPONSE));
+        }
+    }
+
+    private <T> T parse(String payload, Class<T> type) {
+        return type == String.class ? type.cast(payload) : gson.fromJson(payload, type);
+    }
+
+    private <T> T decode(ResponseBody body, Class<T> type) throws IOException {
+        if (type == String.class) {
+            // Réponse texte (ex. identifiant brut renvoyé par create) : rien à décoder
+            return type.cast(body.string());
+        }
+        try (JsonReader reader = new JsonReader(body.charStream())) {
+            return gson.fromJson(reader, type);
+        } catch (JsonIOException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e);
+        }
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    private static String preview(String content, int limit) {
+        return content.length() > limit ? content.substring(0, limit) + "..." : content;
+    }
+
+    /**
+     * Exécution brute (réponse non JSON, ex. PDF) sur le client partagé
+     */
+    public void enqueue(Request request, okhttp3.Callback callback) {
+        client.newCall(request).enqueue(callback);
+    }
+
     public interface Callback<T> {
         void onResult(ApiResult<T> result);
     }
@@ -173,24 +395,57 @@ public final class NetworkClient {
     }
 
     /**
-     * Safely renders a preview of the request body for logging.
+     * Safely renders a bounded preview of the request body for logging.
      */
-    private String getRequestBodyPreview(Request request) {
+    private String getRequestBodyPreview(Request request, int limit) {
         RequestBody body = request.body();
         if (body == null) {
             return null;
         }
+        if (body.isOneShot()) {
+            return "(one-shot body)";
+        }
         try {
-            Buffer buffer = new Buffer();
-            body.writeTo(buffer);
-            String content = buffer.readUtf8();
-            if (content == null || content.isEmpty()) {
+            PreviewSink sink = new PreviewSink(limit);
+            BufferedSink buffered = Okio.buffer(sink);
+            body.writeTo(buffered);
+            buffered.flush();
+            String content = sink.captured.readUtf8();
+            if (content.isEmpty()) {
                 return "(empty)";
             }
-            int limit = 2000;
-            return content.length() > limit ? content.substring(0, limit) + "..." : content;
+            return sink.truncated ? content + "..." : content;
         } catch (Exception ex) {
             return "(unable to read body: " + ex.getMessage() + ")";
         }
     }
+
+    /**
+     * Garde les premiers octets écrits et ignore le reste
+     */
+    private static final class PreviewSink implements Sink {
+        private final Buffer captured = new Buffer();
+        private final long limit;
+        private boolean truncated;
+
+        PreviewSink(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            long keep = Math.max(0, Math.min(byteCount, limit - captured.size()));
+            if (keep > 0) {
+                source.read(captured, keep);
+            }
+            if (byteCount > keep) {
+                truncated = true;
+                source.skip(byteCount - keep);
+            }
+        }
+
+        @Override public void flush() {}
+        @Override public Timeout timeout() { return Timeout.NONE; }
+        @Override public void close() {}
+    }
 }
\ No newline at end of file
@@ -0,0 +1,186 @@
+package com.dspread.pos.common.http;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import okio.ByteString;
+
+/**
+ * Cache des réponses GET à deux niveaux : LRU en mémoire devant des fichiers sur disque
+ *
+ * Les entrées sont indexées par URL et gardent le corps brut avec ses validateurs
+ * (ETag, Last-Modified) pour les requêtes conditionnelles. La fraîcheur (TTL) est
+ * décidée par l'appelant, voir {@link NetworkClient#executeCached}.
+ */
+public final class ResponseCache {
+    private static final String TAG = "ResponseCache";
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".entry";
+
+    /**
+     * Réponse en cache
+     */
+    public static final class Entry {
+        private final String body;
+        private final String etag;
+        private final String lastModified;
+        private final long storedAt;
+
+        Entry(String body, String etag, String lastModified, long storedAt) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+        }
+
+        public String getBody() { return body; }
+        public String getEtag() { return etag; }
+        public String getLastModified() { return lastModified; }
+        public long getStoredAt() { return storedAt; }
+
+        Entry revalidated(long now) {
+            return new Entry(body, etag, lastModified, now);
+        }
+    }
+
+    private final File directory;
+    private final long maxDiskBytes;
+    private final Map<String, Entry> memory;
+
+    public ResponseCache(File directory, int maxMemoryEntries, long maxDiskBytes) {
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxMemoryEntries;
+            }
+        };
+    }
+
+    /**
+     * Entrée de l'URL (mémoire puis disque), ou null
+     */
+    public synchronized Entry get(String url) {
+        Entry entry = memory.get(url);
+        if (entry != null) {
+            return entry;
+        }
+        entry = readFromDisk(url);
+        if (entry != null) {
+            memory.put(url, entry);
+        }
+        return entry;
+    }
+
+    public synchronized void put(String url, Entry entry) {
+        memory.put(url, entry);
+        try {
+            writeToDisk(url, entry);
+        } catch (IOException e) {
+            // Le niveau mémoire suffit jusqu'au prochain redémarrage
+            Log.w(TAG, "Cannot write cache entry: " + e.getMessage());
+        }
+    }
+
+    public synchronized void remove(String url) {
+        memory.remove(url);
+        File file = fileFor(url);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Cannot delete cache entry " + file.getName());
+        }
+    }
+
+    private File fileFor(String url) {
+        return new File(directory, ByteString.encodeUtf8(url).sha1().hex() + SUFFIX);
+    }
+
+    private Entry readFromDisk(String url) {
+        File file = fileFor(url);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION || !url.equals(in.readUTF())) {
+                return null;
+            }
+            long storedAt = in.readLong();
+            String etag = in.readBoolean() ? in.readUTF() : null;
+            String lastModified = in.readBoolean() ? in.readUTF() : null;
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            // Ordre LRU du niveau disque
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(new String(body, StandardCharsets.UTF_8), etag, lastModified, storedAt);
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable cache entry " + file.getName() + ": " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    private void writeToDisk(String url, Entry entry) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create cache directory: " + directory);
+        }
+        File file = fileFor(url);
+        File tmp = new File(file.getPath() + ".tmp");
+        byte[] body = entry.body.getBytes(StandardCharsets.UTF_8);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(url);
+            out.writeLong(entry.storedAt);
+            writeNullable(out, entry.etag);
+            writeNullable(out, entry.lastModified);
+            out.writeInt(body.length);
+            out.write(body);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot install cache entry: " + file);
+        }
+        trim();
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private void trim() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxDiskBytes) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= maxDiskBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+}
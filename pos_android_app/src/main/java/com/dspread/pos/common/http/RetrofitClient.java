@@ -10,7 +10,6 @@ import okio.Buffer;
 import retrofit2.adapter.rxjava2.RxJava2CallAdapterFactory;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
 
 import okhttp3.OkHttpClient;
 import retrofit2.Retrofit;
@@ -36,10 +35,7 @@ public class RetrofitClient {
             }
         };
 
-        OkHttpClient okHttpClient = new OkHttpClient.Builder()
-                .connectTimeout(20, TimeUnit.SECONDS)
-                .writeTimeout(20, TimeUnit.SECONDS)
-                .readTimeout(20, TimeUnit.SECONDS)
+        OkHttpClient okHttpClient = HttpTransport.newBuilder()
                 .addInterceptor(requestInterceptor)
                 .build();
 
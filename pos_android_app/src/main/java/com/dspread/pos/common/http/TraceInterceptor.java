@@ -0,0 +1,41 @@
+package com.dspread.pos.common.http;
+
+import com.dspread.pos.common.trace.Span;
+import com.dspread.pos.common.trace.Trace;
+import com.dspread.pos.common.trace.Tracer;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Pour un appel rattaché à une vente ({@code Request.tag(Trace.class)}) vers un hôte
+ * déclaré ({@link Tracer#addHeaderHost}), ajoute l'en-tête {@link Tracer#HEADER} et
+ * enregistre l'appel comme étape de la trace (méthode, chemin, statut)
+ *
+ * Les autres appels (synchronisation en arrière-plan, services tiers) passent tels quels.
+ */
+final class TraceInterceptor implements Interceptor {
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Trace trace = request.tag(Trace.class);
+        if (trace == null || !Tracer.getInstance().propagatesTo(request.url().host())) {
+            return chain.proceed(request);
+        }
+        Span span = trace.startSpan("http " + request.method() + " " + request.url().encodedPath());
+        try {
+            Response response = chain.proceed(request.newBuilder()
+                    .header(Tracer.HEADER, trace.getTraceId())
+                    .build());
+            span.tag("status", response.code()).end();
+            return response;
+        } catch (IOException e) {
+            span.fail(e.getClass().getSimpleName());
+            throw e;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.dspread.pos.common.http.api;
 
 import com.dspread.pos.common.http.model.AuthRequest;
 import com.dspread.pos.common.http.model.TransactionRequest;
+import com.dspread.pos.common.trace.Tracer;
 
 import java.util.Map;
 
@@ -9,6 +10,7 @@ import io.reactivex.Observable;
 import me.goldze.mvvmhabit.http.BaseResponse;
 import retrofit2.http.Body;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
 import retrofit2.http.Headers;
 import retrofit2.http.POST;
 import retrofit2.http.Url;
@@ -17,9 +19,13 @@ public interface RequestOnlineAuthAPI {
     @POST
     Observable<BaseResponse> sendMessage(@Url String url, @Body Map<String, Object> body);
 
+    /**
+     * Autorisation auprès de l'émetteur ; {@code traceId} : vente en cours, ou null (pas d'en-tête)
+     */
     @Headers({"Content-Type: application/json"})
     @POST
-    Observable<BaseResponse> sendMessage(@Url String url, @Body AuthRequest body);
+    Observable<BaseResponse> sendMessage(@Url String url, @Body AuthRequest body,
+                                         @Header(Tracer.HEADER) String traceId);
 
     @Headers({"Content-Type: application/json"})
     @POST
@@ -0,0 +1,133 @@
+package com.dspread.pos.common.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramme de latences à intervalles log-linéaires (façon HDR)
+ *
+ * Chaque puissance de 2 est découpée en 32 intervalles : ~3 % de précision de
+ * 1 µs à ~18 min. Un enregistrement est un incrément atomique, sans verrou ni
+ * allocation ; les centiles sont calculés sur un instantané ({@link #snapshot()}).
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Valeurs en µs ; au-delà de 2^30 µs, rangées dans le dernier intervalle
+    private static final int MAX_LOG = 30;
+    private static final long MAX_MICROS = (1L << MAX_LOG) - 1;
+    private static final int BUCKETS = (MAX_LOG - SUB_BITS + 1) << SUB_BITS;
+
+    /**
+     * Centiles et moyenne d'un histogramme, en millisecondes
+     */
+    public static final class Snapshot {
+        private final long count;
+        private final double meanMs;
+        private final double p50Ms;
+        private final double p95Ms;
+        private final double p99Ms;
+        private final double maxMs;
+
+        Snapshot(long count, double meanMs, double p50Ms, double p95Ms, double p99Ms, double maxMs) {
+            this.count = count;
+            this.meanMs = meanMs;
+            this.p50Ms = p50Ms;
+            this.p95Ms = p95Ms;
+            this.p99Ms = p99Ms;
+            this.maxMs = maxMs;
+        }
+
+        public long getCount() { return count; }
+        public double getMeanMs() { return meanMs; }
+        public double getP50Ms() { return p50Ms; }
+        public double getP95Ms() { return p95Ms; }
+        public double getP99Ms() { return p99Ms; }
+        public double getMaxMs() { return maxMs; }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "n=%d p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms mean=%.1fms",
+                    count, p50Ms, p95Ms, p99Ms, maxMs, meanMs);
+        }
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    LatencyHistogram() {}
+
+    public void recordMicros(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_MICROS));
+        counts.incrementAndGet(index(value));
+        totalMicros.add(value);
+        long max = maxMicros.get();
+        while (value > max && !maxMicros.compareAndSet(max, value)) {
+            max = maxMicros.get();
+        }
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1_000);
+    }
+
+    /**
+     * Enregistre le temps écoulé depuis {@code startNanos} ({@link System#nanoTime()})
+     */
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        if (count == 0) {
+            return new Snapshot(0, 0, 0, 0, 0, 0);
+        }
+        long max = maxMicros.get();
+        return new Snapshot(count, totalMicros.sum() / 1000.0 / count,
+                valueAt(copy, count, 0.50, max) / 1000.0,
+                valueAt(copy, count, 0.95, max) / 1000.0,
+                valueAt(copy, count, 0.99, max) / 1000.0,
+                max / 1000.0);
+    }
+
+    /**
+     * Borne haute de l'intervalle qui contient le rang du centile, plafonnée au maximum observé
+     */
+    private static long valueAt(long[] copy, long count, double quantile, long max) {
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < copy.length; i++) {
+            seen += copy[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int index(long value) {
+        if (value < 2 * SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    static long upperBound(int index) {
+        if (index < 2 * SUB_COUNT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BITS) - 1;
+        long top = index - ((long) shift << SUB_BITS);
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,170 @@
+package com.dspread.pos.common.metrics;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registre des métriques du parcours d'encaissement : compteurs, jauges et
+ * histogrammes de latence, par nom
+ *
+ * Les appelants gardent l'instance obtenue (champ statique) : la recherche par
+ * nom n'a lieu qu'une fois, et mesurer ne coûte ensuite ni verrou ni allocation.
+ * Les valeurs sont cumulées depuis le démarrage ; {@link #report()} les résume et
+ * {@link #export(File)} les écrit en JSON, avec les libellés ({@link #setLabel})
+ * qui permettent de comparer versions d'application et de firmware.
+ */
+public final class Metrics {
+    private static final String EXPORT_PREFIX = "metrics_";
+    private static final int MAX_EXPORTS = 10;
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        Counter() {}
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    public static final class Gauge {
+        private final AtomicLong value = new AtomicLong();
+
+        Gauge() {}
+
+        public void set(long newValue) {
+            value.set(newValue);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> labels = new ConcurrentHashMap<>();
+
+    Metrics() {}
+
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public Gauge gauge(String name) {
+        return gauges.computeIfAbsent(name, k -> new Gauge());
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    /**
+     * Contexte joint aux exports (version de l'application, firmware, modèle)
+     */
+    public void setLabel(String key, String value) {
+        if (value == null) {
+            labels.remove(key);
+        } else {
+            labels.put(key, value);
+        }
+    }
+
+    /**
+     * Résumé texte, une métrique par ligne, triées par nom
+     */
+    public String report() {
+        StringBuilder out = new StringBuilder("metrics ").append(new TreeMap<>(labels));
+        for (Map.Entry<String, LatencyHistogram> e : new TreeMap<>(histograms).entrySet()) {
+            out.append('\n').append(e.getKey()).append(' ').append(e.getValue().snapshot());
+        }
+        for (Map.Entry<String, Counter> e : new TreeMap<>(counters).entrySet()) {
+            out.append('\n').append(e.getKey()).append(" count=").append(e.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> e : new TreeMap<>(gauges).entrySet()) {
+            out.append('\n').append(e.getKey()).append(" value=").append(e.getValue().get());
+        }
+        return out.toString();
+    }
+
+    /**
+     * Écrit un instantané JSON daté dans {@code dir} ; seuls les {@link #MAX_EXPORTS} plus récents sont gardés
+     *
+     * @return le fichier écrit
+     */
+    public File export(File dir) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create metrics directory: " + dir);
+        }
+        long now = System.currentTimeMillis();
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("exportedAt", now);
+        root.put("labels", new TreeMap<>(labels));
+        Map<String, LatencyHistogram.Snapshot> histogramValues = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            histogramValues.put(e.getKey(), e.getValue().snapshot());
+        }
+        root.put("histograms", histogramValues);
+        Map<String, Long> counterValues = new TreeMap<>();
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            counterValues.put(e.getKey(), e.getValue().get());
+        }
+        root.put("counters", counterValues);
+        Map<String, Long> gaugeValues = new TreeMap<>();
+        for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+            gaugeValues.put(e.getKey(), e.getValue().get());
+        }
+        root.put("gauges", gaugeValues);
+
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.US).format(new Date(now));
+        File file = new File(dir, EXPORT_PREFIX + stamp + ".json");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(root, writer);
+        }
+        trimExports(dir);
+        return file;
+    }
+
+    private static void trimExports(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(EXPORT_PREFIX) && name.endsWith(".json"));
+        if (files == null || files.length <= MAX_EXPORTS) {
+            return;
+        }
+        // Noms horodatés : l'ordre alphabétique est l'ordre chronologique
+        Arrays.sort(files);
+        for (int i = 0; i < files.length - MAX_EXPORTS; i++) {
+            files[i].delete();
+        }
+    }
+}
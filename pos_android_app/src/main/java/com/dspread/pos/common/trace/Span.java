@@ -0,0 +1,91 @@
+package com.dspread.pos.common.trace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Étape d'une trace : nom, début et fin, attributs, étape parente
+ *
+ * Hors d'une trace, {@link #NOOP} accepte tous les appels sans rien enregistrer :
+ * le code instrumenté n'a pas à tester la présence d'une trace.
+ */
+public final class Span {
+    /** Étape inerte, rendue quand aucune vente n'est tracée */
+    public static final Span NOOP = new Span(null, 0, 0, "noop", 0);
+
+    private final Trace trace;
+    private final int id;
+    private final int parentId;
+    private final String name;
+    private final long startNanos;
+    // 0 tant que l'étape est ouverte ; gardés par le verrou de la trace
+    private long endNanos;
+    private Map<String, String> attributes;
+
+    Span(Trace trace, int id, int parentId, String name, long startNanos) {
+        this.trace = trace;
+        this.id = id;
+        this.parentId = parentId;
+        this.name = name;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Étape imbriquée, ouverte maintenant
+     */
+    public Span child(String name) {
+        return trace != null ? trace.open(name, id) : NOOP;
+    }
+
+    /**
+     * Événement ponctuel (callback matériel, réponse reçue) sous cette étape
+     */
+    public Span mark(String name) {
+        Span span = child(name);
+        span.end();
+        return span;
+    }
+
+    public Span tag(String key, Object value) {
+        if (trace != null) {
+            synchronized (trace) {
+                if (attributes == null) {
+                    attributes = new LinkedHashMap<>();
+                }
+                attributes.put(key, String.valueOf(value));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Ferme l'étape ; sans effet si elle l'est déjà
+     */
+    public void end() {
+        if (trace != null) {
+            synchronized (trace) {
+                if (endNanos == 0) {
+                    endNanos = Math.max(System.nanoTime(), startNanos + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ferme l'étape en échec
+     */
+    public void fail(Object reason) {
+        tag("error", reason).end();
+    }
+
+    public boolean isRecording() {
+        return trace != null;
+    }
+
+    int getId() { return id; }
+    int getParentId() { return parentId; }
+    String getName() { return name; }
+    long getStartNanos() { return startNanos; }
+    long getEndNanos() { return endNanos; }
+    Map<String, String> getAttributes() { return attributes; }
+}
@@ -0,0 +1,136 @@
+package com.dspread.pos.common.trace;
+
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Trace d'une vente : identifiant de corrélation et étapes horodatées
+ *
+ * Les étapes sont rangées sous une étape racine ; leurs heures sont relatives au
+ * début de la trace. Une fois la trace terminée ({@link Tracer#finishTrace}), les
+ * étapes tardives ne sont plus enregistrées.
+ */
+public final class Trace {
+    // Au-delà, les étapes sont comptées mais pas gardées
+    static final int MAX_SPANS = 100;
+    private static final Gson gson = new Gson();
+
+    private final String traceId;
+    private final long startedAtMs;
+    private final long startNanos;
+    private final Span root;
+    private final List<Span> spans = new ArrayList<>();
+    private int nextId = 1;
+    private int droppedSpans;
+    private long endNanos;
+    private String outcome;
+
+    Trace(String name) {
+        this.traceId = UUID.randomUUID().toString().replace("-", "");
+        this.startedAtMs = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+        this.root = new Span(this, nextId++, 0, name, startNanos);
+        spans.add(root);
+    }
+
+    /**
+     * Identifiant envoyé dans l'en-tête {@code X-Trace-Id} (32 caractères hexadécimaux)
+     */
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public Span root() {
+        return root;
+    }
+
+    /**
+     * Étape de premier niveau, ouverte maintenant
+     */
+    public Span startSpan(String name) {
+        return root.child(name);
+    }
+
+    synchronized Span open(String name, int parentId) {
+        if (endNanos != 0) {
+            return Span.NOOP;
+        }
+        if (spans.size() >= MAX_SPANS) {
+            droppedSpans++;
+            return Span.NOOP;
+        }
+        Span span = new Span(this, nextId++, parentId, name, System.nanoTime());
+        spans.add(span);
+        return span;
+    }
+
+    /**
+     * @return false si la trace était déjà terminée
+     */
+    synchronized boolean finish(String outcome) {
+        if (endNanos != 0) {
+            return false;
+        }
+        root.end();
+        endNanos = root.getEndNanos();
+        this.outcome = outcome;
+        return true;
+    }
+
+    public synchronized boolean isFinished() {
+        return endNanos != 0;
+    }
+
+    public synchronized long getDurationMs() {
+        return ((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos) / 1_000_000;
+    }
+
+    /**
+     * Forme JSON enregistrée dans le fichier des traces, limitée à {@code maxSpans} étapes
+     */
+    synchronized String toJson(int maxSpans) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("traceId", traceId);
+        out.put("name", root.getName());
+        out.put("startedAt", startedAtMs);
+        out.put("outcome", outcome);
+        out.put("durationMs", getDurationMs());
+        List<Map<String, Object>> spanList = new ArrayList<>();
+        int kept = Math.min(maxSpans, spans.size());
+        for (int i = 0; i < kept; i++) {
+            Span span = spans.get(i);
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("id", span.getId());
+            if (span.getParentId() != 0) {
+                item.put("parent", span.getParentId());
+            }
+            item.put("name", span.getName());
+            item.put("startMs", roundMs(span.getStartNanos() - startNanos));
+            if (span.getEndNanos() != 0) {
+                item.put("durMs", roundMs(span.getEndNanos() - span.getStartNanos()));
+            } else {
+                item.put("open", true);
+            }
+            if (span.getAttributes() != null) {
+                item.put("attrs", span.getAttributes());
+            }
+            spanList.add(item);
+        }
+        out.put("spans", spanList);
+        int dropped = droppedSpans + spans.size() - kept;
+        if (dropped > 0) {
+            out.put("droppedSpans", dropped);
+        }
+        return gson.toJson(out);
+    }
+
+    private static double roundMs(long nanos) {
+        // Dixièmes de milliseconde : assez pour comparer les étapes, court en JSON
+        return Math.round(nanos / 1e5) / 10.0;
+    }
+}
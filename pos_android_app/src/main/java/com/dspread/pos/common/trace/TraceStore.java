@@ -0,0 +1,114 @@
+package com.dspread.pos.common.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fichier circulaire des dernières traces
+ *
+ * Taille fixe : un en-tête puis {@code slots} emplacements de {@code slotBytes}
+ * octets. Chaque trace écrase la plus ancienne. L'emplacement est écrit avant
+ * l'en-tête : une écriture interrompue laisse au pire un emplacement illisible,
+ * ignoré à la lecture. Fichier d'une autre géométrie : recréé vide.
+ */
+public final class TraceStore {
+    private static final int MAGIC = 0x54524331; // "TRC1"
+    private static final int HEADER_BYTES = 20;
+
+    private final File file;
+    private final int slots;
+    private final int slotBytes;
+
+    public TraceStore(File file, int slots, int slotBytes) {
+        this.file = file;
+        this.slots = slots;
+        this.slotBytes = slotBytes;
+    }
+
+    /**
+     * Plus grande trace (JSON UTF-8) qu'un emplacement peut contenir
+     */
+    int capacity() {
+        return slotBytes - 4;
+    }
+
+    /**
+     * Écrit une trace à la place de la plus ancienne
+     */
+    public synchronized void append(String json) throws IOException {
+        byte[] data = json.getBytes(StandardCharsets.UTF_8);
+        if (data.length > capacity()) {
+            throw new IOException("Trace too large for slot: " + data.length + " bytes");
+        }
+        try (RandomAccessFile raf = open()) {
+            long written = readWritten(raf);
+            raf.seek(slotOffset((int) (written % slots)));
+            raf.writeInt(data.length);
+            raf.write(data);
+            raf.seek(12);
+            raf.writeLong(written + 1);
+        }
+    }
+
+    /**
+     * Traces enregistrées, de la plus ancienne à la plus récente
+     */
+    public synchronized List<String> readAll() throws IOException {
+        List<String> traces = new ArrayList<>();
+        if (!file.exists()) {
+            return traces;
+        }
+        try (RandomAccessFile raf = open()) {
+            long written = readWritten(raf);
+            long first = Math.max(0, written - slots);
+            for (long n = first; n < written; n++) {
+                raf.seek(slotOffset((int) (n % slots)));
+                int length = raf.readInt();
+                if (length <= 0 || length > capacity()) {
+                    continue;
+                }
+                byte[] data = new byte[length];
+                raf.readFully(data);
+                traces.add(new String(data, StandardCharsets.UTF_8));
+            }
+        }
+        return traces;
+    }
+
+    private RandomAccessFile open() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        long expected = HEADER_BYTES + (long) slots * slotBytes;
+        boolean valid = raf.length() == expected;
+        if (valid) {
+            raf.seek(0);
+            valid = raf.readInt() == MAGIC && raf.readInt() == slots && raf.readInt() == slotBytes;
+        }
+        if (!valid) {
+            raf.setLength(0);
+            raf.setLength(expected);
+            raf.seek(0);
+            raf.writeInt(MAGIC);
+            raf.writeInt(slots);
+            raf.writeInt(slotBytes);
+            raf.writeLong(0);
+        }
+        return raf;
+    }
+
+    private static long readWritten(RandomAccessFile raf) throws IOException {
+        raf.seek(12);
+        return raf.readLong();
+    }
+
+    private long slotOffset(int slot) {
+        return HEADER_BYTES + (long) slot * slotBytes;
+    }
+}
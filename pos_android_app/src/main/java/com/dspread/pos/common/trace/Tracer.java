@@ -0,0 +1,168 @@
+package com.dspread.pos.common.trace;
+
+import com.dspread.pos.utils.PosLog;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Traces des ventes : paiement carte, certification DGI, impression
+ *
+ * Un terminal ne mène qu'une vente à la fois : la trace en cours est globale et
+ * non liée au thread, pour suivre les callbacks du lecteur, du thread principal
+ * et des threads réseau. Les appels HTTP de la vente y sont rattachés explicitement
+ * ({@code Request.tag(Trace.class)}) et portent l'en-tête {@link #HEADER} vers les
+ * hôtes déclarés ({@link #addHeaderHost}). Une trace terminée est écrite dans le
+ * fichier circulaire ({@link TraceStore}) par un thread dédié.
+ */
+public final class Tracer {
+    public static final String HEADER = "X-Trace-Id";
+    private static final String TAG = "Tracer";
+    private static final PosLog LOG = PosLog.get(TAG);
+    private static final Tracer INSTANCE = new Tracer();
+
+    private final ExecutorService persister = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "trace-store");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Trace current;
+    private volatile TraceStore store;
+    // Hôtes qui reçoivent l'en-tête de trace (DGI, émetteur) ; les autres ne le voient jamais
+    private final Set<String> headerHosts = ConcurrentHashMap.newKeySet();
+
+    Tracer() {}
+
+    public static Tracer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Fichier des traces terminées (null : traces gardées en mémoire seulement)
+     */
+    public void setStore(TraceStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Déclare un hôte auquel l'identifiant de trace peut être envoyé
+     */
+    public void addHeaderHost(String host) {
+        headerHosts.add(host);
+    }
+
+    /**
+     * Oublie les hôtes déclarés (tests)
+     */
+    void clearHeaderHosts() {
+        headerHosts.clear();
+    }
+
+    /**
+     * true si l'en-tête {@link #HEADER} peut être envoyé à {@code host}
+     */
+    public boolean propagatesTo(String host) {
+        return headerHosts.contains(host);
+    }
+
+    /**
+     * Ouvre la trace d'une nouvelle vente ; celle en cours est terminée comme abandonnée
+     */
+    public synchronized Trace startTrace(String name) {
+        Trace previous = current;
+        if (previous != null) {
+            finish(previous, "abandoned");
+        }
+        current = new Trace(name);
+        return current;
+    }
+
+    /**
+     * Trace en cours, ou nouvelle trace s'il n'y en a pas (vente sans paiement carte)
+     */
+    public synchronized Trace currentOrStart(String name) {
+        Trace trace = current;
+        return trace != null ? trace : startTrace(name);
+    }
+
+    /**
+     * Trace en cours, ou null
+     */
+    public Trace current() {
+        return current;
+    }
+
+    /**
+     * Étape de premier niveau de la trace en cours ({@link Span#NOOP} hors d'une vente)
+     */
+    public Span startSpan(String name) {
+        Trace trace = current;
+        return trace != null ? trace.startSpan(name) : Span.NOOP;
+    }
+
+    /**
+     * Termine la trace en cours
+     */
+    public void finishTrace(String outcome) {
+        Trace trace = current;
+        if (trace != null) {
+            finishTrace(trace, outcome);
+        }
+    }
+
+    /**
+     * Termine une trace précise, même si une autre vente a commencé depuis
+     */
+    public void finishTrace(Trace trace, String outcome) {
+        synchronized (this) {
+            if (current == trace) {
+                current = null;
+            }
+        }
+        finish(trace, outcome);
+    }
+
+    /**
+     * Traces du fichier, de la plus ancienne à la plus récente
+     */
+    public List<String> recentTraces() throws IOException {
+        TraceStore target = store;
+        return target != null ? target.readAll() : new ArrayList<>();
+    }
+
+    private void finish(Trace trace, String outcome) {
+        if (!trace.finish(outcome)) {
+            return;
+        }
+        LOG.at(PosLog.Level.INFO)
+                .kv("traceId", trace.getTraceId())
+                .kv("outcome", outcome)
+                .kv("ms", trace.getDurationMs())
+                .log("Sale trace finished");
+        TraceStore target = store;
+        if (target != null) {
+            persister.execute(() -> persist(target, trace));
+        }
+    }
+
+    private static void persist(TraceStore target, Trace trace) {
+        try {
+            // Trace trop grande pour un emplacement : les dernières étapes sont retirées
+            int maxSpans = Trace.MAX_SPANS;
+            String json = trace.toJson(maxSpans);
+            while (json.getBytes(StandardCharsets.UTF_8).length > target.capacity() && maxSpans > 1) {
+                maxSpans /= 2;
+                json = trace.toJson(maxSpans);
+            }
+            target.append(json);
+        } catch (IOException e) {
+            LOG.w("Cannot persist trace {}: {}", trace.getTraceId(), e.getMessage());
+        }
+    }
+}
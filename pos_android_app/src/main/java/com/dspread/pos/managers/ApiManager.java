@@ -4,25 +4,113 @@ import android.content.Context;
 import android.util.Log;
 
 import com.dspread.pos.models.*;
-import com.dspread.pos.utils.TRACE;
+import com.dspread.pos.utils.PosLog;
 import com.dspread.pos.common.http.NetworkClient;
 import com.dspread.pos.common.http.ApiResult;
+import com.dspread.pos.common.http.ErrorCategory;
+import com.dspread.pos.common.http.HttpTransport;
+import com.dspread.pos.common.http.LatencyBudget;
+import com.dspread.pos.common.http.ResponseCache;
+import com.dspread.pos.common.metrics.LatencyHistogram;
+import com.dspread.pos.common.metrics.Metrics;
+import com.dspread.pos.common.trace.Span;
+import com.dspread.pos.common.trace.Trace;
+import com.dspread.pos.common.trace.Tracer;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Sink;
 
 public class ApiManager {
     private static final String TAG = "ApiManager";
+    private static final PosLog LOG = PosLog.get(TAG);
     // URL selon KPS Access - Normalisation Factures Postman collection
     private static final String BASE_URL = "https://api.fiv.dgi.kpsaccess.com";
+    // Sous la durée de vie d'une connexion inactive du pool (5 min)
+    private static final long KEEP_ALIVE_INTERVAL_MS = 4 * 60_000;
+    // Chaînes create → fiscalize simultanées d'un lot (voir HttpTransport : 8 requêtes par hôte)
+    private static final int BATCH_CONCURRENCY = 8;
+    private static final MediaType JSON = MediaType.parse("application/json");
+    private static final String PDF_CACHE_DIR = "invoice_pdf";
+    private static final String HTTP_CACHE_DIR = "http_cache";
+    // Une facture fiscalisée ne change plus ; les listes de référence changent rarement
+    private static final long VERIFY_TTL_MS = 24 * 60 * 60_000L;
+    private static final long REFERENCE_TTL_MS = 60 * 60_000L;
+    // Délai par point d'entrée : p99 observé × facteur, entre plancher et plafond
+    private static final long TIMEOUT_FLOOR_MS = 3_000;
+    private static final long TIMEOUT_CEILING_MS = 30_000;
+    private static final double TIMEOUT_P99_FACTOR = 3.0;
+    private static final long PDF_CHUNK_BYTES = 64 * 1024;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-\\d+/(\\d+|\\*)");
+    // Durée appel → réponse, échecs compris
+    private static final LatencyHistogram CREATE_LATENCY = Metrics.getInstance().histogram("api.create");
+    private static final LatencyHistogram FISCALIZE_LATENCY = Metrics.getInstance().histogram("api.fiscalize");
+    private static final Metrics.Counter CREATE_ERRORS = Metrics.getInstance().counter("api.create.errors");
+    private static final Metrics.Counter FISCALIZE_ERRORS = Metrics.getInstance().counter("api.fiscalize.errors");
 
     private static volatile ApiManager instance;
     private final NetworkClient net;
+    private final String baseUrl;
+    private final InvoicePdfCache pdfCache;
+    private final ResponseCache responseCache;
+    // Appels en cours, par identité de facture (machineNum/externalNum) ou identifiant DGI
+    private final SingleFlight<String, CertifyWaiter> certifyFlight = new SingleFlight<>();
+    // Identifiant DGI des certifications en cours déjà créées, rejoué aux appelants rattachés ensuite
+    private final Map<String, String> certifyCreatedIds = new ConcurrentHashMap<>();
+    private final SingleFlight<String, ApiCallback<InvoiceVerificationResponse>> verifyFlight = new SingleFlight<>();
+    private final SingleFlight<String, ApiCallback<File>> pdfFlight = new SingleFlight<>();
     private final com.google.gson.Gson gson;
+    private final LatencyBudget createBudget =
+            new LatencyBudget("create", TIMEOUT_FLOOR_MS, TIMEOUT_CEILING_MS, TIMEOUT_P99_FACTOR);
+    private final LatencyBudget fiscalizeBudget =
+            new LatencyBudget("fiscalize", TIMEOUT_FLOOR_MS, TIMEOUT_CEILING_MS, TIMEOUT_P99_FACTOR);
+    private final Object keepAliveLock = new Object();
+    private int keepAliveUsers;
+    private ScheduledFuture<?> keepAliveTask;
 
     private ApiManager(Context context) {
-        this.net = NetworkClient.getInstance();
+        this(NetworkClient.getInstance(), BASE_URL, context.getCacheDir());
+    }
+
+    /**
+     * Instance sur une autre URL de base (serveur de test)
+     */
+    ApiManager(NetworkClient net, String baseUrl, File cacheDir) {
+        this.net = net;
+        this.baseUrl = baseUrl;
+        // Les appels d'une vente tracée vers la DGI portent l'identifiant de trace
+        HttpUrl host = HttpUrl.parse(baseUrl);
+        if (host != null) {
+            Tracer.getInstance().addHeaderHost(host.host());
+        }
+        this.pdfCache = new InvoicePdfCache(new File(cacheDir, PDF_CACHE_DIR));
+        this.responseCache = new ResponseCache(new File(cacheDir, HTTP_CACHE_DIR), 64, 2 * 1024 * 1024);
         this.gson = new com.google.gson.Gson();
     }
 
@@ -38,66 +126,159 @@ public class ApiManager {
     public interface ApiCallback<T> {
         void onSuccess(T result);
         void onError(String error);
+
+        /**
+         * Variante exposant le code HTTP de l'erreur (null pour une erreur réseau)
+         */
+        default void onError(String error, Integer httpCode) {
+            onError(error);
+        }
+
+        /**
+         * Variante exposant aussi la catégorie de l'échec : une catégorie transitoire
+         * ({@link ErrorCategory#isTransient()}) autorise la mise en file hors ligne
+         */
+        default void onError(String error, Integer httpCode, ErrorCategory category) {
+            onError(error, httpCode);
+        }
+    }
+
+    /**
+     * Progression d'un téléchargement (totalBytes = -1 si la taille est inconnue)
+     */
+    public interface ProgressListener {
+        void onProgress(long bytesRead, long totalBytes);
+    }
+
+    /**
+     * Notifié quand la facture existe côté DGI (après create, avant fiscalize)
+     */
+    public interface CreationListener {
+        void onCreated(String invoiceId);
+    }
+
+    /**
+     * Résultat de certification d'une facture d'un lot
+     */
+    public static final class BatchItemResult {
+        private final InvoiceData invoice;
+        private final InvoiceVerificationResponse response;
+        private final String error;
+        private final Integer httpCode;
+
+        BatchItemResult(InvoiceData invoice, InvoiceVerificationResponse response, String error, Integer httpCode) {
+            this.invoice = invoice;
+            this.response = response;
+            this.error = error;
+            this.httpCode = httpCode;
+        }
+
+        public InvoiceData getInvoice() { return invoice; }
+        public InvoiceVerificationResponse getResponse() { return response; }
+        public String getError() { return error; }
+        public Integer getHttpCode() { return httpCode; }
+        public boolean isSuccess() { return response != null; }
+    }
+
+    /**
+     * Interface pour suivre la certification d'un lot
+     */
+    public interface BatchCallback {
+        /**
+         * Facture créée côté DGI, avant fiscalize (voir {@link CreationListener})
+         */
+        default void onCreated(InvoiceData invoice, String invoiceId) {}
+
+        /**
+         * Résultat d'une facture, dans l'ordre d'arrivée
+         */
+        default void onItem(BatchItemResult result) {}
+
+        /**
+         * Résultats de toutes les factures, dans l'ordre du lot
+         */
+        void onComplete(List<BatchItemResult> results);
     }
 
     // ----------------------------
     // API Calls
     // ----------------------------
     public void createInvoice(InvoiceData invoice, ApiCallback<InvoiceCreationResponse> cb) {
+        createInvoice(invoice, 0, null, cb);
+    }
+
+    private void createInvoice(InvoiceData invoice, long deadlineAtMs, Trace trace,
+                               ApiCallback<InvoiceCreationResponse> cb) {
         if (invoice == null || !invoice.isValid()) {
             cb.onError("Invalid invoice data");
             return;
         }
+        long startNanos = System.nanoTime();
         
         // Recalculate totals to ensure they match invoice lines
         invoice.calculateTotals();
         
-        String json = gson.toJson(invoice);
-        String url = BASE_URL + "/api/invoices";
+        String url = baseUrl + "/api/invoices";
         
-        // CRITICAL: Log the exact JSON being sent for debugging
-        android.util.Log.i(TAG, "===== CREATING INVOICE =====");
-        android.util.Log.i(TAG, "URL: " + url);
-        android.util.Log.i(TAG, "JSON Body: " + json);
-        TRACE.i(TAG + ": ===== CREATING INVOICE =====");
-        TRACE.i(TAG + ": URL: " + url);
-        TRACE.i(TAG + ": JSON Body: " + json);
-        TRACE.i(TAG + ": ExternalNum: " + invoice.getExternalNum());
-        TRACE.i(TAG + ": MachineNum: " + invoice.getMachineNum());
-        TRACE.i(TAG + ": IssueDate: " + invoice.getIssueDate());
-        if (invoice.getIssuer() != null) {
-            TRACE.i(TAG + ": Issuer - name: " + invoice.getIssuer().getName() + ", identityNumber: " + invoice.getIssuer().getIdentityNumber() + ", tel: " + invoice.getIssuer().getTel());
-        }
-        if (invoice.getCustomer() != null) {
-            TRACE.i(TAG + ": Customer - name: " + invoice.getCustomer().getName() + ", identityNumber: " + invoice.getCustomer().getIdentityNumber());
-        }
-        TRACE.i(TAG + ": Totals - HT: " + invoice.getTotalHt() + ", VAT: " + invoice.getTotalVat() + ", TTC: " + invoice.getTotalTtc());
-        if (invoice.getInvoiceLines() != null) {
-            TRACE.i(TAG + ": InvoiceLines count: " + invoice.getInvoiceLines().size());
-            for (int i = 0; i < invoice.getInvoiceLines().size(); i++) {
-                com.dspread.pos.models.InvoiceLine line = invoice.getInvoiceLines().get(i);
-                TRACE.i(TAG + ":   Line " + i + ": " + line.getDesignation() + 
-                       " - Qty: " + line.getQuantity() + 
-                       ", Price: " + line.getUnitPrice() + 
-                       ", VAT: " + line.getVatRate() + "%" +
-                       ", Total: " + line.getTotalPrice() + 
-                       ", VAT Amt: " + line.getVatAmount());
-            }
-        }
-        TRACE.i(TAG + ": ============================");
+        // Exact JSON body: logged by NetworkClient when body capture is enabled
+        LOG.at(PosLog.Level.INFO)
+                .kv("url", url)
+                .kv("externalNum", invoice.getExternalNum())
+                .kv("machineNum", invoice.getMachineNum())
+                .kv("issueDate", invoice.getIssueDate())
+                .kv("totalHt", invoice.getTotalHt())
+                .kv("totalVat", invoice.getTotalVat())
+                .kv("totalTtc", invoice.getTotalTtc())
+                .kv("lines", invoice.getInvoiceLines() != null ? invoice.getInvoiceLines().size() : 0)
+                .log("Creating invoice");
+        // Détail des parties et des lignes : debug seulement, rien n'est parcouru au-dessus
+        if (PosLog.isEnabled(PosLog.Level.DEBUG)) {
+            if (invoice.getIssuer() != null) {
+                LOG.at(PosLog.Level.DEBUG)
+                        .kv("name", invoice.getIssuer().getName())
+                        .kv("identityNumber", invoice.getIssuer().getIdentityNumber())
+                        .kv("tel", invoice.getIssuer().getTel())
+                        .log("Issuer");
+            }
+            if (invoice.getCustomer() != null) {
+                LOG.at(PosLog.Level.DEBUG)
+                        .kv("name", invoice.getCustomer().getName())
+                        .kv("identityNumber", invoice.getCustomer().getIdentityNumber())
+                        .log("Customer");
+            }
+            if (invoice.getInvoiceLines() != null) {
+                for (int i = 0; i < invoice.getInvoiceLines().size(); i++) {
+                    com.dspread.pos.models.InvoiceLine line = invoice.getInvoiceLines().get(i);
+                    LOG.at(PosLog.Level.DEBUG)
+                            .kv("line", i)
+                            .kv("designation", line.getDesignation())
+                            .kv("qty", line.getQuantity())
+                            .kv("unitPrice", line.getUnitPrice())
+                            .kv("vatRate", line.getVatRate())
+                            .kv("total", line.getTotalPrice())
+                            .kv("vatAmount", line.getVatAmount())
+                            .log("Invoice line");
+                }
+            }
+        }
         
         Request req = new Request.Builder()
                 .url(url)
-                .post(RequestBody.create(json, MediaType.parse("application/json")))
+                .post(jsonBody(invoice))
                 .addHeader("Accept", "*/*")
                 .addHeader("Content-Type", "application/json")
+                .tag(Trace.class, trace)
                 .build();
 
         // Some environments return a raw numeric ID instead of JSON. Request as String and normalize.
-        net.execute(req, String.class, res -> {
+        net.execute(req, String.class, createBudget, deadlineAtMs, res -> {
+            CREATE_LATENCY.recordSince(startNanos);
+            if (!(res instanceof ApiResult.Success)) {
+                CREATE_ERRORS.inc();
+            }
             if (res == null) {
-                TRACE.e(TAG + ": createInvoice received null result");
-                cb.onError("Null response from server");
+                LOG.e("createInvoice received null result");
+                cb.onError("Null response from server", null, ErrorCategory.INVALID_RESPONSE);
                 return;
             }
             
@@ -105,8 +286,8 @@ public class ApiManager {
                 ApiResult.Success<String> s = (ApiResult.Success<String>) res;
                 String payload = s.data();
                 if (payload == null || payload.trim().isEmpty()) {
-                    TRACE.e(TAG + ": createInvoice received empty payload in success response");
-                    cb.onError("Server returned empty response");
+                    LOG.e("createInvoice received empty payload in success response");
+                    cb.onError("Server returned empty response", null, ErrorCategory.INVALID_RESPONSE);
                     return;
                 }
 
@@ -121,23 +302,23 @@ public class ApiManager {
                         data = new InvoiceCreationResponse(trimmed, "CREATED");
                     } else {
                         // Unexpected format
-                        TRACE.e(TAG + ": Unexpected createInvoice response format: " + trimmed);
-                        cb.onError("Invalid response format from server");
+                        LOG.e("Unexpected createInvoice response format: {}", trimmed);
+                        cb.onError("Invalid response format from server", null, ErrorCategory.INVALID_RESPONSE);
                         return;
                     }
                 } catch (Exception ex) {
-                    TRACE.e(TAG + ": Error parsing createInvoice response: " + ex.getMessage());
-                    cb.onError("Invalid response format: " + ex.getMessage());
+                    LOG.e("Error parsing createInvoice response", ex);
+                    cb.onError("Invalid response format: " + ex.getMessage(), null, ErrorCategory.INVALID_RESPONSE);
                     return;
                 }
 
                 if (data == null || data.getInvoiceId() == null || data.getInvoiceId().trim().isEmpty()) {
-                    TRACE.e(TAG + ": createInvoice parsed but missing invoice ID");
-                    cb.onError("Server returned invalid invoice ID");
+                    LOG.e("createInvoice parsed but missing invoice ID");
+                    cb.onError("Server returned invalid invoice ID", null, ErrorCategory.INVALID_RESPONSE);
                     return;
                 }
 
-                TRACE.i(TAG + ": Invoice created successfully - ID: " + data.getInvoiceId());
+                LOG.i("Invoice created successfully - ID: {}", data.getInvoiceId());
                 cb.onSuccess(data);
             } else if (res instanceof ApiResult.Error) {
                 ApiResult.Error<String> e = (ApiResult.Error<String>) res;
@@ -145,83 +326,205 @@ public class ApiManager {
                 if (errorMsg == null || errorMsg.trim().isEmpty()) {
                     errorMsg = "Unknown error occurred";
                 }
-                TRACE.e(TAG + ": createInvoice error: " + errorMsg);
-                cb.onError(errorMsg);
+                LOG.at(PosLog.Level.ERROR).kv("httpCode", e.code()).kv("category", e.category()).log("createInvoice error: {}", errorMsg);
+                cb.onError(errorMsg, e.code(), e.category());
             } else {
-                TRACE.e(TAG + ": createInvoice received unknown result type: " + res.getClass().getName());
-                cb.onError("Unexpected response format");
+                LOG.e("createInvoice received unknown result type: {}", res != null ? res.getClass().getName() : null);
+                cb.onError("Unexpected response format", null, ErrorCategory.INVALID_RESPONSE);
             }
         });
     }
 
     public void fiscalizeInvoice(String invoiceId, ApiCallback<FiscalizationResponse> cb) {
+        fiscalizeInvoice(invoiceId, 0, null, cb);
+    }
+
+    private void fiscalizeInvoice(String invoiceId, long deadlineAtMs, Trace trace,
+                                  ApiCallback<FiscalizationResponse> cb) {
+        long startNanos = System.nanoTime();
         Request req = new Request.Builder()
-                .url(BASE_URL + "/api/invoices/" + invoiceId + "/fiscalize")
+                .url(baseUrl + "/api/invoices/" + invoiceId + "/fiscalize")
                 .post(RequestBody.create("", null))
                 .addHeader("Accept", "*/*")
+                .tag(Trace.class, trace)
                 .build();
 
-        net.execute(req, FiscalizationResponse.class, res -> {
+        net.execute(req, FiscalizationResponse.class, fiscalizeBudget, deadlineAtMs, res -> {
+            FISCALIZE_LATENCY.recordSince(startNanos);
+            if (!(res instanceof ApiResult.Success)) {
+                FISCALIZE_ERRORS.inc();
+            }
             if (res instanceof ApiResult.Success) {
                 ApiResult.Success<FiscalizationResponse> s = (ApiResult.Success<FiscalizationResponse>) res;
                 cb.onSuccess(s.data());
             } else if (res instanceof ApiResult.Error) {
                 ApiResult.Error<FiscalizationResponse> e = (ApiResult.Error<FiscalizationResponse>) res;
-                cb.onError(e.message());
+                cb.onError(e.message(), e.code(), e.category());
+            } else {
+                LOG.e("fiscalizeInvoice received unknown result type: {}", res != null ? res.getClass().getName() : null);
+                cb.onError("Unexpected response format", null, ErrorCategory.INVALID_RESPONSE);
             }
         });
     }
 
+    /**
+     * Vérifie une facture ; les appels simultanés pour le même identifiant partagent une requête
+     */
     public void verifyInvoice(String invoiceId, ApiCallback<InvoiceVerificationResponse> cb) {
+        if (!verifyFlight.join(invoiceId, cb)) {
+            LOG.i("Joining in-flight verification of invoice {}", invoiceId);
+            return;
+        }
+        ApiCallback<InvoiceVerificationResponse> waiters = fanOut(verifyFlight, invoiceId);
         Request req = new Request.Builder()
-                .url(BASE_URL + "/api/invoices/" + invoiceId)
+                .url(baseUrl + "/api/invoices/" + invoiceId)
                 .get()
                 .addHeader("Accept", "*/*")
                 .build();
 
-        net.execute(req, InvoiceVerificationResponse.class, res -> {
+        net.executeCached(req, InvoiceVerificationResponse.class, responseCache, VERIFY_TTL_MS, res -> {
             if (res instanceof ApiResult.Success) {
                 ApiResult.Success<InvoiceVerificationResponse> s = (ApiResult.Success<InvoiceVerificationResponse>) res;
-                cb.onSuccess(s.data());
+                if (s.data() == null || !"FISCALIZED".equals(s.data().getStatus())) {
+                    // Seule une facture fiscalisée est immuable
+                    responseCache.remove(req.url().toString());
+                }
+                waiters.onSuccess(s.data());
             } else if (res instanceof ApiResult.Error) {
                 ApiResult.Error<InvoiceVerificationResponse> e = (ApiResult.Error<InvoiceVerificationResponse>) res;
-                cb.onError(e.message());
+                waiters.onError(e.message(), e.code(), e.category());
             }
         });
     }
 
-    public void getInvoicePdf(String invoiceId, ApiCallback<byte[]> cb) {
-        Request req = new Request.Builder()
-                .url(BASE_URL + "/api/invoices/" + invoiceId + "/pdf")
+    /**
+     * PDF d'une facture déjà présent dans le cache disque, ou null
+     */
+    public File getCachedInvoicePdf(String invoiceId) {
+        return pdfCache.lookup(invoiceId);
+    }
+
+    /**
+     * Télécharge le PDF d'une facture directement dans le cache disque
+     *
+     * Le corps est copié du socket vers le fichier par segments, sans passer par un
+     * tableau en mémoire. Un téléchargement interrompu reprend là où il s'est arrêté
+     * (requête Range). Une facture déjà en cache n'est pas retéléchargée.
+     *
+     * @param progress notifié à chaque segment écrit (peut être null)
+     */
+    public void downloadInvoicePdf(String invoiceId, ProgressListener progress, ApiCallback<File> cb) {
+        File cached = pdfCache.lookup(invoiceId);
+        if (cached != null) {
+            LOG.i("PDF for invoice {} served from cache", invoiceId);
+            cb.onSuccess(cached);
+            return;
+        }
+        if (!pdfFlight.join(invoiceId, cb)) {
+            // Un seul téléchargement écrit le fichier partiel d'une facture
+            LOG.i("Joining in-flight PDF download of invoice {}", invoiceId);
+            return;
+        }
+        ApiCallback<File> waiters = fanOut(pdfFlight, invoiceId);
+        try {
+            pdfCache.prepare();
+        } catch (IOException e) {
+            waiters.onError("Cannot store PDF: " + e.getMessage());
+            return;
+        }
+        fetchPdf(invoiceId, true, progress, waiters);
+    }
+
+    private void fetchPdf(String invoiceId, boolean resume, ProgressListener progress, ApiCallback<File> cb) {
+        File partial = pdfCache.partial(invoiceId);
+        long offset = resume && partial.isFile() ? partial.length() : 0;
+        Request.Builder builder = new Request.Builder()
+                .url(baseUrl + "/api/invoices/" + invoiceId + "/pdf")
                 .get()
-                .addHeader("Accept", "*/*")
-                .build();
+                .addHeader("Accept", "*/*");
+        if (offset > 0) {
+            builder.addHeader("Range", "bytes=" + offset + "-");
+        }
 
-        // Use raw execution for bytes: reuse NetworkClient at low level by duplicating pattern
-        // For simplicity, we call OkHttp directly here through NetworkClient's client access (not exposed).
-        // Instead, we temporarily implement a small in-place call:
-        new okhttp3.OkHttpClient().newCall(req).enqueue(new okhttp3.Callback() {
-            @Override public void onFailure(okhttp3.Call call, java.io.IOException e) {
-                cb.onError("Connection error - Check your network");
+        // Raw execution for bytes, on the shared connection pool
+        net.enqueue(builder.build(), new okhttp3.Callback() {
+            @Override public void onFailure(okhttp3.Call call, IOException e) {
+                // Le fichier partiel est gardé pour la reprise
+                cb.onError("Connection error - Check your network", null, ErrorCategory.forException(e));
             }
             @Override public void onResponse(okhttp3.Call call, okhttp3.Response response) {
                 try (okhttp3.ResponseBody body = response.body()) {
                     if (body == null) { cb.onError("Empty response"); return; }
-                    if (response.isSuccessful()) cb.onSuccess(body.bytes());
-                    else cb.onError("HTTP " + response.code() + ": " + body.string());
-                } catch (Exception ex) {
-                    cb.onError("Error reading PDF: " + ex.getMessage());
+                    if (response.code() == 416 && offset > 0) {
+                        // Fichier partiel invalide (PDF régénéré, plus court) : on repart de zéro
+                        partial.delete();
+                        fetchPdf(invoiceId, false, progress, cb);
+                        return;
+                    }
+                    if (!response.isSuccessful()) {
+                        cb.onError("HTTP " + response.code() + ": " + body.string(), response.code());
+                        return;
+                    }
+
+                    long start = 0;
+                    long total = body.contentLength();
+                    Matcher range = CONTENT_RANGE.matcher(nullToEmpty(response.header("Content-Range")));
+                    if (response.code() == 206 && range.matches() && Long.parseLong(range.group(1)) == offset) {
+                        start = offset;
+                        total = "*".equals(range.group(2)) ? -1 : Long.parseLong(range.group(2));
+                    } else if (offset > 0) {
+                        LOG.i("Range not honoured, downloading PDF {} from start", invoiceId);
+                    }
+
+                    long written = writePdf(body.source(), partial, start, total, progress);
+                    if (total >= 0 && written != total) {
+                        throw new IOException("Truncated PDF: " + written + "/" + total + " bytes");
+                    }
+                    LOG.at(PosLog.Level.INFO).kv("bytes", written).kv("resumedAt", start)
+                            .log("PDF for invoice {} downloaded", invoiceId);
+                    cb.onSuccess(pdfCache.commit(invoiceId));
+                } catch (IOException e) {
+                    cb.onError("Error downloading PDF: " + e.getMessage(), null, ErrorCategory.forException(e));
                 }
             }
         });
     }
 
+    /**
+     * Copie le corps dans le fichier (en ajout si start > 0), segment par segment
+     *
+     * @return taille du fichier
+     */
+    private static long writePdf(BufferedSource source, File file, long start, long total,
+                                 ProgressListener progress) throws IOException {
+        long written = start;
+        try (FileOutputStream out = new FileOutputStream(file, start > 0);
+             Sink sink = Okio.sink(out)) {
+            Buffer buffer = new Buffer();
+            long read;
+            while ((read = source.read(buffer, PDF_CHUNK_BYTES)) != -1) {
+                sink.write(buffer, read);
+                written += read;
+                if (progress != null) {
+                    progress.onProgress(written, total);
+                }
+            }
+            sink.flush();
+            out.getFD().sync();
+        }
+        return written;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
     public void checkApiHealth(ApiCallback<Boolean> cb) {
         Request req = new Request.Builder()
-                .url(BASE_URL + "/actuator/health")
+                .url(baseUrl + "/actuator/health")
                 .get()
                 .build();
-        new okhttp3.OkHttpClient().newCall(req).enqueue(new okhttp3.Callback() {
+        net.enqueue(req, new okhttp3.Callback() {
             @Override public void onFailure(okhttp3.Call call, java.io.IOException e) {
                 cb.onError("Unable to contact DGI API");
             }
@@ -232,42 +535,97 @@ public class ApiManager {
         });
     }
 
+    // ----------------------------
+    // Pré-chauffage des connexions
+    // ----------------------------
+
+    /**
+     * Ouvre une connexion vers l'API DGI (DNS, TCP, TLS) avant le premier appel métier
+     */
+    public void warmUp() {
+        if (ConnectivityMonitor.isKnownOffline()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        checkApiHealth(new ApiCallback<Boolean>() {
+            @Override public void onSuccess(Boolean healthy) {
+                LOG.at(PosLog.Level.INFO).kv("ms", System.currentTimeMillis() - start).kv("healthy", healthy)
+                        .log("Connection warmed up - {}", HttpTransport.metrics().snapshot());
+            }
+            @Override public void onError(String error) {
+                LOG.w("Warm-up failed: {}", error);
+            }
+        });
+    }
+
+    /**
+     * Garde une connexion chaude tant qu'un écran de vente est actif.
+     * Chaque appel doit être suivi d'un {@link #stopKeepAlive()}.
+     */
+    public void startKeepAlive() {
+        synchronized (keepAliveLock) {
+            if (keepAliveUsers++ > 0) {
+                return;
+            }
+            keepAliveTask = InvoiceSyncEngine.scheduler().scheduleWithFixedDelay(this::keepAlive,
+                    0, KEEP_ALIVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void stopKeepAlive() {
+        synchronized (keepAliveLock) {
+            if (keepAliveUsers == 0 || --keepAliveUsers > 0) {
+                return;
+            }
+            keepAliveTask.cancel(false);
+            keepAliveTask = null;
+        }
+    }
+
+    private void keepAlive() {
+        // Une réponse récente a déjà gardé la connexion ouverte
+        long idleMs = System.currentTimeMillis() - HttpTransport.metrics().lastCallAt();
+        if (idleMs >= KEEP_ALIVE_INTERVAL_MS) {
+            warmUp();
+        }
+    }
+
     // ----------------------------
     // Testing endpoints
     // ----------------------------
 
     public void getTestingIdentities(ApiCallback<String> cb) {
         Request req = new Request.Builder()
-                .url(BASE_URL + "/testing/identities")
+                .url(baseUrl + "/testing/identities")
                 .get()
                 .addHeader("Accept", "*/*")
                 .build();
 
-        net.execute(req, String.class, res -> {
+        net.executeCached(req, String.class, responseCache, REFERENCE_TTL_MS, res -> {
             if (res instanceof ApiResult.Success) {
                 ApiResult.Success<String> s = (ApiResult.Success<String>) res;
                 cb.onSuccess(s.data());
             } else if (res instanceof ApiResult.Error) {
                 ApiResult.Error<String> e = (ApiResult.Error<String>) res;
-                cb.onError(e.message());
+                cb.onError(e.message(), e.code(), e.category());
             }
         });
     }
 
     public void getTestingMachines(ApiCallback<String> cb) {
         Request req = new Request.Builder()
-                .url(BASE_URL + "/testing/machines")
+                .url(baseUrl + "/testing/machines")
                 .get()
                 .addHeader("Accept", "*/*")
                 .build();
 
-        net.execute(req, String.class, res -> {
+        net.executeCached(req, String.class, responseCache, REFERENCE_TTL_MS, res -> {
             if (res instanceof ApiResult.Success) {
                 ApiResult.Success<String> s = (ApiResult.Success<String>) res;
                 cb.onSuccess(s.data());
             } else if (res instanceof ApiResult.Error) {
                 ApiResult.Error<String> e = (ApiResult.Error<String>) res;
-                cb.onError(e.message());
+                cb.onError(e.message(), e.code(), e.category());
             }
         });
     }
@@ -280,6 +638,47 @@ public class ApiManager {
      * Pas besoin de verify - fiscalize renvoie directement l'objet complet
      */
     public void certifyInvoice(InvoiceData invoice, ApiCallback<InvoiceVerificationResponse> cb) {
+        certifyInvoice(invoice, null, null, cb);
+    }
+
+    /**
+     * Certify invoice en reprenant à l'étape fiscalize si la facture a déjà été créée
+     *
+     * Un second appel pour la même facture (machineNum, externalNum) pendant qu'une
+     * certification est en cours (double appui, relance de l'écran pendant la
+     * synchronisation) est rattaché à celle-ci au lieu de recréer la facture, ce
+     * qui provoquerait un rejet REJ009. L'appelant rattaché garde sa propre échéance
+     * et reçoit l'identifiant DGI si la facture est déjà créée.
+     *
+     * @param createdInvoiceId identifiant DGI d'une création précédente, ou null
+     * @param creationListener notifié dès que la facture est créée (peut être null)
+     */
+    public void certifyInvoice(InvoiceData invoice, String createdInvoiceId, CreationListener creationListener,
+                               ApiCallback<InvoiceVerificationResponse> cb) {
+        certifyInvoice(invoice, createdInvoiceId, creationListener, 0, cb);
+    }
+
+    /**
+     * Certify invoice avec une échéance pour toute la chaîne create → fiscalize
+     *
+     * Chaque appel de la chaîne est coupé au plus tard à l'échéance ; l'erreur
+     * remontée est alors un timeout, que l'écran traite comme une coupure réseau
+     * (mise en file hors ligne, reprise à fiscalize si la facture a été créée).
+     *
+     * @param deadlineMs durée maximale de la chaîne, 0 pour aucune
+     */
+    public void certifyInvoice(InvoiceData invoice, String createdInvoiceId, CreationListener creationListener,
+                               long deadlineMs, ApiCallback<InvoiceVerificationResponse> cb) {
+        certifyInvoice(invoice, createdInvoiceId, creationListener, deadlineMs, null, cb);
+    }
+
+    /**
+     * Certify invoice pour une vente tracée : la chaîne est une étape de {@code trace}
+     * et ses appels portent l'identifiant de trace. Sans trace (synchronisation en
+     * arrière-plan, lot), aucune étape n'est ouverte.
+     */
+    public void certifyInvoice(InvoiceData invoice, String createdInvoiceId, CreationListener creationListener,
+                               long deadlineMs, Trace trace, ApiCallback<InvoiceVerificationResponse> cb) {
         // Validate input
         if (invoice == null) {
             cb.onError("Invoice data cannot be null");
@@ -287,71 +686,363 @@ public class ApiManager {
         }
         
         if (cb == null) {
-            TRACE.e(TAG + ": certifyInvoice called with null callback");
+            LOG.e("certifyInvoice called with null callback");
+            return;
+        }
+
+        String key = invoice.getMachineNum() + "/" + invoice.getExternalNum();
+        CertifyWaiter self = new CertifyWaiter(creationListener, cb);
+        if (!certifyFlight.join(key, self)) {
+            LOG.i("Joining in-flight certification of invoice {}", key);
+            // L'échéance de la chaîne est celle du premier appelant : celle-ci ne coupe que cet appelant
+            if (deadlineMs > 0) {
+                self.expireAfter(deadlineMs, () -> certifyFlight.leave(key, self));
+            }
+            String createdId = certifyCreatedIds.get(key);
+            if (createdId != null) {
+                self.onCreated(createdId);
+            }
+            return;
+        }
+        Span span = trace != null ? trace.startSpan("certify").tag("invoice", key) : Span.NOOP;
+        ApiCallback<InvoiceVerificationResponse> waiters =
+                traced(span, releasingCreatedId(key, fanOut(certifyFlight, key)));
+        long deadlineAtMs = deadlineMs > 0 ? System.currentTimeMillis() + deadlineMs : 0;
+
+        if (createdInvoiceId != null && !createdInvoiceId.trim().isEmpty()) {
+            // Déjà créée : recréer la facture provoquerait un rejet REJ009
+            LOG.i("Resuming certification at fiscalize for invoice ID: {}", createdInvoiceId);
+            span.tag("resumedAt", "fiscalize");
+            certifyCreatedIds.put(key, createdInvoiceId);
+            fiscalizeCreated(invoice, createdInvoiceId, deadlineAtMs, trace, waiters);
             return;
         }
         
-        createInvoice(invoice, new ApiCallback<InvoiceCreationResponse>() {
+        createInvoice(invoice, deadlineAtMs, trace, new ForwardingCallback<InvoiceCreationResponse>() {
             @Override public void onSuccess(InvoiceCreationResponse creation) {
                 if (creation == null) {
-                    cb.onError("Creation succeeded but response is null");
+                    waiters.onError("Creation succeeded but response is null", null, ErrorCategory.INVALID_RESPONSE);
                     return;
                 }
                 
                 String id = creation.getInvoiceId();
                 if (id == null || id.trim().isEmpty()) {
-                    cb.onError("Invoice ID is missing in creation response");
+                    waiters.onError("Invoice ID is missing in creation response", null, ErrorCategory.INVALID_RESPONSE);
                     return;
                 }
                 
-                TRACE.i(TAG + ": Invoice created with ID: " + id);
+                LOG.i("Invoice created with ID: {}", id);
+                span.mark("created").tag("invoiceId", id);
+                certifyCreatedIds.put(key, id);
+                for (CertifyWaiter waiter : certifyFlight.waiters(key)) {
+                    waiter.onCreated(id);
+                }
                 
-                // Fiscalize renvoie directement l'objet avec QR code et token
-                fiscalizeInvoice(id, new ApiCallback<FiscalizationResponse>() {
-                    @Override public void onSuccess(FiscalizationResponse fiscalized) {
-                        if (fiscalized == null) {
-                            cb.onError("Fiscalization succeeded but response is null");
-                            return;
-                        }
-                        
-                        if (!fiscalized.isSuccess()) {
-                            cb.onError("Fiscalization failed: " + (fiscalized.getMessage() != null ? fiscalized.getMessage() : "Unknown error"));
-                            return;
-                        }
-                        
-                        TRACE.i(TAG + ": Invoice fiscalized successfully - Token: " + 
-                               (fiscalized.getToken() != null ? fiscalized.getToken().substring(0, Math.min(20, fiscalized.getToken().length())) + "..." : "null") +
-                               ", QR Code: " + (fiscalized.getQrBase64() != null ? "present" : "null"));
-                        
-                        // Convertir FiscalizationResponse en InvoiceVerificationResponse
-                        InvoiceVerificationResponse verificationResponse = new InvoiceVerificationResponse();
-                        verificationResponse.setInvoiceId(id);
-                        verificationResponse.setExternalNum(invoice.getExternalNum());
-                        verificationResponse.setMachineNum(invoice.getMachineNum());
-                        verificationResponse.setIssuer(invoice.getIssuer());
-                        verificationResponse.setCustomer(invoice.getCustomer());
-                        verificationResponse.setInvoiceLines(invoice.getInvoiceLines());
-                        verificationResponse.setTotalHt(invoice.getTotalHt());
-                        verificationResponse.setTotalVat(invoice.getTotalVat());
-                        verificationResponse.setTotalTtc(invoice.getTotalTtc());
-                        verificationResponse.setIssueDate(invoice.getIssueDate());
-                        verificationResponse.setFiscalizationDate(fiscalized.getCertifiedAt());
-                        verificationResponse.setStatus("FISCALIZED");
-                        verificationResponse.setQrCode(fiscalized.getQrBase64()); // QR code en base64
-                        verificationResponse.setMecefCode(fiscalized.getToken()); // Le token sert de code MECEF
-                        
-                        cb.onSuccess(verificationResponse);
-                    }
-                    @Override public void onError(String error) {
-                        TRACE.e(TAG + ": Fiscalization failed: " + error);
-                        cb.onError("Fiscalization failed: " + error);
-                    }
-                });
+                fiscalizeCreated(invoice, id, deadlineAtMs, trace, waiters);
+            }
+            @Override public void onError(String error, Integer httpCode, ErrorCategory category) {
+                LOG.e("Creation failed ({}): {}", category, error);
+                waiters.onError("Creation failed: " + error, httpCode, category);
+            }
+        });
+    }
+
+    /**
+     * Certifie un lot de factures
+     *
+     * L'API DGI n'a pas de point d'entrée par lot : les chaînes create → fiscalize
+     * de plusieurs factures sont lancées en parallèle ({@link #BATCH_CONCURRENCY} au
+     * plus) et multiplexées sur les connexions du transport partagé (HTTP/2 si le
+     * serveur le propose). L'échec d'une facture n'arrête pas le lot.
+     */
+    public void certifyInvoices(List<InvoiceData> invoices, BatchCallback cb) {
+        int total = invoices != null ? invoices.size() : 0;
+        BatchItemResult[] results = new BatchItemResult[total];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(total);
+        if (total == 0) {
+            cb.onComplete(new ArrayList<>());
+            return;
+        }
+        LOG.i("Certifying batch of {} invoice(s)", total);
+        for (int i = 0; i < Math.min(BATCH_CONCURRENCY, total); i++) {
+            certifyNextInBatch(invoices, results, next, remaining, cb);
+        }
+    }
+
+    private void certifyNextInBatch(List<InvoiceData> invoices, BatchItemResult[] results,
+                                    AtomicInteger next,
+                                    AtomicInteger remaining, BatchCallback cb) {
+        int position = next.getAndIncrement();
+        if (position >= invoices.size()) {
+            return;
+        }
+        InvoiceData invoice = invoices.get(position);
+        certifyInvoice(invoice, null, invoiceId -> cb.onCreated(invoice, invoiceId),
+                new ApiCallback<InvoiceVerificationResponse>() {
+            @Override public void onSuccess(InvoiceVerificationResponse response) {
+                finish(new BatchItemResult(invoice, response, null, null));
             }
             @Override public void onError(String error) {
-                TRACE.e(TAG + ": Creation failed: " + error);
-                cb.onError("Creation failed: " + error);
+                onError(error, null);
+            }
+            @Override public void onError(String error, Integer httpCode) {
+                finish(new BatchItemResult(invoice, null, error, httpCode));
+            }
+
+            private void finish(BatchItemResult result) {
+                results[position] = result;
+                try {
+                    cb.onItem(result);
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        cb.onComplete(Arrays.asList(results));
+                    } else {
+                        certifyNextInBatch(invoices, results, next, remaining, cb);
+                    }
+                }
             }
         });
     }
-}
\ No newline at end of file
+
+    // ----------------------------
+    // RxJava
+    // ----------------------------
+    /**
+     * Variantes RxJava : les échecs sont émis en {@link com.dspread.pos.common.http.ApiException}
+     * (code HTTP et catégorie), les appels partent à l'abonnement. Les résultats arrivent
+     * sur les threads d'OkHttp : l'appelant choisit son scheduler avec observeOn.
+     */
+    public Single<InvoiceCreationResponse> createInvoiceRx(InvoiceData invoice) {
+        return RxApi.single(cb -> createInvoice(invoice, cb));
+    }
+
+    public Single<FiscalizationResponse> fiscalizeInvoiceRx(String invoiceId) {
+        return RxApi.single(cb -> fiscalizeInvoice(invoiceId, cb));
+    }
+
+    public Single<InvoiceVerificationResponse> verifyInvoiceRx(String invoiceId) {
+        return RxApi.single(cb -> verifyInvoice(invoiceId, cb));
+    }
+
+    /**
+     * Voir {@link #certifyInvoice(InvoiceData, String, CreationListener, long, ApiCallback)}
+     */
+    public Single<InvoiceVerificationResponse> certifyInvoiceRx(InvoiceData invoice, String createdInvoiceId,
+                                                                CreationListener creationListener, long deadlineMs) {
+        return RxApi.single(cb -> certifyInvoice(invoice, createdInvoiceId, creationListener, deadlineMs, cb));
+    }
+
+    /**
+     * Voir {@link #certifyInvoice(InvoiceData, String, CreationListener, long, Trace, ApiCallback)}
+     */
+    public Single<InvoiceVerificationResponse> certifyInvoiceRx(InvoiceData invoice, String createdInvoiceId,
+                                                                CreationListener creationListener, long deadlineMs,
+                                                                Trace trace) {
+        return RxApi.single(cb -> certifyInvoice(invoice, createdInvoiceId, creationListener, deadlineMs, trace, cb));
+    }
+
+    /**
+     * Résultats d'un lot dans l'ordre d'arrivée (voir {@link #certifyInvoices})
+     */
+    public Flowable<BatchItemResult> certifyInvoicesRx(List<InvoiceData> invoices) {
+        return Flowable.create(emitter -> certifyInvoices(invoices, new BatchCallback() {
+            @Override public void onItem(BatchItemResult result) {
+                emitter.onNext(result);
+            }
+            @Override public void onComplete(List<BatchItemResult> results) {
+                emitter.onComplete();
+            }
+        }), BackpressureStrategy.BUFFER);
+    }
+
+    public Single<File> downloadInvoicePdfRx(String invoiceId, ProgressListener progress) {
+        return RxApi.single(cb -> downloadInvoicePdf(invoiceId, progress, cb));
+    }
+
+    /**
+     * Corps JSON encodé directement dans le flux de la requête (pas de chaîne intermédiaire)
+     */
+    private static RequestBody jsonBody(InvoiceData invoice) {
+        return new RequestBody() {
+            @Override public MediaType contentType() {
+                return JSON;
+            }
+            @Override public void writeTo(BufferedSink sink) throws IOException {
+                InvoiceCodec.writeJson(invoice, new OutputStreamWriter(sink.outputStream(), StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    /**
+     * Fiscalize d'une facture créée, converti en InvoiceVerificationResponse
+     */
+    private void fiscalizeCreated(InvoiceData invoice, String id, long deadlineAtMs, Trace trace,
+                                  ApiCallback<InvoiceVerificationResponse> cb) {
+        // Fiscalize renvoie directement l'objet avec QR code et token
+        fiscalizeInvoice(id, deadlineAtMs, trace, new ForwardingCallback<FiscalizationResponse>() {
+            @Override public void onSuccess(FiscalizationResponse fiscalized) {
+                if (fiscalized == null) {
+                    cb.onError("Fiscalization succeeded but response is null", null, ErrorCategory.INVALID_RESPONSE);
+                    return;
+                }
+                
+                if (!fiscalized.isSuccess()) {
+                    cb.onError("Fiscalization failed: " + (fiscalized.getMessage() != null ? fiscalized.getMessage() : "Unknown error"),
+                            null, ErrorCategory.REJECTED);
+                    return;
+                }
+                
+                LOG.i(() -> "Invoice fiscalized successfully - Token: "
+                        + (fiscalized.getToken() != null ? fiscalized.getToken().substring(0, Math.min(20, fiscalized.getToken().length())) + "..." : "null")
+                        + ", QR Code: " + (fiscalized.getQrBase64() != null ? "present" : "null"));
+                
+                // Convertir FiscalizationResponse en InvoiceVerificationResponse
+                InvoiceVerificationResponse verificationResponse = new InvoiceVerificationResponse();
+                verificationResponse.setInvoiceId(id);
+                verificationResponse.setExternalNum(invoice.getExternalNum());
+                verificationResponse.setMachineNum(invoice.getMachineNum());
+                verificationResponse.setIssuer(invoice.getIssuer());
+                verificationResponse.setCustomer(invoice.getCustomer());
+                verificationResponse.setInvoiceLines(invoice.getInvoiceLines());
+                verificationResponse.setTotalHt(invoice.getTotalHt());
+                verificationResponse.setTotalVat(invoice.getTotalVat());
+                verificationResponse.setTotalTtc(invoice.getTotalTtc());
+                verificationResponse.setIssueDate(invoice.getIssueDate());
+                verificationResponse.setFiscalizationDate(fiscalized.getCertifiedAt());
+                verificationResponse.setStatus("FISCALIZED");
+                verificationResponse.setQrCode(fiscalized.getQrBase64()); // QR code en base64
+                verificationResponse.setMecefCode(fiscalized.getToken()); // Le token sert de code MECEF
+                
+                cb.onSuccess(verificationResponse);
+            }
+            @Override public void onError(String error, Integer httpCode, ErrorCategory category) {
+                LOG.e("Fiscalization failed ({}): {}", category, error);
+                cb.onError("Fiscalization failed: " + error, httpCode, category);
+            }
+        });
+    }
+
+    /**
+     * Callback qui ferme l'étape de trace avant de transmettre le résultat
+     */
+    private static <T> ApiCallback<T> traced(Span span, ApiCallback<T> cb) {
+        return new ForwardingCallback<T>() {
+            @Override public void onSuccess(T result) {
+                span.end();
+                cb.onSuccess(result);
+            }
+            @Override public void onError(String error, Integer httpCode, ErrorCategory category) {
+                span.fail(category);
+                cb.onError(error, httpCode, category);
+            }
+        };
+    }
+
+    /**
+     * Callback qui termine l'appel de la clé et notifie tous les appelants rattachés
+     */
+    private static <K, T, W extends ApiCallback<T>> ApiCallback<T> fanOut(SingleFlight<K, W> flight, K key) {
+        return new ForwardingCallback<T>() {
+            @Override public void onSuccess(T result) {
+                for (W waiter : flight.complete(key)) {
+                    waiter.onSuccess(result);
+                }
+            }
+            @Override public void onError(String error, Integer httpCode, ErrorCategory category) {
+                for (W waiter : flight.complete(key)) {
+                    waiter.onError(error, httpCode, category);
+                }
+            }
+        };
+    }
+
+    /**
+     * Libère l'identifiant DGI de la certification avant de notifier ses appelants
+     */
+    private ApiCallback<InvoiceVerificationResponse> releasingCreatedId(String key,
+                                                                        ApiCallback<InvoiceVerificationResponse> cb) {
+        return new ForwardingCallback<InvoiceVerificationResponse>() {
+            @Override public void onSuccess(InvoiceVerificationResponse result) {
+                certifyCreatedIds.remove(key);
+                cb.onSuccess(result);
+            }
+            @Override public void onError(String error, Integer httpCode, ErrorCategory category) {
+                certifyCreatedIds.remove(key);
+                cb.onError(error, httpCode, category);
+            }
+        };
+    }
+
+    /**
+     * Appelant d'une certification, avec son éventuel CreationListener
+     *
+     * Notifié une seule fois : par le résultat de la chaîne ou par sa propre échéance.
+     */
+    private static final class CertifyWaiter extends ForwardingCallback<InvoiceVerificationResponse>
+            implements CreationListener {
+        private final CreationListener creationListener;
+        private final ApiCallback<InvoiceVerificationResponse> cb;
+        private final AtomicBoolean created = new AtomicBoolean();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile ScheduledFuture<?> timeout;
+
+        CertifyWaiter(CreationListener creationListener, ApiCallback<InvoiceVerificationResponse> cb) {
+            this.creationListener = creationListener;
+            this.cb = cb;
+        }
+
+        /**
+         * Échoue en TIMEOUT si la chaîne n'a pas abouti dans {@code delayMs}
+         */
+        void expireAfter(long delayMs, Runnable onExpired) {
+            timeout = InvoiceSyncEngine.scheduler().schedule(() -> {
+                if (done.compareAndSet(false, true)) {
+                    onExpired.run();
+                    cb.onError("Certification deadline exceeded (" + delayMs + " ms)", null, ErrorCategory.TIMEOUT);
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        @Override public void onCreated(String invoiceId) {
+            if (creationListener != null && !done.get() && created.compareAndSet(false, true)) {
+                creationListener.onCreated(invoiceId);
+            }
+        }
+        @Override public void onSuccess(InvoiceVerificationResponse result) {
+            if (finish()) {
+                cb.onSuccess(result);
+            }
+        }
+        @Override public void onError(String error, Integer httpCode, ErrorCategory category) {
+            if (finish()) {
+                cb.onError(error, httpCode, category);
+            }
+        }
+
+        private boolean finish() {
+            if (!done.compareAndSet(false, true)) {
+                return false;
+            }
+            ScheduledFuture<?> pending = timeout;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Callback intermédiaire : toutes les variantes d'onError aboutissent à celle qui
+     * porte la catégorie, déduite du code HTTP quand l'appelant ne la donne pas
+     */
+    private abstract static class ForwardingCallback<T> implements ApiCallback<T> {
+        @Override public final void onError(String error) {
+            onError(error, null);
+        }
+        @Override public final void onError(String error, Integer httpCode) {
+            onError(error, httpCode, httpCode != null ? ErrorCategory.forHttpStatus(httpCode) : ErrorCategory.LOCAL);
+        }
+        @Override public abstract void onError(String error, Integer httpCode, ErrorCategory category);
+    }
+}
@@ -0,0 +1,84 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.managers.StorageManager.CertifiedInvoiceRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Curseur paginé sur les factures certifiées
+ *
+ * Le curseur capture uniquement les clés des factures à l'ouverture ; chaque page
+ * est lue depuis le journal à la demande, sans jamais charger tout l'historique en
+ * mémoire. Les clés restent valides après un compactage du journal ; les factures
+ * supprimées après l'ouverture (purge, archivage) sont ignorées.
+ */
+public final class CertifiedInvoiceCursor {
+
+    /**
+     * Lecteur d'une page de factures à partir de leurs clés
+     */
+    interface PageReader {
+        List<CertifiedInvoiceRecord> read(InvoiceIndex.Key[] keys, int from, int to);
+    }
+
+    private final InvoiceIndex.Key[] keys;
+    private final int pageSize;
+    private final PageReader reader;
+    private int position;
+
+    CertifiedInvoiceCursor(InvoiceIndex.Key[] keys, int pageSize, PageReader reader) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        this.keys = keys;
+        this.pageSize = pageSize;
+        this.reader = reader;
+    }
+
+    /**
+     * Nombre total de factures visibles par ce curseur
+     */
+    public int getCount() {
+        return keys.length;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Nombre de factures déjà parcourues
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    public boolean hasNextPage() {
+        return position < keys.length;
+    }
+
+    /**
+     * Lit la page suivante (au plus {@link #getPageSize()} factures)
+     */
+    public List<CertifiedInvoiceRecord> nextPage() {
+        if (!hasNextPage()) {
+            throw new NoSuchElementException("No more certified invoices");
+        }
+        int to = Math.min(position + pageSize, keys.length);
+        List<CertifiedInvoiceRecord> page = reader.read(keys, position, to);
+        position = to;
+        return page != null ? page : new ArrayList<>();
+    }
+
+    /**
+     * Repositionne le curseur sur une facture donnée (ex. restauration d'un scroll)
+     */
+    public void seek(int position) {
+        if (position < 0 || position > keys.length) {
+            throw new IndexOutOfBoundsException("position " + position + " / " + keys.length);
+        }
+        this.position = position;
+    }
+}
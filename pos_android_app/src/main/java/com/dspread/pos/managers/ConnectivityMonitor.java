@@ -0,0 +1,206 @@
+package com.dspread.pos.managers;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+
+import com.dspread.pos.utils.TRACE;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Suivi de la connectivité au niveau du processus
+ *
+ * S'appuie sur {@link ConnectivityManager#registerDefaultNetworkCallback} plutôt que
+ * sur des vérifications ponctuelles. Les changements sont stabilisés par un délai
+ * (un réseau qui clignote ne déclenche qu'une notification) puis traités sur
+ * l'exécuteur de synchronisation, jamais sur le thread principal. Le retour d'un
+ * réseau validé déclenche l'envoi des factures en attente.
+ */
+public class ConnectivityMonitor {
+    private static final String TAG = "ConnectivityMonitor";
+    private static final long DEBOUNCE_MS = 3_000;
+
+    private static ConnectivityMonitor instance;
+
+    /**
+     * Interface pour suivre les changements de connectivité
+     */
+    public interface Listener {
+        void onConnectivityChanged(boolean online);
+    }
+
+    private final ConnectivityManager connectivityManager;
+    private final long debounceMs;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Object stateLock = new Object();
+
+    private boolean networkValidated;
+    private volatile boolean online;
+    // Faux tant que l'état du réseau n'a été ni lu à l'enregistrement ni stabilisé
+    private volatile boolean stateKnown;
+    private ScheduledFuture<?> pendingChange;
+
+    private final ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+            onNetworkChanged(capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED));
+        }
+
+        @Override
+        public void onLost(Network network) {
+            onNetworkChanged(false);
+        }
+    };
+
+    private ConnectivityMonitor(Context context) {
+        this((ConnectivityManager) context.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE), DEBOUNCE_MS);
+    }
+
+    /**
+     * Moniteur avec un autre délai de stabilisation (tests)
+     */
+    ConnectivityMonitor(ConnectivityManager connectivityManager, long debounceMs) {
+        this.connectivityManager = connectivityManager;
+        this.debounceMs = debounceMs;
+    }
+
+    public static synchronized ConnectivityMonitor getInstance() {
+        if (instance == null) {
+            throw new IllegalStateException("ConnectivityMonitor not initialized. Call initialize() first.");
+        }
+        return instance;
+    }
+
+    public static synchronized void initialize(Context context) {
+        if (instance == null) {
+            instance = new ConnectivityMonitor(context);
+            instance.register();
+        }
+    }
+
+    /**
+     * true si le moniteur tourne et sait que le réseau est indisponible
+     * (état inconnu au démarrage : pas hors ligne)
+     */
+    static synchronized boolean isKnownOffline() {
+        return instance != null && instance.knownOffline();
+    }
+
+    boolean knownOffline() {
+        return stateKnown && !online;
+    }
+
+    private void register() {
+        if (connectivityManager == null) {
+            TRACE.e(TAG + ": ConnectivityManager is null, monitoring disabled");
+            return;
+        }
+        try {
+            // Sans Handler, les callbacks arrivent sur le thread interne de ConnectivityManager
+            connectivityManager.registerDefaultNetworkCallback(networkCallback);
+            TRACE.i(TAG + ": Default network callback registered");
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error registering network callback: " + e.getMessage());
+            return;
+        }
+        // État initial lu tout de suite : le premier état stabilisé n'arrive qu'après le délai
+        try {
+            NetworkCapabilities capabilities =
+                    connectivityManager.getNetworkCapabilities(connectivityManager.getActiveNetwork());
+            seed(capabilities != null
+                    && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED));
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Cannot read initial network state: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fixe l'état courant sans attendre le délai de stabilisation (aucune notification)
+     */
+    void seed(boolean validated) {
+        synchronized (stateLock) {
+            if (stateKnown) {
+                return;
+            }
+            if (pendingChange == null) {
+                networkValidated = validated;
+            }
+            online = validated;
+            stateKnown = true;
+        }
+        TRACE.i(TAG + ": Initial connectivity - online: " + validated);
+    }
+
+    /**
+     * État stabilisé : réseau par défaut avec accès Internet validé
+     */
+    public boolean isOnline() {
+        return online;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    void onNetworkChanged(boolean validated) {
+        synchronized (stateLock) {
+            if (validated == networkValidated && pendingChange == null && stateKnown) {
+                return;
+            }
+            networkValidated = validated;
+            // Chaque changement repousse la notification : seul l'état stable compte
+            if (pendingChange != null) {
+                pendingChange.cancel(false);
+            }
+            pendingChange = InvoiceSyncEngine.scheduler().schedule(this::applyStableState,
+                    debounceMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void applyStableState() {
+        boolean nowOnline;
+        synchronized (stateLock) {
+            pendingChange = null;
+            nowOnline = networkValidated;
+            boolean changed = nowOnline != online;
+            online = nowOnline;
+            stateKnown = true;
+            if (!changed) {
+                return;
+            }
+        }
+
+        TRACE.i(TAG + ": Connectivity changed - online: " + nowOnline);
+        for (Listener listener : listeners) {
+            try {
+                listener.onConnectivityChanged(nowOnline);
+            } catch (Exception e) {
+                TRACE.e(TAG + ": Error in connectivity listener: " + e.getMessage());
+            }
+        }
+
+        if (nowOnline) {
+            drainPendingInvoices();
+        }
+    }
+
+    private void drainPendingInvoices() {
+        try {
+            StorageManager.getInstance().onNetworkAvailable();
+        } catch (IllegalStateException e) {
+            TRACE.i(TAG + ": StorageManager not initialized, skipping drain");
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.managers.StorageManager.CertifiedInvoiceRecord;
+import com.dspread.pos.utils.TRACE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archive compressée des factures certifiées sorties du journal
+ *
+ * Les factures sont partitionnées par mois d'émission. Chaque compactage écrit, pour
+ * chaque mois concerné, un nouveau segment {@code certified-AAAA-MM.<horodatage>.seg.gz}
+ * (gzip de [longueur int32][payload {@link InvoiceCodec}]) via un fichier temporaire
+ * renommé une fois synchronisé sur disque. Un segment n'est jamais réécrit. Si le
+ * processus s'arrête entre l'écriture d'un segment et le compactage du journal, les
+ * factures sont archivées une seconde fois : la lecture ignore ces doublons.
+ */
+public final class InvoiceArchive {
+    private static final String TAG = "InvoiceArchive";
+    private static final String PREFIX = "certified-";
+    private static final String SUFFIX = ".seg.gz";
+    static final String UNKNOWN_MONTH = "unknown";
+
+    /**
+     * Politique de rétention du journal (le reste part dans l'archive)
+     */
+    public static final class RetentionPolicy {
+        private int hotMaxAgeDays = 30;
+        private int hotMaxCount = 1000;
+        private boolean archiveExported = true;
+
+        /**
+         * Age maximal (date d'émission) d'une facture gardée dans le journal (0 = sans limite)
+         */
+        public RetentionPolicy setHotMaxAgeDays(int hotMaxAgeDays) {
+            this.hotMaxAgeDays = Math.max(0, hotMaxAgeDays);
+            return this;
+        }
+
+        /**
+         * Nombre maximal de factures certifiées gardées dans le journal (0 = sans limite)
+         */
+        public RetentionPolicy setHotMaxCount(int hotMaxCount) {
+            this.hotMaxCount = Math.max(0, hotMaxCount);
+            return this;
+        }
+
+        /**
+         * Archive aussitôt les factures déjà exportées
+         */
+        public RetentionPolicy setArchiveExported(boolean archiveExported) {
+            this.archiveExported = archiveExported;
+            return this;
+        }
+
+        public int getHotMaxAgeDays() { return hotMaxAgeDays; }
+        public int getHotMaxCount() { return hotMaxCount; }
+        public boolean isArchiveExported() { return archiveExported; }
+    }
+
+    /**
+     * Visiteur d'un parcours de l'archive
+     */
+    public interface Visitor {
+        /**
+         * @return false pour arrêter le parcours
+         */
+        boolean onRecord(CertifiedInvoiceRecord record);
+    }
+
+    private final File directory;
+
+    InvoiceArchive(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Mois de partition d'une date d'émission ISO (AAAA-MM)
+     */
+    static String monthOf(String issueDate) {
+        if (issueDate != null && issueDate.length() >= 7 && issueDate.charAt(4) == '-') {
+            return issueDate.substring(0, 7);
+        }
+        return UNKNOWN_MONTH;
+    }
+
+    /**
+     * Ecrit un segment par mois. Renvoie une fois tous les segments durables.
+     *
+     * @param byMonth payloads encodés par {@link InvoiceCodec}, regroupés par mois
+     */
+    void write(Map<String, List<byte[]>> byMonth) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create archive directory: " + directory);
+        }
+        // Segments incomplets d'un compactage interrompu
+        File[] stale = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(".tmp"));
+        if (stale != null) {
+            for (File file : stale) {
+                if (!file.delete()) {
+                    TRACE.w(TAG + ": Cannot delete stale segment " + file.getName());
+                }
+            }
+        }
+
+        long stamp = System.currentTimeMillis();
+        for (Map.Entry<String, List<byte[]>> month : byMonth.entrySet()) {
+            File segment = new File(directory, PREFIX + month.getKey() + "." + stamp + SUFFIX);
+            // Deux compactages dans la même milliseconde : un segment n'est jamais écrasé
+            while (segment.exists()) {
+                segment = new File(directory, PREFIX + month.getKey() + "." + (++stamp) + SUFFIX);
+            }
+            File tmp = new File(segment.getPath() + ".tmp");
+            try (FileOutputStream fileOut = new FileOutputStream(tmp)) {
+                BufferedOutputStream buffered = new BufferedOutputStream(fileOut, 64 * 1024);
+                GZIPOutputStream gzip = new GZIPOutputStream(buffered);
+                DataOutputStream out = new DataOutputStream(gzip);
+                for (byte[] payload : month.getValue()) {
+                    out.writeInt(payload.length);
+                    out.write(payload);
+                }
+                out.flush();
+                gzip.finish();
+                buffered.flush();
+                fileOut.getFD().sync();
+            }
+            if (!tmp.renameTo(segment)) {
+                throw new IOException("Cannot install archive segment: " + segment);
+            }
+            TRACE.i(TAG + ": Archived " + month.getValue().size() + " invoice(s) to " + segment.getName());
+        }
+    }
+
+    /**
+     * Parcourt les factures archivées dont le mois d'émission est dans [fromMonth, toMonth]
+     * (AAAA-MM, bornes nulles = sans limite), du plus ancien au plus récent
+     */
+    void scan(String fromMonth, String toMonth, Visitor visitor) throws IOException {
+        for (Map.Entry<String, List<File>> month : segmentsByMonth().entrySet()) {
+            String name = month.getKey();
+            boolean bounded = fromMonth != null || toMonth != null;
+            if (UNKNOWN_MONTH.equals(name) ? bounded
+                    : (fromMonth != null && name.compareTo(fromMonth) < 0)
+                    || (toMonth != null && name.compareTo(toMonth) > 0)) {
+                continue;
+            }
+            Set<InvoiceIndex.Key> seen = new HashSet<>();
+            for (File segment : month.getValue()) {
+                if (!scanSegment(segment, seen, visitor)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Mois présents dans l'archive, triés
+     */
+    List<String> months() {
+        return new ArrayList<>(segmentsByMonth().keySet());
+    }
+
+    private boolean scanSegment(File segment, Set<InvoiceIndex.Key> seen, Visitor visitor) throws IOException {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(
+                new BufferedInputStream(new FileInputStream(segment), 64 * 1024)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException eof) {
+                    return true;
+                }
+                if (length < 1 || length > InvoiceJournal.MAX_RECORD_SIZE) {
+                    throw new IOException("Corrupted archive segment: " + segment.getName());
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                CertifiedInvoiceRecord record = InvoiceCodec.decodeCertified(payload);
+                if (record.getInvoiceData() == null || !seen.add(InvoiceIndex.Key.of(record.getInvoiceData()))) {
+                    continue;
+                }
+                if (!visitor.onRecord(record)) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private Map<String, List<File>> segmentsByMonth() {
+        Map<String, List<File>> byMonth = new TreeMap<>();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null) {
+            return byMonth;
+        }
+        // Le nom se termine par l'horodatage : l'ordre alphabétique suit l'ordre d'écriture
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            String month = name.substring(PREFIX.length(), name.indexOf('.', PREFIX.length()));
+            List<File> segments = byMonth.get(month);
+            if (segments == null) {
+                segments = new ArrayList<>();
+                byMonth.put(month, segments);
+            }
+            segments.add(file);
+        }
+        return byMonth;
+    }
+}
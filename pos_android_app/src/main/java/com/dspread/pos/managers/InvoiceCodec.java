@@ -0,0 +1,275 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.managers.StorageManager.CertifiedInvoiceRecord;
+import com.dspread.pos.models.CertificationResponse;
+import com.dspread.pos.models.Customer;
+import com.dspread.pos.models.InvoiceData;
+import com.dspread.pos.models.InvoiceLine;
+import com.dspread.pos.models.Issuer;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sérialisation des factures sans réflexion
+ *
+ * - format binaire versionné pour le journal local : [version int8][champs dans
+ *   l'ordre ci-dessous], chaîne nullable = [présent bool][UTF modifié] ;
+ * - encodeur JSON en flux ({@link JsonWriter}) pour le corps des requêtes API,
+ *   mêmes champs et même ordre que la sérialisation Gson des modèles.
+ *
+ * Toute évolution du format binaire incrémente {@link #VERSION} ; les anciennes
+ * versions doivent rester lisibles.
+ */
+final class InvoiceCodec {
+    static final byte VERSION = 1;
+
+    private InvoiceCodec() {}
+
+    // ----------------------------
+    // Binaire
+    // ----------------------------
+
+    static byte[] encodeInvoice(InvoiceData invoice) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            writeInvoice(out, invoice);
+        }
+        return bytes.toByteArray();
+    }
+
+    static InvoiceData decodeInvoice(byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            checkVersion(in.readByte());
+            return readInvoice(in);
+        }
+    }
+
+    static byte[] encodeCertified(CertifiedInvoiceRecord record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(384);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            writeInvoice(out, record.getInvoiceData());
+            writeResponse(out, record.getResponse());
+            out.writeLong(record.getTimestamp());
+        }
+        return bytes.toByteArray();
+    }
+
+    static CertifiedInvoiceRecord decodeCertified(byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            checkVersion(in.readByte());
+            InvoiceData invoice = readInvoice(in);
+            CertificationResponse response = readResponse(in);
+            return new CertifiedInvoiceRecord(invoice, response, in.readLong());
+        }
+    }
+
+    private static void checkVersion(byte version) throws IOException {
+        if (version != VERSION) {
+            throw new IOException("Unsupported invoice codec version: " + version);
+        }
+    }
+
+    private static void writeInvoice(DataOutputStream out, InvoiceData invoice) throws IOException {
+        out.writeBoolean(invoice != null);
+        if (invoice == null) {
+            return;
+        }
+        writeString(out, invoice.getExternalNum());
+        writeString(out, invoice.getMachineNum());
+
+        Issuer issuer = invoice.getIssuer();
+        out.writeBoolean(issuer != null);
+        if (issuer != null) {
+            writeString(out, issuer.getName());
+            writeString(out, issuer.getIdentityNumber());
+            writeString(out, issuer.getTel());
+        }
+
+        Customer customer = invoice.getCustomer();
+        out.writeBoolean(customer != null);
+        if (customer != null) {
+            writeString(out, customer.getName());
+            writeString(out, customer.getIdentityNumber());
+            writeString(out, customer.getTel());
+        }
+
+        List<InvoiceLine> lines = invoice.getInvoiceLines();
+        out.writeInt(lines != null ? lines.size() : -1);
+        if (lines != null) {
+            for (InvoiceLine line : lines) {
+                writeString(out, line.getDesignation());
+                out.writeInt(line.getQuantity());
+                out.writeInt(line.getUnitPrice());
+                out.writeInt(line.getVatRate());
+            }
+        }
+
+        out.writeInt(invoice.getTotalHt());
+        out.writeInt(invoice.getTotalVat());
+        out.writeInt(invoice.getTotalTtc());
+        writeString(out, invoice.getIssueDate());
+    }
+
+    private static InvoiceData readInvoice(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        InvoiceData invoice = new InvoiceData();
+        invoice.setExternalNum(readString(in));
+        invoice.setMachineNum(readString(in));
+
+        if (in.readBoolean()) {
+            invoice.setIssuer(new Issuer(readString(in), readString(in), readString(in)));
+        }
+        if (in.readBoolean()) {
+            invoice.setCustomer(new Customer(readString(in), readString(in), readString(in)));
+        }
+
+        int lineCount = in.readInt();
+        if (lineCount >= 0) {
+            List<InvoiceLine> lines = new ArrayList<>(lineCount);
+            for (int i = 0; i < lineCount; i++) {
+                lines.add(new InvoiceLine(readString(in), in.readInt(), in.readInt(), in.readInt()));
+            }
+            invoice.setInvoiceLines(lines);
+        }
+
+        invoice.setTotalHt(in.readInt());
+        invoice.setTotalVat(in.readInt());
+        invoice.setTotalTtc(in.readInt());
+        invoice.setIssueDate(readString(in));
+        return invoice;
+    }
+
+    private static void writeResponse(DataOutputStream out, CertificationResponse response) throws IOException {
+        out.writeBoolean(response != null);
+        if (response == null) {
+            return;
+        }
+        writeString(out, response.getStatus());
+        writeString(out, response.getMecefCode());
+        writeString(out, response.getQrData());
+        writeString(out, response.getDgiInvoiceId());
+        writeStrings(out, response.getWarnings());
+        writeStrings(out, response.getReasons());
+        writeString(out, response.getTimestamp());
+    }
+
+    private static CertificationResponse readResponse(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        CertificationResponse response = new CertificationResponse();
+        response.setStatus(readString(in));
+        response.setMecefCode(readString(in));
+        response.setQrData(readString(in));
+        response.setDgiInvoiceId(readString(in));
+        response.setWarnings(readStrings(in));
+        response.setReasons(readStrings(in));
+        response.setTimestamp(readString(in));
+        return response;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values != null ? values.size() : -1);
+        if (values != null) {
+            for (String value : values) {
+                writeString(out, value);
+            }
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            return null;
+        }
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    // ----------------------------
+    // JSON (corps des requêtes API)
+    // ----------------------------
+
+    static String toJson(InvoiceData invoice) throws IOException {
+        StringWriter writer = new StringWriter(512);
+        writeJson(invoice, writer);
+        return writer.toString();
+    }
+
+    /**
+     * Ecrit la facture en JSON ; les champs null sont omis comme avec Gson
+     */
+    static void writeJson(InvoiceData invoice, Writer target) throws IOException {
+        JsonWriter json = new JsonWriter(target);
+        json.setSerializeNulls(false);
+        json.beginObject();
+        json.name("externalNum").value(invoice.getExternalNum());
+        json.name("machineNum").value(invoice.getMachineNum());
+
+        Issuer issuer = invoice.getIssuer();
+        if (issuer != null) {
+            json.name("issuer").beginObject();
+            json.name("name").value(issuer.getName());
+            json.name("identityNumber").value(issuer.getIdentityNumber());
+            json.name("tel").value(issuer.getTel());
+            json.endObject();
+        }
+
+        Customer customer = invoice.getCustomer();
+        if (customer != null) {
+            json.name("customer").beginObject();
+            json.name("name").value(customer.getName());
+            json.name("identityNumber").value(customer.getIdentityNumber());
+            json.name("tel").value(customer.getTel());
+            json.endObject();
+        }
+
+        List<InvoiceLine> lines = invoice.getInvoiceLines();
+        if (lines != null) {
+            json.name("invoiceLines").beginArray();
+            for (InvoiceLine line : lines) {
+                json.beginObject();
+                json.name("designation").value(line.getDesignation());
+                json.name("quantity").value(line.getQuantity());
+                json.name("unitPrice").value(line.getUnitPrice());
+                json.name("vatRate").value(line.getVatRate());
+                json.endObject();
+            }
+            json.endArray();
+        }
+
+        json.name("totalHt").value(invoice.getTotalHt());
+        json.name("totalVat").value(invoice.getTotalVat());
+        json.name("totalTtc").value(invoice.getTotalTtc());
+        json.name("issueDate").value(invoice.getIssueDate());
+        json.endObject();
+        json.flush();
+    }
+}
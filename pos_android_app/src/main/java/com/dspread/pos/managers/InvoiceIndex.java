@@ -0,0 +1,194 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.models.InvoiceData;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Index en mémoire des factures stockées dans le {@link InvoiceJournal}
+ *
+ * Clé primaire : (machineNum, externalNum). Index secondaires : date d'émission et statut.
+ * Les entrées ne contiennent que l'offset du dernier enregistrement dans le journal ;
+ * seules les factures en attente gardent leur {@link InvoiceData} en mémoire.
+ * Non thread-safe : l'appelant synchronise les accès.
+ */
+final class InvoiceIndex {
+
+    /**
+     * Statut d'une facture dans le stockage local
+     */
+    enum Status {
+        PENDING,
+        CERTIFIED
+    }
+
+    /**
+     * Clé primaire d'une facture
+     */
+    static final class Key implements Comparable<Key> {
+        final String machineNum;
+        final String externalNum;
+
+        Key(String machineNum, String externalNum) {
+            this.machineNum = machineNum != null ? machineNum : "";
+            this.externalNum = externalNum != null ? externalNum : "";
+        }
+
+        static Key of(InvoiceData invoice) {
+            return new Key(invoice.getMachineNum(), invoice.getExternalNum());
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int cmp = machineNum.compareTo(other.machineNum);
+            return cmp != 0 ? cmp : externalNum.compareTo(other.externalNum);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return machineNum.equals(key.machineNum) && externalNum.equals(key.externalNum);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * machineNum.hashCode() + externalNum.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return machineNum + "/" + externalNum;
+        }
+    }
+
+    /**
+     * Entrée de l'index pointant vers un enregistrement du journal
+     */
+    static final class Entry {
+        final Key key;
+        final Status status;
+        final String issueDate;
+        final int totalTtc;
+        final long offset;
+        final InvoiceData pendingInvoice;
+
+        Entry(Key key, Status status, String issueDate, int totalTtc, long offset, InvoiceData pendingInvoice) {
+            this.key = key;
+            this.status = status;
+            this.issueDate = issueDate != null ? issueDate : "";
+            this.totalTtc = totalTtc;
+            this.offset = offset;
+            this.pendingInvoice = pendingInvoice;
+        }
+    }
+
+    private final TreeMap<Key, Entry> primary = new TreeMap<>();
+    private final TreeMap<String, Set<Key>> byIssueDate = new TreeMap<>();
+    private final Map<Status, Set<Key>> byStatus = new EnumMap<>(Status.class);
+
+    InvoiceIndex() {
+        for (Status status : Status.values()) {
+            byStatus.put(status, new LinkedHashSet<>());
+        }
+    }
+
+    /**
+     * Insère ou remplace l'entrée de la clé
+     *
+     * @return l'entrée remplacée, ou null
+     */
+    Entry put(Entry entry) {
+        Entry previous = remove(entry.key);
+        primary.put(entry.key, entry);
+        byStatus.get(entry.status).add(entry.key);
+        Set<Key> sameDay = byIssueDate.get(entry.issueDate);
+        if (sameDay == null) {
+            sameDay = new LinkedHashSet<>();
+            byIssueDate.put(entry.issueDate, sameDay);
+        }
+        sameDay.add(entry.key);
+        return previous;
+    }
+
+    Entry get(Key key) {
+        return primary.get(key);
+    }
+
+    Entry remove(Key key) {
+        Entry entry = primary.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        byStatus.get(entry.status).remove(key);
+        Set<Key> sameDay = byIssueDate.get(entry.issueDate);
+        if (sameDay != null) {
+            sameDay.remove(key);
+            if (sameDay.isEmpty()) {
+                byIssueDate.remove(entry.issueDate);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Supprime toutes les entrées d'un statut
+     */
+    void removeAll(Status status) {
+        for (Key key : new ArrayList<>(byStatus.get(status))) {
+            remove(key);
+        }
+    }
+
+    int count(Status status) {
+        return byStatus.get(status).size();
+    }
+
+    /**
+     * Entrées d'un statut, dans l'ordre d'insertion
+     */
+    List<Entry> entries(Status status) {
+        Set<Key> keys = byStatus.get(status);
+        List<Entry> result = new ArrayList<>(keys.size());
+        for (Key key : keys) {
+            result.add(primary.get(key));
+        }
+        return result;
+    }
+
+    /**
+     * Entrées dont la date d'émission est comprise dans [from, to]. Les bornes sont des
+     * préfixes ISO : to = "2025-10-18" inclut toute la journée du 18.
+     */
+    List<Entry> entriesByIssueDate(String from, String to, Status status) {
+        NavigableMap<String, Set<Key>> range = byIssueDate.subMap(
+                from != null ? from : "", true,
+                (to != null ? to : "") + "\uffff", true);
+        List<Entry> result = new ArrayList<>();
+        for (Set<Key> keys : range.values()) {
+            for (Key key : keys) {
+                Entry entry = primary.get(key);
+                if (status == null || entry.status == status) {
+                    result.add(entry);
+                }
+            }
+        }
+        return result;
+    }
+
+    void clear() {
+        primary.clear();
+        byIssueDate.clear();
+        for (Set<Key> keys : byStatus.values()) {
+            keys.clear();
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.utils.TRACE;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Journal binaire en ajout seul pour le stockage des factures
+ *
+ * Format d'un enregistrement : [longueur int32][crc32 int32][type int8][payload]
+ * La longueur couvre le type et le payload, le CRC32 est calculé sur ces mêmes octets.
+ * A l'ouverture, une queue d'enregistrement incomplète ou corrompue (crash pendant
+ * une écriture) est tronquée au dernier enregistrement valide.
+ *
+ * Les ajouts sont d'abord accumulés en mémoire (écriture différée) puis écrits en
+ * une seule fois avec un seul fsync par {@link #flush()}. Leurs offsets sont attribués
+ * immédiatement et {@link #read(long)} sert aussi les enregistrements non encore
+ * écrits. Les enregistrements « coalescés » ne gardent que la dernière version par
+ * clé jusqu'au flush.
+ */
+final class InvoiceJournal implements Closeable {
+    private static final String TAG = "InvoiceJournal";
+
+    static final int HEADER_SIZE = 8;
+    static final int MAX_RECORD_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Enregistrement lu à un offset donné
+     */
+    static final class Record {
+        final byte type;
+        final byte[] payload;
+
+        Record(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Visiteur appelé pour chaque enregistrement valide lors du rejeu
+     */
+    interface RecordVisitor {
+        void onRecord(byte type, byte[] payload, long offset) throws IOException;
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    // Taille logique (enregistrements en attente compris) et taille écrite sur disque
+    private long size;
+    private long durableSize;
+    // Nombre d'enregistrements (actifs ou remplacés), pour décider d'un compactage
+    private long recordCount;
+
+    // Enregistrements encodés en attente d'écriture, à partir de durableSize
+    private byte[] pending = new byte[4096];
+    private int pendingLength;
+    // Enregistrements coalescés par clé, écrits après les enregistrements en attente
+    private final Map<String, byte[]> coalesced = new LinkedHashMap<>();
+    private int coalescedLength;
+
+    private InvoiceJournal(File file, RandomAccessFile raf, long size, long recordCount) {
+        this.file = file;
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.size = size;
+        this.durableSize = size;
+        this.recordCount = recordCount;
+    }
+
+    /**
+     * Ouvre (ou crée) le journal, rejoue les enregistrements valides et tronque une
+     * éventuelle queue déchirée.
+     */
+    static InvoiceJournal open(File file, RecordVisitor visitor) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create journal directory: " + parent);
+        }
+
+        long[] replayed = new long[1];
+        long validSize = replay(file, (type, payload, offset) -> {
+            replayed[0]++;
+            visitor.onRecord(type, payload, offset);
+        });
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        if (raf.length() > validSize) {
+            TRACE.w(TAG + ": Torn tail detected, truncating " + (raf.length() - validSize)
+                    + " byte(s) at offset " + validSize);
+            raf.getChannel().truncate(validSize);
+            raf.getChannel().force(true);
+        }
+        return new InvoiceJournal(file, raf, validSize, replayed[0]);
+    }
+
+    /**
+     * Lit séquentiellement le fichier et renvoie la taille de la partie valide
+     */
+    private static long replay(File file, RecordVisitor visitor) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+
+        long offset = 0;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            while (true) {
+                int length;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                } catch (EOFException eof) {
+                    break;
+                }
+                if (length < 1 || length > MAX_RECORD_SIZE) {
+                    break;
+                }
+
+                byte[] body = new byte[length];
+                try {
+                    in.readFully(body);
+                } catch (EOFException eof) {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                byte[] payload = new byte[length - 1];
+                System.arraycopy(body, 1, payload, 0, payload.length);
+                visitor.onRecord(body[0], payload, offset);
+                offset += HEADER_SIZE + length;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Ajoute un enregistrement en fin de journal. L'enregistrement est lisible tout de
+     * suite mais n'est durable qu'après le prochain {@link #flush()}.
+     *
+     * @return l'offset de l'enregistrement dans le fichier
+     */
+    synchronized long append(byte type, byte[] payload) throws IOException {
+        byte[] record = encode(type, payload);
+        ensurePendingCapacity(record.length);
+        System.arraycopy(record, 0, pending, pendingLength, record.length);
+        pendingLength += record.length;
+
+        long offset = size;
+        size += record.length;
+        recordCount++;
+        return offset;
+    }
+
+    /**
+     * Ajoute un enregistrement qui remplace, jusqu'au flush, le précédent de même clé.
+     * Réservé aux enregistrements que l'index ne référence pas par offset.
+     */
+    synchronized void appendCoalesced(String key, byte type, byte[] payload) throws IOException {
+        byte[] record = encode(type, payload);
+        byte[] previous = coalesced.remove(key);
+        if (previous != null) {
+            coalescedLength -= previous.length;
+        }
+        coalesced.put(key, record);
+        coalescedLength += record.length;
+    }
+
+    /**
+     * Abandonne l'enregistrement coalescé d'une clé s'il n'est pas encore écrit
+     */
+    synchronized void discardCoalesced(String key) {
+        byte[] previous = coalesced.remove(key);
+        if (previous != null) {
+            coalescedLength -= previous.length;
+        }
+    }
+
+    /**
+     * Octets en attente d'écriture
+     */
+    synchronized int pendingBytes() {
+        return pendingLength + coalescedLength;
+    }
+
+    /**
+     * Ecrit les enregistrements en attente en une seule écriture suivie d'un seul fsync
+     */
+    synchronized void flush() throws IOException {
+        if (pendingLength == 0 && coalesced.isEmpty()) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(pendingLength + coalescedLength);
+        buffer.put(pending, 0, pendingLength);
+        for (byte[] record : coalesced.values()) {
+            buffer.put(record);
+        }
+        buffer.flip();
+
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, durableSize + buffer.position());
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // Ne pas laisser un enregistrement partiel au milieu du journal ; les
+            // enregistrements restent en mémoire pour le prochain flush
+            channel.truncate(durableSize);
+            throw e;
+        }
+
+        durableSize += buffer.limit();
+        size = durableSize;
+        recordCount += coalesced.size();
+        pendingLength = 0;
+        coalesced.clear();
+        coalescedLength = 0;
+        if (pending.length > 64 * 1024) {
+            pending = new byte[4096];
+        }
+    }
+
+    private static byte[] encode(byte type, byte[] payload) throws IOException {
+        int length = payload.length + 1;
+        if (length > MAX_RECORD_SIZE) {
+            throw new IOException("Journal record too large: " + length + " bytes");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload, 0, payload.length);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+        buffer.putInt(length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(type);
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    private void ensurePendingCapacity(int extra) {
+        if (pendingLength + extra > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + extra));
+        }
+    }
+
+    /**
+     * Lit l'enregistrement situé à l'offset donné (accès direct via l'index)
+     */
+    synchronized Record read(long offset) throws IOException {
+        long limit = durableSize + pendingLength;
+        if (offset < 0 || offset + HEADER_SIZE > limit) {
+            throw new IOException("Invalid journal offset: " + offset);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, offset);
+        header.flip();
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if (length < 1 || length > MAX_RECORD_SIZE || offset + HEADER_SIZE + length > limit) {
+            throw new IOException("Invalid journal record length at offset " + offset);
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(length);
+        readFully(body, offset + HEADER_SIZE);
+        byte[] bytes = body.array();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Journal checksum mismatch at offset " + offset);
+        }
+
+        byte[] payload = new byte[length - 1];
+        System.arraycopy(bytes, 1, payload, 0, payload.length);
+        return new Record(bytes[0], payload);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        if (position >= durableSize) {
+            // Enregistrement encore en mémoire
+            buffer.put(pending, (int) (position - durableSize), buffer.remaining());
+            return;
+        }
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of journal at " + position);
+            }
+        }
+    }
+
+    /**
+     * Relit tous les enregistrements valides du journal
+     */
+    synchronized void scan(RecordVisitor visitor) throws IOException {
+        flush();
+        replay(file, visitor);
+    }
+
+    /**
+     * Vide complètement le journal
+     */
+    synchronized void reset() throws IOException {
+        channel.truncate(0);
+        channel.force(true);
+        size = 0;
+        durableSize = 0;
+        recordCount = 0;
+        pendingLength = 0;
+        coalesced.clear();
+        coalescedLength = 0;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    synchronized long recordCount() {
+        return recordCount;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            raf.close();
+        }
+    }
+}
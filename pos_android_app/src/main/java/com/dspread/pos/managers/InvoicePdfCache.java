@@ -0,0 +1,101 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.utils.TRACE;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Cache disque des PDF de factures, par identifiant DGI
+ *
+ * Un téléchargement écrit dans {@code <id>.pdf.part} puis renomme le fichier en
+ * {@code <id>.pdf} une fois complet : un fichier .pdf est toujours entier. Un
+ * .part laissé par un téléchargement interrompu sert de point de reprise. Au-delà
+ * de {@link #MAX_BYTES}, les PDF les moins récemment utilisés sont supprimés.
+ * Un seul téléchargement par facture à la fois : voir {@link SingleFlight}.
+ */
+final class InvoicePdfCache {
+    private static final String TAG = "InvoicePdfCache";
+    private static final String SUFFIX = ".pdf";
+    private static final String PARTIAL_SUFFIX = ".pdf.part";
+    static final long MAX_BYTES = 32L * 1024 * 1024;
+
+    private final File directory;
+
+    InvoicePdfCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * PDF complet en cache, ou null
+     */
+    synchronized File lookup(String invoiceId) {
+        File file = complete(invoiceId);
+        if (!file.isFile()) {
+            return null;
+        }
+        // Ordre LRU pour trim()
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Crée le répertoire du cache avant un téléchargement
+     */
+    synchronized void prepare() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create PDF cache directory: " + directory);
+        }
+    }
+
+    File partial(String invoiceId) {
+        return new File(directory, fileName(invoiceId) + PARTIAL_SUFFIX);
+    }
+
+    /**
+     * Installe le fichier partiel terminé comme PDF de la facture
+     */
+    synchronized File commit(String invoiceId) throws IOException {
+        File file = complete(invoiceId);
+        if (!partial(invoiceId).renameTo(file)) {
+            throw new IOException("Cannot install PDF: " + file);
+        }
+        trim();
+        return file;
+    }
+
+    private File complete(String invoiceId) {
+        return new File(directory, fileName(invoiceId) + SUFFIX);
+    }
+
+    private void trim() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_BYTES) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= MAX_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            } else {
+                TRACE.w(TAG + ": Cannot evict " + file.getName());
+            }
+        }
+    }
+
+    private static String fileName(String invoiceId) {
+        return invoiceId.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+}
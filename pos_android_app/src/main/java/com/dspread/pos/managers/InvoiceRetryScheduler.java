@@ -0,0 +1,167 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.utils.TRACE;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relance automatique des factures en attente dont la certification a échoué
+ *
+ * L'état de chaque facture (tentatives, prochaine échéance, dernière erreur) est
+ * persisté dans le journal par {@link StorageManager} : les relances reprennent
+ * après un redémarrage de l'application. Le planificateur arme un seul minuteur
+ * sur la prochaine échéance et synchronise les factures arrivées à terme.
+ */
+public final class InvoiceRetryScheduler {
+    private static final String TAG = "InvoiceRetryScheduler";
+
+    /**
+     * Politique de backoff exponentiel avec jitter
+     */
+    public static final class Policy {
+        private long baseDelayMs = 30_000;
+        private long maxDelayMs = 60 * 60_000;
+        private int maxAttempts = 0;
+
+        public Policy setBaseDelay(long baseDelayMs) {
+            this.baseDelayMs = Math.max(1, baseDelayMs);
+            this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+            return this;
+        }
+
+        public Policy setMaxDelay(long maxDelayMs) {
+            this.maxDelayMs = Math.max(baseDelayMs, maxDelayMs);
+            return this;
+        }
+
+        /**
+         * Nombre maximal de tentatives avant abandon (0 = illimité)
+         */
+        public Policy setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = Math.max(0, maxAttempts);
+            return this;
+        }
+
+        public int getMaxAttempts() { return maxAttempts; }
+
+        /**
+         * Délai avant la tentative suivante : base * 2^(n-1) plafonné, dont la moitié
+         * est tirée au hasard pour désynchroniser les terminaux
+         */
+        long delayFor(int attempts, Random random) {
+            int shift = Math.min(Math.max(0, attempts - 1), 30);
+            long ceiling = Math.min(maxDelayMs, baseDelayMs << shift);
+            long half = ceiling / 2;
+            return half + (long) (random.nextDouble() * (ceiling - half));
+        }
+    }
+
+    /**
+     * État de relance d'une facture en attente
+     */
+    public static final class RetryState {
+        private final int attempts;
+        private final long nextAttemptAt;
+        private final String lastError;
+        private final boolean permanent;
+
+        RetryState(int attempts, long nextAttemptAt, String lastError, boolean permanent) {
+            this.attempts = attempts;
+            this.nextAttemptAt = nextAttemptAt;
+            this.lastError = lastError;
+            this.permanent = permanent;
+        }
+
+        public int getAttempts() { return attempts; }
+        public long getNextAttemptAt() { return nextAttemptAt; }
+        public String getLastError() { return lastError; }
+
+        /**
+         * true si la facture a été rejetée définitivement (REJxxx, 4xx) ou a épuisé
+         * ses tentatives : elle n'est plus relancée automatiquement
+         */
+        public boolean isPermanent() { return permanent; }
+    }
+
+    private final StorageManager storage;
+    private final Random random = new Random();
+    private Policy policy = new Policy();
+    private ScheduledFuture<?> timer;
+    private boolean started;
+
+    InvoiceRetryScheduler(StorageManager storage) {
+        this.storage = storage;
+    }
+
+    synchronized Policy getPolicy() {
+        return policy;
+    }
+
+    synchronized void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    synchronized long nextDelay(int attempts) {
+        return policy.delayFor(attempts, random);
+    }
+
+    /**
+     * Démarre les relances (l'état est rechargé depuis le journal hors thread principal)
+     */
+    synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        InvoiceSyncEngine.scheduler().execute(this::reschedule);
+    }
+
+    synchronized void stop() {
+        started = false;
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+
+    /**
+     * Réarme le minuteur sur la prochaine échéance connue
+     */
+    void reschedule() {
+        synchronized (this) {
+            if (!started) {
+                return;
+            }
+        }
+        long nextAt = storage.nextRetryAt();
+        synchronized (this) {
+            if (!started) {
+                return;
+            }
+            if (timer != null) {
+                timer.cancel(false);
+                timer = null;
+            }
+            if (nextAt == Long.MAX_VALUE) {
+                return;
+            }
+            long delayMs = Math.max(0, nextAt - System.currentTimeMillis());
+            TRACE.i(TAG + ": Next retry in " + delayMs + "ms");
+            timer = InvoiceSyncEngine.scheduler().schedule(this::runDue, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void runDue() {
+        synchronized (this) {
+            timer = null;
+            if (!started) {
+                return;
+            }
+        }
+        // La fin de la synchronisation réarme le minuteur (voir StorageManager#startSync) ;
+        // hors ligne, c'est le retour du réseau qui relance l'envoi
+        storage.syncDueInvoices();
+    }
+}
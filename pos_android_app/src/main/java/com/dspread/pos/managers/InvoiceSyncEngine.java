@@ -0,0 +1,339 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.models.InvoiceData;
+import com.dspread.pos.models.InvoiceVerificationResponse;
+import com.dspread.pos.utils.TRACE;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moteur de synchronisation des factures en attente
+ *
+ * Certifie jusqu'à N factures en parallèle (chaque pipeline enchaîne create puis
+ * fiscalize via {@link ApiManager#certifyInvoice}). Une facture n'a jamais deux
+ * pipelines en vol ; en option, les factures d'une même machine sont envoyées une
+ * par une dans l'ordre de la file. Sur une réponse 429/503, la fenêtre est divisée
+ * par deux et l'envoi est suspendu avec un backoff croissant.
+ */
+public final class InvoiceSyncEngine {
+    private static final String TAG = "InvoiceSyncEngine";
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "invoice-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Exécuteur partagé par la synchronisation et les relances
+     */
+    static ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Configuration du moteur
+     */
+    public static final class Config {
+        private int maxInFlight = 4;
+        private boolean serializePerMachine = false;
+        private long initialBackoffMs = 2_000;
+        private long maxBackoffMs = 60_000;
+        private int maxThrottleRetries = 6;
+
+        public Config setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = Math.max(1, maxInFlight);
+            return this;
+        }
+
+        public Config setSerializePerMachine(boolean serializePerMachine) {
+            this.serializePerMachine = serializePerMachine;
+            return this;
+        }
+
+        public Config setBackoff(long initialBackoffMs, long maxBackoffMs) {
+            this.initialBackoffMs = Math.max(1, initialBackoffMs);
+            this.maxBackoffMs = Math.max(this.initialBackoffMs, maxBackoffMs);
+            return this;
+        }
+
+        public Config setMaxThrottleRetries(int maxThrottleRetries) {
+            this.maxThrottleRetries = Math.max(0, maxThrottleRetries);
+            return this;
+        }
+
+        public int getMaxInFlight() { return maxInFlight; }
+        public boolean isSerializePerMachine() { return serializePerMachine; }
+    }
+
+    /**
+     * Avancement d'une synchronisation
+     */
+    public static final class Progress {
+        private final int total;
+        private final int succeeded;
+        private final int failed;
+        private final int inFlight;
+        private final boolean cancelled;
+
+        Progress(int total, int succeeded, int failed, int inFlight, boolean cancelled) {
+            this.total = total;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.inFlight = inFlight;
+            this.cancelled = cancelled;
+        }
+
+        public int getTotal() { return total; }
+        public int getSucceeded() { return succeeded; }
+        public int getFailed() { return failed; }
+        public int getInFlight() { return inFlight; }
+        public int getRemaining() { return total - succeeded - failed; }
+        public boolean isCancelled() { return cancelled; }
+    }
+
+    /**
+     * Interface pour suivre une synchronisation
+     */
+    public interface Listener {
+        void onProgress(Progress progress);
+        void onComplete(Progress progress);
+    }
+
+    /**
+     * Poignée d'une synchronisation en cours
+     */
+    public interface SyncHandle {
+        /**
+         * Arrête d'envoyer de nouvelles factures ; les pipelines en vol se terminent
+         * et leurs résultats sont enregistrés.
+         */
+        void cancel();
+
+        boolean isRunning();
+    }
+
+    private final StorageManager storage;
+    private final ApiManager apiManager;
+    private final Config config;
+
+    InvoiceSyncEngine(StorageManager storage, ApiManager apiManager, Config config) {
+        this.storage = storage;
+        this.apiManager = apiManager;
+        this.config = config;
+    }
+
+    /**
+     * Lance la synchronisation d'un lot de factures
+     */
+    SyncHandle start(List<InvoiceData> invoices, Listener listener) {
+        Run run = new Run(invoices, listener);
+        TRACE.i(TAG + ": Starting sync of " + invoices.size() + " invoice(s), window: " + config.maxInFlight);
+        run.dispatch();
+        return run;
+    }
+
+    private final class Run implements SyncHandle {
+        private final ArrayDeque<InvoiceData> queue;
+        private final Listener listener;
+        private final int total;
+        private final Set<String> busyMachines = new HashSet<>();
+
+        private int window = config.maxInFlight;
+        private int inFlight;
+        private int succeeded;
+        private int failed;
+        private int throttleRetries;
+        private long backoffMs = config.initialBackoffMs;
+        private boolean paused;
+        private boolean cancelled;
+        private boolean completed;
+
+        Run(List<InvoiceData> invoices, Listener listener) {
+            this.queue = new ArrayDeque<>(invoices);
+            this.listener = listener;
+            this.total = invoices.size();
+        }
+
+        @Override
+        public void cancel() {
+            boolean finish;
+            synchronized (this) {
+                if (completed || cancelled) {
+                    return;
+                }
+                cancelled = true;
+                TRACE.i(TAG + ": Sync cancelled, " + queue.size() + " invoice(s) left pending");
+                finish = inFlight == 0;
+            }
+            if (finish) {
+                complete();
+            }
+        }
+
+        @Override
+        public synchronized boolean isRunning() {
+            return !completed;
+        }
+
+        /**
+         * Remplit la fenêtre d'envoi ; les appels réseau partent hors verrou
+         */
+        void dispatch() {
+            List<InvoiceData> toStart = new ArrayList<>();
+            boolean finish = false;
+            synchronized (this) {
+                if (completed) {
+                    return;
+                }
+                if (!cancelled && !paused) {
+                    while (inFlight < window) {
+                        InvoiceData next = pollEligible();
+                        if (next == null) {
+                            break;
+                        }
+                        inFlight++;
+                        toStart.add(next);
+                    }
+                }
+                finish = inFlight == 0 && (cancelled || queue.isEmpty());
+            }
+
+            for (InvoiceData invoice : toStart) {
+                certify(invoice);
+            }
+            if (finish) {
+                complete();
+            }
+        }
+
+        private InvoiceData pollEligible() {
+            if (!config.serializePerMachine) {
+                return queue.poll();
+            }
+            Iterator<InvoiceData> it = queue.iterator();
+            while (it.hasNext()) {
+                InvoiceData candidate = it.next();
+                String machine = candidate.getMachineNum() != null ? candidate.getMachineNum() : "";
+                if (busyMachines.add(machine)) {
+                    it.remove();
+                    return candidate;
+                }
+            }
+            return null;
+        }
+
+        private void certify(InvoiceData invoice) {
+            // Une facture déjà créée lors d'une tentative précédente reprend à fiscalize
+            String createdId = storage.getCreatedInvoiceId(invoice.getMachineNum(), invoice.getExternalNum());
+            ApiManager.CreationListener onCreated = invoiceId -> storage.markCreated(invoice, invoiceId);
+            apiManager.certifyInvoice(invoice, createdId, onCreated, new ApiManager.ApiCallback<InvoiceVerificationResponse>() {
+                @Override
+                public void onSuccess(InvoiceVerificationResponse response) {
+                    try {
+                        storage.markFiscalized(invoice, response);
+                        onFinished(invoice, true, null, null);
+                    } catch (Exception e) {
+                        TRACE.e(TAG + ": Error storing certified invoice: " + e.getMessage());
+                        onFinished(invoice, false, "Storage error: " + e.getMessage(), null);
+                    }
+                }
+
+                @Override
+                public void onError(String error) {
+                    onError(error, null);
+                }
+
+                @Override
+                public void onError(String error, Integer httpCode) {
+                    TRACE.e(TAG + ": Failed to sync invoice " + invoice.getExternalNum() + ": " + error);
+                    onFinished(invoice, false, error, httpCode);
+                }
+            });
+        }
+
+        private void onFinished(InvoiceData invoice, boolean success, String error, Integer httpCode) {
+            Progress progress;
+            long resumeInMs = -1;
+            boolean gaveUp = false;
+            synchronized (this) {
+                inFlight--;
+                if (config.serializePerMachine) {
+                    busyMachines.remove(invoice.getMachineNum() != null ? invoice.getMachineNum() : "");
+                }
+
+                if (success) {
+                    succeeded++;
+                    throttleRetries = 0;
+                    backoffMs = config.initialBackoffMs;
+                    window = Math.min(config.maxInFlight, window + 1);
+                } else if (isThrottled(httpCode) && throttleRetries < config.maxThrottleRetries && !cancelled) {
+                    // Back-pressure : la facture repart en tête de file après une pause
+                    throttleRetries++;
+                    queue.addFirst(invoice);
+                    window = Math.max(1, window / 2);
+                    if (!paused) {
+                        paused = true;
+                        resumeInMs = backoffMs;
+                        backoffMs = Math.min(config.maxBackoffMs, backoffMs * 2);
+                    }
+                    TRACE.w(TAG + ": Server throttled (HTTP " + httpCode + "), window: " + window
+                            + ", resuming in " + resumeInMs + "ms");
+                } else {
+                    failed++;
+                    gaveUp = true;
+                }
+                progress = snapshot();
+            }
+
+            if (gaveUp) {
+                // Arme la relance différée de cette facture
+                storage.recordSyncFailure(invoice, error, httpCode);
+            }
+
+            listener.onProgress(progress);
+            if (resumeInMs >= 0) {
+                scheduler.schedule(this::resume, resumeInMs, TimeUnit.MILLISECONDS);
+            }
+            // Relance via l'exécuteur : pas de récursion même si le callback est synchrone
+            scheduler.execute(this::dispatch);
+        }
+
+        private void resume() {
+            synchronized (this) {
+                paused = false;
+            }
+            dispatch();
+        }
+
+        private void complete() {
+            Progress progress;
+            synchronized (this) {
+                if (completed) {
+                    return;
+                }
+                completed = true;
+                progress = snapshot();
+            }
+            TRACE.i(TAG + ": Sync finished - synced: " + progress.getSucceeded() + ", failed: "
+                    + progress.getFailed() + ", total: " + progress.getTotal());
+            listener.onComplete(progress);
+        }
+
+        private Progress snapshot() {
+            return new Progress(total, succeeded, failed, inFlight, cancelled);
+        }
+    }
+
+    private static boolean isThrottled(Integer httpCode) {
+        return httpCode != null && (httpCode == 429 || httpCode == 503);
+    }
+}
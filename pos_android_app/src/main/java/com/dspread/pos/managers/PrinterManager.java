@@ -4,6 +4,10 @@ import android.content.Context;
 import android.util.Log;
 import android.os.Build;
 
+import com.dspread.pos.common.metrics.LatencyHistogram;
+import com.dspread.pos.common.metrics.Metrics;
+import com.dspread.pos.common.trace.Span;
+import com.dspread.pos.common.trace.Tracer;
 import com.dspread.pos.models.InvoiceData;
 import com.dspread.pos.models.InvoiceLine;
 import com.dspread.pos.models.CertificationResponse;
@@ -22,6 +26,9 @@ import java.util.List;
  */
 public class PrinterManager {
     private static final String TAG = "PrinterManager";
+    // Durée appel → fin d'impression (ou échec), initialisation éventuelle comprise
+    private static final LatencyHistogram PRINT_LATENCY = Metrics.getInstance().histogram("printer.print");
+    private static final Metrics.Counter PRINT_ERRORS = Metrics.getInstance().counter("printer.print.errors");
     private static PrinterManager instance;
     private Context context;
     private boolean isInitialized = false;
@@ -188,6 +195,27 @@ public class PrinterManager {
      * Imprime une facture
      */
     public void printInvoice(InvoiceData invoiceData, CertificationResponse response, PrintCallback callback) {
+        long startNanos = System.nanoTime();
+        Span span = Tracer.getInstance().startSpan("print");
+        printInvoiceOnce(invoiceData, response, new PrintCallback() {
+            @Override
+            public void onSuccess() {
+                PRINT_LATENCY.recordSince(startNanos);
+                span.end();
+                callback.onSuccess();
+            }
+
+            @Override
+            public void onError(String error) {
+                PRINT_LATENCY.recordSince(startNanos);
+                PRINT_ERRORS.inc();
+                span.fail(error);
+                callback.onError(error);
+            }
+        });
+    }
+
+    private void printInvoiceOnce(InvoiceData invoiceData, CertificationResponse response, PrintCallback callback) {
         TRACE.i(TAG + ": Printing invoice");
         
         // Vérifier et utiliser PrinterDevice réel si disponible
@@ -231,7 +259,7 @@ public class PrinterManager {
             initialize(new PrinterCallback() {
                 @Override
                 public void onSuccess() {
-                    printInvoice(invoiceData, response, callback);
+                    printInvoiceOnce(invoiceData, response, callback);
                 }
                 
                 @Override
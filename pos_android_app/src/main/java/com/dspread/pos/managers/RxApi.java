@@ -0,0 +1,69 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.common.http.ApiException;
+import com.dspread.pos.common.http.ErrorCategory;
+
+import org.reactivestreams.Publisher;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.functions.Function;
+
+/**
+ * Adaptateurs RxJava des appels à callback de {@link ApiManager}
+ */
+public final class RxApi {
+    private RxApi() {}
+
+    /**
+     * Single branché sur un appel à callback ; un échec est émis en {@link ApiException}
+     *
+     * Se désabonner ignore le résultat mais n'interrompt pas l'appel déjà parti.
+     */
+    static <T> Single<T> single(Consumer<ApiManager.ApiCallback<T>> call) {
+        return Single.create(emitter -> call.accept(new ApiManager.ApiCallback<T>() {
+            @Override public void onSuccess(T result) {
+                if (result == null) {
+                    emitter.tryOnError(new ApiException("Empty response from server", null, ErrorCategory.INVALID_RESPONSE));
+                } else {
+                    emitter.onSuccess(result);
+                }
+            }
+            @Override public void onError(String error) {
+                onError(error, null, ErrorCategory.LOCAL);
+            }
+            @Override public void onError(String error, Integer httpCode) {
+                onError(error, httpCode, httpCode != null ? ErrorCategory.forHttpStatus(httpCode) : ErrorCategory.LOCAL);
+            }
+            @Override public void onError(String error, Integer httpCode, ErrorCategory category) {
+                emitter.tryOnError(new ApiException(error, httpCode, category));
+            }
+        }));
+    }
+
+    /**
+     * Opérateur {@code retryWhen} : relance les échecs transitoires jusqu'à
+     * {@code maxRetries} fois, après {@code delayMs} doublé à chaque essai
+     *
+     * Un circuit ouvert n'est pas relancé : il refuserait de nouveau l'appel.
+     */
+    public static Function<Flowable<Throwable>, Publisher<?>> retryTransient(int maxRetries, long delayMs,
+                                                                            Scheduler scheduler) {
+        return errors -> {
+            int[] attempts = { 0 };
+            return errors.flatMap(error -> {
+                boolean retryable = ApiException.isTransient(error)
+                        && ((ApiException) error).getCategory() != ErrorCategory.CIRCUIT_OPEN;
+                if (!retryable || attempts[0] >= maxRetries) {
+                    return Flowable.error(error);
+                }
+                long waitMs = delayMs << attempts[0]++;
+                return Flowable.timer(waitMs, TimeUnit.MILLISECONDS, scheduler);
+            });
+        };
+    }
+}
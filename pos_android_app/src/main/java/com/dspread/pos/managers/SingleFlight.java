@@ -0,0 +1,64 @@
+package com.dspread.pos.managers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Regroupe les appels concurrents portant sur la même clé
+ *
+ * Le premier appelant d'une clé lance l'appel réseau ; les suivants sont
+ * rattachés à cet appel tant qu'il est en cours et reçoivent le même résultat.
+ * Une fois l'appel terminé ({@link #complete}), la clé est libérée.
+ *
+ * @param <W> appelant en attente (en général un {@link ApiManager.ApiCallback})
+ */
+final class SingleFlight<K, W> {
+    private final Map<K, List<W>> inFlight = new HashMap<>();
+
+    /**
+     * Rattache un appelant à la clé
+     *
+     * @return true si aucun appel n'était en cours : l'appelant doit le lancer
+     */
+    synchronized boolean join(K key, W waiter) {
+        List<W> waiters = inFlight.get(key);
+        if (waiters != null) {
+            waiters.add(waiter);
+            return false;
+        }
+        waiters = new ArrayList<>();
+        waiters.add(waiter);
+        inFlight.put(key, waiters);
+        return true;
+    }
+
+    /**
+     * Détache un appelant de l'appel en cours (échéance propre dépassée) ; l'appel
+     * continue pour les autres
+     */
+    synchronized void leave(K key, W waiter) {
+        List<W> waiters = inFlight.get(key);
+        if (waiters != null) {
+            waiters.remove(waiter);
+        }
+    }
+
+    /**
+     * Appelants rattachés à l'appel en cours (copie)
+     */
+    synchronized List<W> waiters(K key) {
+        List<W> waiters = inFlight.get(key);
+        return waiters != null ? new ArrayList<>(waiters) : Collections.emptyList();
+    }
+
+    /**
+     * Termine l'appel de la clé et retourne les appelants à notifier
+     */
+    synchronized List<W> complete(K key) {
+        List<W> waiters = inFlight.remove(key);
+        return waiters != null ? waiters : Collections.emptyList();
+    }
+}
@@ -4,6 +4,9 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
 
+import com.dspread.pos.common.http.ErrorHandler;
+import com.dspread.pos.common.metrics.LatencyHistogram;
+import com.dspread.pos.common.metrics.Metrics;
 import com.dspread.pos.models.InvoiceData;
 import com.dspread.pos.models.CertificationResponse;
 import com.dspread.pos.models.InvoiceVerificationResponse;
@@ -11,13 +14,58 @@ import com.dspread.pos.utils.TRACE;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Gestionnaire pour le stockage local et la synchronisation hors ligne
  * Migré depuis offline.ts de React Native
+ *
+ * Les factures sont persistées dans un journal binaire en ajout seul
+ * (voir {@link InvoiceJournal}) : chaque sauvegarde coûte un seul enregistrement,
+ * quel que soit le nombre de factures déjà stockées. Un {@link InvoiceIndex} sur
+ * (machineNum, externalNum), la date d'émission et le statut permet les recherches,
+ * la déduplication et la suppression en O(log n). Les factures y sont encodées par
+ * {@link InvoiceCodec} (binaire versionné, sans réflexion).
+ *
+ * Les écritures sont différées et regroupées : un flush (une écriture, un fsync) part
+ * après {@link #FLUSH_DELAY_MS} ou dès {@link #FLUSH_THRESHOLD_BYTES} en attente. Les
+ * points de durabilité sont explicites : sauvegarde d'une facture hors ligne, purges,
+ * fin de synchronisation et {@link #flush()} avant l'impression du reçu fiscal.
+ *
+ * Un compactage périodique (voir {@link #startMaintenance()}) applique la
+ * {@link InvoiceArchive.RetentionPolicy} : les factures certifiées anciennes ou déjà
+ * exportées partent dans l'{@link InvoiceArchive} compressée et le journal est réécrit
+ * avec le seul état courant, ce qui borne le temps de démarrage.
+ *
+ * La certification d'une facture en attente passe par deux étapes côté DGI (create
+ * puis fiscalize) : l'identifiant obtenu au create est journalisé et écrit sur disque
+ * avant fiscalize ({@link InvoiceState#CREATED}), pour qu'une synchronisation reprise
+ * après un crash ou une coupure réseau ne recrée pas la facture (rejet REJ009). Le
+ * passage à {@link InvoiceState#FISCALIZED} est un seul enregistrement qui remplace
+ * l'entrée en attente.
  */
 public class StorageManager {
     private static final String TAG = "StorageManager";
@@ -25,11 +73,71 @@ public class StorageManager {
     private static final String KEY_PENDING_INVOICES = "pending_invoices";
     private static final String KEY_CERTIFIED_INVOICES = "certified_invoices";
     private static final String KEY_SYNC_STATUS = "sync_status";
+    private static final String JOURNAL_FILE = "invoices.journal";
+    // Durée des lectures et écritures du journal, attente du verrou comprise
+    private static final LatencyHistogram READ_LATENCY = Metrics.getInstance().histogram("storage.read");
+    private static final LatencyHistogram WRITE_LATENCY = Metrics.getInstance().histogram("storage.write");
+    private static final Metrics.Gauge PENDING_GAUGE = Metrics.getInstance().gauge("storage.pending");
+
+    // Types d'enregistrement du journal
+    private static final byte REC_PENDING_ADD = 1;
+    // Plus écrit (la certification remplace l'entrée en attente), relu pour les anciens journaux
+    private static final byte REC_PENDING_REMOVE = 2;
+    private static final byte REC_CERTIFIED_ADD = 3;
+    private static final byte REC_PENDING_CLEAR = 4;
+    private static final byte REC_CERTIFIED_CLEAR = 5;
+    private static final byte REC_RETRY_STATE = 6;
+    private static final byte REC_CERTIFIED_EXPORTED = 7;
+    private static final byte REC_PENDING_CREATED = 8;
+
+    private static final String ARCHIVE_DIR = "invoice_archive";
+    private static final long MAINTENANCE_INITIAL_DELAY_MS = 60_000;
+    private static final long MAINTENANCE_PERIOD_MS = 6 * 60 * 60_000;
+    // Compacte aussi sans rien archiver quand le journal contient trop d'enregistrements remplacés
+    private static final int COMPACTION_MIN_RECORDS = 256;
+
+    private static final ScheduledExecutorService maintenanceExecutor =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "invoice-maintenance");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+
+    private static final int MAX_ERROR_LENGTH = 200;
+
+    private static final long FLUSH_DELAY_MS = 200;
+    private static final int FLUSH_THRESHOLD_BYTES = 64 * 1024;
     
     private static StorageManager instance;
     private SharedPreferences prefs;
     private Gson gson;
     private Context context;
+    private File filesDir;
+    private ApiManager apiManager;
+
+    private final Object lock = new Object();
+    private InvoiceJournal journal;
+    private final InvoiceIndex index = new InvoiceIndex();
+    private final Map<InvoiceIndex.Key, InvoiceRetryScheduler.RetryState> retryStates = new HashMap<>();
+    private final Set<InvoiceIndex.Key> exportedKeys = new HashSet<>();
+    // Identifiant DGI des factures en attente déjà créées (reste à fiscaliser)
+    private final Map<InvoiceIndex.Key, String> createdIds = new HashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    private final Object compactionLock = new Object();
+    private InvoiceArchive archive;
+    private volatile InvoiceArchive.RetentionPolicy retentionPolicy = new InvoiceArchive.RetentionPolicy();
+    private ScheduledFuture<?> maintenanceTask;
+
+    private final Object syncLock = new Object();
+    private InvoiceSyncEngine.Config syncConfig = new InvoiceSyncEngine.Config();
+    private InvoiceSyncEngine.SyncHandle activeSync;
+    // Écouteurs de la synchronisation en cours (null quand aucune ne tourne)
+    private List<InvoiceSyncEngine.Listener> activeListeners;
+    // Écouteur de l'appelant qui a lancé la synchronisation en cours
+    private InvoiceSyncEngine.Listener activeOwner;
+    private final InvoiceRetryScheduler retryScheduler = new InvoiceRetryScheduler(this);
 
     private StorageManager(Context context) {
         this.context = context.getApplicationContext();
@@ -37,6 +145,15 @@ public class StorageManager {
         this.gson = new Gson();
     }
 
+    /**
+     * Stockage dans un répertoire donné, sans SharedPreferences à migrer (tests)
+     */
+    StorageManager(File filesDir, ApiManager apiManager) {
+        this.filesDir = filesDir;
+        this.apiManager = apiManager;
+        this.gson = new Gson();
+    }
+
     public static synchronized StorageManager getInstance() {
         if (instance == null) {
             throw new IllegalStateException("StorageManager not initialized. Call initialize() first.");
@@ -70,19 +187,52 @@ public class StorageManager {
      * Sauvegarde une facture en attente de synchronisation
      */
     public void savePendingInvoice(InvoiceData invoiceData) {
+        savePendingInvoice(invoiceData, null);
+    }
+
+    /**
+     * Sauvegarde une facture en attente, déjà créée côté DGI si {@code createdInvoiceId}
+     * n'est pas null. La facture et son identifiant sont écrits ensemble, avant que
+     * les relances ne soient réarmées : une synchronisation ne peut pas voir la facture
+     * sans son identifiant et la recréer (rejet REJ009).
+     */
+    public void savePendingInvoice(InvoiceData invoiceData, String createdInvoiceId) {
+        long startNanos = System.nanoTime();
         try {
-            List<InvoiceData> pending = getPendingInvoices();
-            pending.add(invoiceData);
-            
-            String json = gson.toJson(pending);
-            prefs.edit().putString(KEY_PENDING_INVOICES, json).apply();
+            int count;
+            synchronized (lock) {
+                InvoiceJournal journal = ensureLoaded();
+                InvoiceIndex.Key key = InvoiceIndex.Key.of(invoiceData);
+                InvoiceIndex.Entry existing = index.get(key);
+                if (existing != null && existing.status == InvoiceIndex.Status.CERTIFIED) {
+                    // Déjà certifiée : la remettre en file provoquerait un rejet REJ009
+                    TRACE.w(TAG + ": Invoice " + key + " already certified, not queued again");
+                    return;
+                }
+                long offset = journal.append(REC_PENDING_ADD, InvoiceCodec.encodeInvoice(invoiceData));
+                // Un état de relance non écrit serait rejoué après ce nouvel ajout
+                journal.discardCoalesced(key.toString());
+                index.put(pendingEntry(invoiceData, offset));
+                retryStates.remove(key);
+                if (createdInvoiceId != null && !createdInvoiceId.equals(createdIds.get(key))) {
+                    journal.append(REC_PENDING_CREATED, encodeCreated(key, createdInvoiceId));
+                    createdIds.put(key, createdInvoiceId);
+                }
+                count = index.count(InvoiceIndex.Status.PENDING);
+                // Seule copie d'une facture non certifiée : écriture immédiate
+                journal.flush();
+            }
+            retryScheduler.reschedule();
+            PENDING_GAUGE.set(count);
             
             TRACE.i(TAG + ": Invoice saved to pending queue");
-            Log.d(TAG, "Pending invoices count: " + pending.size());
+            Log.d(TAG, "Pending invoices count: " + count);
             
         } catch (Exception e) {
             TRACE.e(TAG + ": Error saving pending invoice" + ": " + e.getMessage());
             throw new RuntimeException("Erreur lors de la sauvegarde de la facture en attente", e);
+        } finally {
+            WRITE_LATENCY.recordSince(startNanos);
         }
     }
 
@@ -90,20 +240,22 @@ public class StorageManager {
      * Récupère toutes les factures en attente
      */
     public List<InvoiceData> getPendingInvoices() {
+        long startNanos = System.nanoTime();
         try {
-            String json = prefs.getString(KEY_PENDING_INVOICES, "[]");
-            Type listType = new TypeToken<List<InvoiceData>>(){}.getType();
-            List<InvoiceData> pending = gson.fromJson(json, listType);
-            
-            if (pending == null) {
-                pending = new ArrayList<>();
+            synchronized (lock) {
+                ensureLoaded();
+                List<InvoiceData> pending = new ArrayList<>(index.count(InvoiceIndex.Status.PENDING));
+                for (InvoiceIndex.Entry entry : index.entries(InvoiceIndex.Status.PENDING)) {
+                    pending.add(entry.pendingInvoice);
+                }
+                return pending;
             }
             
-            return pending;
-            
         } catch (Exception e) {
             TRACE.e(TAG + ": Error loading pending invoices" + ": " + e.getMessage());
             return new ArrayList<>();
+        } finally {
+            READ_LATENCY.recordSince(startNanos);
         }
     }
 
@@ -111,21 +263,28 @@ public class StorageManager {
      * Sauvegarde une facture certifiée
      */
     public void saveCertifiedInvoice(InvoiceData invoiceData, CertificationResponse response) {
+        long startNanos = System.nanoTime();
         try {
             // Créer un objet combiné pour la sauvegarde
             CertifiedInvoiceRecord record = new CertifiedInvoiceRecord(invoiceData, response);
             
-            List<CertifiedInvoiceRecord> certified = getCertifiedInvoices();
-            certified.add(record);
-            
-            String json = gson.toJson(certified);
-            prefs.edit().putString(KEY_CERTIFIED_INVOICES, json).apply();
+            synchronized (lock) {
+                long offset = ensureLoaded().append(REC_CERTIFIED_ADD, InvoiceCodec.encodeCertified(record));
+                index.put(certifiedEntry(invoiceData, offset));
+                retryStates.remove(InvoiceIndex.Key.of(invoiceData));
+                exportedKeys.remove(InvoiceIndex.Key.of(invoiceData));
+                createdIds.remove(InvoiceIndex.Key.of(invoiceData));
+                scheduleFlush();
+                PENDING_GAUGE.set(index.count(InvoiceIndex.Status.PENDING));
+            }
             
             TRACE.i(TAG + ": Certified invoice saved");
             
         } catch (Exception e) {
             TRACE.e(TAG + ": Error saving certified invoice" + ": " + e.getMessage());
             throw new RuntimeException("Erreur lors de la sauvegarde de la facture certifiée", e);
+        } finally {
+            WRITE_LATENCY.recordSince(startNanos);
         }
     }
 
@@ -154,129 +313,797 @@ public class StorageManager {
 
     /**
      * Récupère toutes les factures certifiées
+     * Charge tout l'historique en mémoire : préférer {@link #openCertifiedCursor(int, boolean)}
      */
     public List<CertifiedInvoiceRecord> getCertifiedInvoices() {
+        long startNanos = System.nanoTime();
         try {
-            String json = prefs.getString(KEY_CERTIFIED_INVOICES, "[]");
-            Type listType = new TypeToken<List<CertifiedInvoiceRecord>>(){}.getType();
-            List<CertifiedInvoiceRecord> certified = gson.fromJson(json, listType);
-            
-            if (certified == null) {
-                certified = new ArrayList<>();
+            synchronized (lock) {
+                // Les factures certifiées ne sont pas gardées en mémoire : lecture par offset
+                InvoiceJournal journal = ensureLoaded();
+                return readCertified(journal, index.entries(InvoiceIndex.Status.CERTIFIED));
             }
-            
-            return certified;
+
             
         } catch (Exception e) {
             TRACE.e(TAG + ": Error loading certified invoices" + ": " + e.getMessage());
             return new ArrayList<>();
+        } finally {
+            READ_LATENCY.recordSince(startNanos);
         }
     }
 
     /**
-     * Synchronise les factures en attente avec l'API
+     * Ouvre un curseur paginé sur les factures certifiées
+     *
+     * @param pageSize nombre de factures lues par page
+     * @param newestFirst true pour parcourir de la plus récente à la plus ancienne
      */
-    public void syncPendingInvoices(SyncCallback callback) {
-        TRACE.i(TAG + ": Starting sync of pending invoices");
-        
-        List<InvoiceData> pending = getPendingInvoices();
-        if (pending.isEmpty()) {
-            callback.onSuccess(0);
-            return;
+    public CertifiedInvoiceCursor openCertifiedCursor(int pageSize, boolean newestFirst) {
+        InvoiceIndex.Key[] keys;
+        synchronized (lock) {
+            try {
+                ensureLoaded();
+            } catch (Exception e) {
+                TRACE.e(TAG + ": Error opening certified cursor" + ": " + e.getMessage());
+                return new CertifiedInvoiceCursor(new InvoiceIndex.Key[0], pageSize, this::readCertifiedPage);
+            }
+            List<InvoiceIndex.Entry> entries = index.entries(InvoiceIndex.Status.CERTIFIED);
+            int count = entries.size();
+            keys = new InvoiceIndex.Key[count];
+            for (int i = 0; i < count; i++) {
+                keys[newestFirst ? count - 1 - i : i] = entries.get(i).key;
+            }
         }
+        return new CertifiedInvoiceCursor(keys, pageSize, this::readCertifiedPage);
+    }
 
-        ApiManager apiManager = ApiManager.getInstance(context);
-        int syncedCount = 0;
-        int totalCount = pending.size();
-        
-        // Synchroniser chaque facture
-        syncInvoicesRecursively(pending, 0, apiManager, callback, syncedCount, totalCount);
+    /**
+     * Lit une page du curseur. Les factures qui ne sont plus certifiées dans le journal
+     * (purgées ou archivées depuis l'ouverture) sont ignorées.
+     */
+    private List<CertifiedInvoiceRecord> readCertifiedPage(InvoiceIndex.Key[] keys, int from, int to) {
+        long startNanos = System.nanoTime();
+        List<CertifiedInvoiceRecord> page = new ArrayList<>(to - from);
+        synchronized (lock) {
+            try {
+                InvoiceJournal journal = ensureLoaded();
+                for (int i = from; i < to; i++) {
+                    InvoiceIndex.Entry current = index.get(keys[i]);
+                    if (current != null && current.status == InvoiceIndex.Status.CERTIFIED) {
+                        page.add(readCertified(journal, current));
+                    }
+                }
+            } catch (Exception e) {
+                TRACE.e(TAG + ": Error reading certified page" + ": " + e.getMessage());
+            }
+        }
+        READ_LATENCY.recordSince(startNanos);
+        return page;
     }
 
-    private void syncInvoicesRecursively(List<InvoiceData> pending, int index, 
-                                       ApiManager apiManager, SyncCallback callback, 
-                                       int syncedCount, int totalCount) {
-        if (index >= pending.size()) {
-            // Toutes les factures ont été traitées
-            callback.onSuccess(syncedCount);
-            return;
+    /**
+     * Nombre de factures en attente (compteur maintenu, O(1))
+     */
+    public int getPendingCount() {
+        try {
+            synchronized (lock) {
+                ensureLoaded();
+                return index.count(InvoiceIndex.Status.PENDING);
+            }
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error counting pending invoices" + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Nombre de factures certifiées (compteur maintenu, O(1))
+     */
+    public int getCertifiedCount() {
+        try {
+            synchronized (lock) {
+                ensureLoaded();
+                return index.count(InvoiceIndex.Status.CERTIFIED);
+            }
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error counting certified invoices" + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Recherche une facture en attente par sa clé primaire
+     */
+    public InvoiceData findPendingInvoice(String machineNum, String externalNum) {
+        try {
+            synchronized (lock) {
+                ensureLoaded();
+                InvoiceIndex.Entry entry = index.get(new InvoiceIndex.Key(machineNum, externalNum));
+                return entry != null && entry.status == InvoiceIndex.Status.PENDING ? entry.pendingInvoice : null;
+            }
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error looking up pending invoice" + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Recherche une facture certifiée par sa clé primaire
+     */
+    public CertifiedInvoiceRecord findCertifiedInvoice(String machineNum, String externalNum) {
+        long startNanos = System.nanoTime();
+        try {
+            synchronized (lock) {
+                InvoiceJournal journal = ensureLoaded();
+                InvoiceIndex.Entry entry = index.get(new InvoiceIndex.Key(machineNum, externalNum));
+                if (entry == null || entry.status != InvoiceIndex.Status.CERTIFIED) {
+                    return null;
+                }
+                return readCertified(journal, entry);
+            }
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error looking up certified invoice" + ": " + e.getMessage());
+            return null;
+        } finally {
+            READ_LATENCY.recordSince(startNanos);
+        }
+    }
+
+    /**
+     * Indique si une facture (en attente ou certifiée) existe déjà pour cette clé
+     */
+    public boolean containsInvoice(String machineNum, String externalNum) {
+        try {
+            synchronized (lock) {
+                ensureLoaded();
+                return index.get(new InvoiceIndex.Key(machineNum, externalNum)) != null;
+            }
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error looking up invoice" + ": " + e.getMessage());
+            return false;
         }
+    }
 
-        InvoiceData invoice = pending.get(index);
-        
-        apiManager.certifyInvoice(invoice, new ApiManager.ApiCallback<InvoiceVerificationResponse>() {
+    /**
+     * Récupère les factures certifiées émises entre deux dates (préfixes ISO, bornes incluses)
+     */
+    public List<CertifiedInvoiceRecord> getCertifiedInvoicesByIssueDate(String fromDate, String toDate) {
+        try {
+            synchronized (lock) {
+                InvoiceJournal journal = ensureLoaded();
+                return readCertified(journal,
+                        index.entriesByIssueDate(fromDate, toDate, InvoiceIndex.Status.CERTIFIED));
+            }
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error loading certified invoices by date" + ": " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Synchronise les factures en attente avec l'API
+     *
+     * onError si des factures n'ont pas pu être envoyées ou si la synchronisation a
+     * été annulée ; onSuccess sinon.
+     */
+    public InvoiceSyncEngine.SyncHandle syncPendingInvoices(SyncCallback callback) {
+        return syncPendingInvoices(new InvoiceSyncEngine.Listener() {
             @Override
-            public void onSuccess(InvoiceVerificationResponse response) {
-                // Sauvegarder comme certifiée
-                saveCertifiedInvoice(invoice, response);
-                
-                // Supprimer de la liste des en attente
-                removePendingInvoice(invoice);
-                
-                TRACE.i(TAG + ": Invoice synced successfully: " + (index + 1) + "/" + totalCount);
-                
-                // Continuer avec la facture suivante
-                syncInvoicesRecursively(pending, index + 1, apiManager, callback, 
-                                      syncedCount + 1, totalCount);
+            public void onProgress(InvoiceSyncEngine.Progress progress) {
             }
 
             @Override
-            public void onError(String error) {
-                TRACE.e(TAG + ": Failed to sync invoice " + (index + 1) + "/" + totalCount + ": " + error);
-                
-                // Continuer avec la facture suivante même en cas d'erreur
-                syncInvoicesRecursively(pending, index + 1, apiManager, callback, 
-                                      syncedCount, totalCount);
+            public void onComplete(InvoiceSyncEngine.Progress progress) {
+                if (progress.getFailed() > 0) {
+                    callback.onError(progress.getFailed() + " invoice(s) could not be synchronized ("
+                            + progress.getSucceeded() + " synchronized)");
+                } else if (progress.isCancelled()) {
+                    callback.onError("Sync cancelled, " + progress.getRemaining() + " invoice(s) still pending ("
+                            + progress.getSucceeded() + " synchronized)");
+                } else {
+                    callback.onSuccess(progress.getSucceeded());
+                }
             }
         });
     }
 
     /**
-     * Supprime une facture de la liste des en attente
+     * Synchronise les factures en attente avec suivi de progression et annulation.
+     * Une seule synchronisation tourne à la fois : un second appel pendant qu'une
+     * synchronisation est en cours renvoie la poignée existante sans relancer l'envoi,
+     * et son écouteur reçoit la progression et la fin de celle-ci.
+     * Les factures rejetées définitivement ne sont pas renvoyées.
+     */
+    public InvoiceSyncEngine.SyncHandle syncPendingInvoices(InvoiceSyncEngine.Listener listener) {
+        TRACE.i(TAG + ": Starting sync of pending invoices");
+        return startSync(() -> selectPending(Long.MAX_VALUE), listener);
+    }
+
+    /**
+     * Synchronise les factures dont l'échéance de relance est atteinte
+     * (appelé par le {@link InvoiceRetryScheduler})
      */
-    private void removePendingInvoice(InvoiceData invoiceToRemove) {
+    void syncDueInvoices() {
+        if (ConnectivityMonitor.isKnownOffline()) {
+            // Le retour du réseau relancera l'envoi (voir onNetworkAvailable)
+            TRACE.i(TAG + ": Offline, retry postponed until network is back");
+            return;
+        }
+        TRACE.i(TAG + ": Starting retry of due invoices");
+        startSync(() -> selectPending(System.currentTimeMillis()), BACKGROUND_SYNC);
+    }
+
+    /**
+     * Envoie les factures en attente au retour d'un réseau validé, sans attendre
+     * l'échéance de relance : les échecs précédents venaient probablement de la coupure
+     * (appelé par le {@link ConnectivityMonitor})
+     */
+    void onNetworkAvailable() {
+        TRACE.i(TAG + ": Network available, draining pending invoices");
+        startSync(() -> selectPending(Long.MAX_VALUE), BACKGROUND_SYNC);
+    }
+
+    private static final InvoiceSyncEngine.Listener BACKGROUND_SYNC = new InvoiceSyncEngine.Listener() {
+        @Override
+        public void onProgress(InvoiceSyncEngine.Progress progress) {
+        }
+
+        @Override
+        public void onComplete(InvoiceSyncEngine.Progress progress) {
+        }
+    };
+
+    private interface InvoiceSelector {
+        List<InvoiceData> select();
+    }
+
+    /**
+     * Détache un écouteur de la synchronisation en cours, qui continue sans lui
+     *
+     * @return true si cet écouteur l'a lancée (l'appelant peut alors l'annuler) ;
+     *         false s'il ne faisait que la suivre, ou si elle est terminée
+     */
+    public boolean removeSyncListener(InvoiceSyncEngine.Listener listener) {
+        synchronized (syncLock) {
+            if (activeListeners == null) {
+                return false;
+            }
+            activeListeners.remove(listener);
+            return activeOwner == listener;
+        }
+    }
+
+    private InvoiceSyncEngine.SyncHandle startSync(InvoiceSelector selector, InvoiceSyncEngine.Listener listener) {
+        synchronized (syncLock) {
+            if (activeListeners != null) {
+                // L'appelant suit la synchronisation en cours jusqu'à sa fin
+                TRACE.i(TAG + ": Sync already in progress, following it");
+                activeListeners.add(listener);
+                return activeSync;
+            }
+
+            List<InvoiceSyncEngine.Listener> listeners = new CopyOnWriteArrayList<>();
+            listeners.add(listener);
+            activeListeners = listeners;
+            activeOwner = listener;
+            List<InvoiceData> invoices = selector.select();
+            InvoiceSyncEngine engine = new InvoiceSyncEngine(this, getApiManager(), syncConfig);
+            activeSync = engine.start(invoices, new InvoiceSyncEngine.Listener() {
+                @Override
+                public void onProgress(InvoiceSyncEngine.Progress progress) {
+                    for (InvoiceSyncEngine.Listener each : listeners) {
+                        each.onProgress(progress);
+                    }
+                }
+
+                @Override
+                public void onComplete(InvoiceSyncEngine.Progress progress) {
+                    // Fin de lot : les résultats de certification sont rendus durables
+                    flush();
+                    synchronized (syncLock) {
+                        // Plus aucun écouteur ne peut s'ajouter à ce passage
+                        if (activeListeners == listeners) {
+                            activeListeners = null;
+                            activeOwner = null;
+                        }
+                    }
+                    for (InvoiceSyncEngine.Listener each : listeners) {
+                        each.onComplete(progress);
+                    }
+                    // Les échecs de ce passage ont fixé de nouvelles échéances
+                    retryScheduler.reschedule();
+                }
+            });
+            return activeSync;
+        }
+    }
+
+    /**
+     * Factures en attente à envoyer : non rejetées définitivement et dont l'échéance
+     * de relance est passée à {@code now}
+     */
+    private List<InvoiceData> selectPending(long now) {
         try {
-            List<InvoiceData> pending = getPendingInvoices();
-            pending.removeIf(invoice -> 
-                invoice.getExternalNum().equals(invoiceToRemove.getExternalNum()) &&
-                invoice.getMachineNum().equals(invoiceToRemove.getMachineNum()) &&
-                invoice.getTotalTtc() == invoiceToRemove.getTotalTtc()
-            );
-            
-            String json = gson.toJson(pending);
-            prefs.edit().putString(KEY_PENDING_INVOICES, json).apply();
-            
+            synchronized (lock) {
+                ensureLoaded();
+                List<InvoiceData> selected = new ArrayList<>();
+                for (InvoiceIndex.Entry entry : index.entries(InvoiceIndex.Status.PENDING)) {
+                    InvoiceRetryScheduler.RetryState state = retryStates.get(entry.key);
+                    if (state == null || (!state.isPermanent() && state.getNextAttemptAt() <= now)) {
+                        selected.add(entry.pendingInvoice);
+                    }
+                }
+                return selected;
+            }
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error selecting pending invoices" + ": " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Démarre les relances automatiques des factures en échec
+     */
+    public void startRetryScheduler() {
+        retryScheduler.start();
+    }
+
+    public void stopRetryScheduler() {
+        retryScheduler.stop();
+    }
+
+    /**
+     * Configure la politique de relance (délai de base, plafond, nombre de tentatives)
+     */
+    public void setRetryPolicy(InvoiceRetryScheduler.Policy policy) {
+        retryScheduler.setPolicy(policy);
+        retryScheduler.reschedule();
+    }
+
+    /**
+     * État de relance d'une facture en attente, ou null si elle n'a jamais échoué
+     */
+    public InvoiceRetryScheduler.RetryState getRetryState(String machineNum, String externalNum) {
+        try {
+            synchronized (lock) {
+                ensureLoaded();
+                return retryStates.get(new InvoiceIndex.Key(machineNum, externalNum));
+            }
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error looking up retry state" + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Enregistre l'échec de certification d'une facture et calcule sa prochaine échéance
+     */
+    void recordSyncFailure(InvoiceData invoice, String error, Integer httpCode) {
+        try {
+            InvoiceRetryScheduler.RetryState state;
+            synchronized (lock) {
+                InvoiceJournal journal = ensureLoaded();
+                InvoiceIndex.Key key = InvoiceIndex.Key.of(invoice);
+                InvoiceIndex.Entry entry = index.get(key);
+                if (entry == null || entry.status != InvoiceIndex.Status.PENDING) {
+                    return;
+                }
+                InvoiceRetryScheduler.RetryState previous = retryStates.get(key);
+                int attempts = (previous != null ? previous.getAttempts() : 0) + 1;
+                int maxAttempts = retryScheduler.getPolicy().getMaxAttempts();
+                boolean permanent = !ErrorHandler.isRetryable(httpCode, error)
+                        || (maxAttempts > 0 && attempts >= maxAttempts);
+                long nextAttemptAt = permanent
+                        ? Long.MAX_VALUE
+                        : System.currentTimeMillis() + retryScheduler.nextDelay(attempts);
+                String lastError = error != null && error.length() > MAX_ERROR_LENGTH
+                        ? error.substring(0, MAX_ERROR_LENGTH) : nullToEmpty(error);
+                state = new InvoiceRetryScheduler.RetryState(attempts, nextAttemptAt, lastError, permanent);
+
+                // Seul le dernier état d'une facture compte : coalescé jusqu'au flush
+                journal.appendCoalesced(key.toString(), REC_RETRY_STATE, encodeRetryState(key, state));
+                retryStates.put(key, state);
+                scheduleFlush();
+            }
+
+            if (state.isPermanent()) {
+                TRACE.w(TAG + ": Invoice " + invoice.getExternalNum() + " will not be retried after "
+                        + state.getAttempts() + " attempt(s): " + state.getLastError());
+            } else {
+                TRACE.i(TAG + ": Invoice " + invoice.getExternalNum() + " retry #" + state.getAttempts()
+                        + " in " + (state.getNextAttemptAt() - System.currentTimeMillis()) + "ms");
+            }
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error recording sync failure" + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prochaine échéance de relance parmi les factures en attente
+     * (Long.MAX_VALUE s'il n'y a rien à relancer)
+     */
+    long nextRetryAt() {
+        try {
+            synchronized (lock) {
+                ensureLoaded();
+                long next = Long.MAX_VALUE;
+                for (InvoiceIndex.Entry entry : index.entries(InvoiceIndex.Status.PENDING)) {
+                    InvoiceRetryScheduler.RetryState state = retryStates.get(entry.key);
+                    if (state == null) {
+                        return System.currentTimeMillis();
+                    }
+                    if (!state.isPermanent()) {
+                        next = Math.min(next, state.getNextAttemptAt());
+                    }
+                }
+                return next;
+            }
         } catch (Exception e) {
-            TRACE.e(TAG + ": Error removing pending invoice" + ": " + e.getMessage());
+            TRACE.e(TAG + ": Error computing next retry" + ": " + e.getMessage());
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Configure le moteur de synchronisation (fenêtre d'envoi, ordre par machine, backoff)
+     */
+    public void setSyncConfig(InvoiceSyncEngine.Config config) {
+        synchronized (syncLock) {
+            this.syncConfig = config;
         }
     }
 
+    /**
+     * Étape de certification d'une facture en attente
+     */
+    public enum InvoiceState {
+        /** En attente, pas encore connue de la DGI */
+        PENDING,
+        /** Créée côté DGI (identifiant connu), reste à fiscaliser */
+        CREATED,
+        /** Fiscalisée : facture certifiée */
+        FISCALIZED
+    }
+
+    /**
+     * Étape de certification d'une facture, ou null si elle est inconnue
+     */
+    public InvoiceState getInvoiceState(String machineNum, String externalNum) {
+        try {
+            synchronized (lock) {
+                ensureLoaded();
+                InvoiceIndex.Key key = new InvoiceIndex.Key(machineNum, externalNum);
+                InvoiceIndex.Entry entry = index.get(key);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.status == InvoiceIndex.Status.CERTIFIED) {
+                    return InvoiceState.FISCALIZED;
+                }
+                return createdIds.containsKey(key) ? InvoiceState.CREATED : InvoiceState.PENDING;
+            }
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error looking up invoice state" + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Identifiant DGI d'une facture en attente déjà créée, ou null
+     */
+    public String getCreatedInvoiceId(String machineNum, String externalNum) {
+        try {
+            synchronized (lock) {
+                ensureLoaded();
+                return createdIds.get(new InvoiceIndex.Key(machineNum, externalNum));
+            }
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error looking up created invoice" + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Enregistre la création côté DGI d'une facture en attente (PENDING → CREATED).
+     * Écrit sur disque avant de rendre la main : fiscalize ne part qu'ensuite.
+     */
+    public void markCreated(InvoiceData invoice, String invoiceId) {
+        try {
+            synchronized (lock) {
+                InvoiceJournal journal = ensureLoaded();
+                InvoiceIndex.Key key = InvoiceIndex.Key.of(invoice);
+                InvoiceIndex.Entry entry = index.get(key);
+                if (entry == null || entry.status != InvoiceIndex.Status.PENDING
+                        || invoiceId.equals(createdIds.get(key))) {
+                    return;
+                }
+                journal.append(REC_PENDING_CREATED, encodeCreated(key, invoiceId));
+                createdIds.put(key, invoiceId);
+                journal.flush();
+            }
+            TRACE.i(TAG + ": Invoice " + invoice.getExternalNum() + " created with ID " + invoiceId);
+        } catch (Exception e) {
+            // Sans cette trace, une reprise recréerait la facture et serait rejetée (REJ009)
+            TRACE.e(TAG + ": Error recording invoice creation" + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Enregistre la fiscalisation d'une facture en attente (CREATED → FISCALIZED).
+     * Un seul enregistrement remplace l'entrée en attente et son état de relance,
+     * écrit sur disque avant de rendre la main.
+     */
+    void markFiscalized(InvoiceData invoice, InvoiceVerificationResponse response) {
+        saveCertifiedInvoice(invoice, response);
+        flush();
+    }
+
     /**
      * Vide toutes les factures en attente
      */
     public void clearPendingInvoices() {
-        prefs.edit().putString(KEY_PENDING_INVOICES, "[]").apply();
-        TRACE.i(TAG + ": All pending invoices cleared");
+        try {
+            synchronized (lock) {
+                InvoiceJournal journal = ensureLoaded();
+                journal.append(REC_PENDING_CLEAR, new byte[0]);
+                index.removeAll(InvoiceIndex.Status.PENDING);
+                retryStates.clear();
+                createdIds.clear();
+                journal.flush();
+            }
+            TRACE.i(TAG + ": All pending invoices cleared");
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error clearing pending invoices" + ": " + e.getMessage());
+        }
     }
 
     /**
-     * Vide toutes les factures certifiées
+     * Vide toutes les factures certifiées du journal (l'archive n'est pas modifiée)
      */
     public void clearCertifiedInvoices() {
-        prefs.edit().putString(KEY_CERTIFIED_INVOICES, "[]").apply();
-        TRACE.i(TAG + ": All certified invoices cleared");
+        try {
+            synchronized (lock) {
+                InvoiceJournal journal = ensureLoaded();
+                journal.append(REC_CERTIFIED_CLEAR, new byte[0]);
+                index.removeAll(InvoiceIndex.Status.CERTIFIED);
+                exportedKeys.clear();
+                journal.flush();
+            }
+            TRACE.i(TAG + ": All certified invoices cleared");
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error clearing certified invoices" + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Marque une facture certifiée comme exportée : selon la politique de rétention,
+     * elle quitte le journal au prochain compactage
+     */
+    public void markCertifiedExported(String machineNum, String externalNum) {
+        try {
+            synchronized (lock) {
+                InvoiceJournal journal = ensureLoaded();
+                InvoiceIndex.Key key = new InvoiceIndex.Key(machineNum, externalNum);
+                InvoiceIndex.Entry entry = index.get(key);
+                if (entry == null || entry.status != InvoiceIndex.Status.CERTIFIED || exportedKeys.contains(key)) {
+                    return;
+                }
+                journal.append(REC_CERTIFIED_EXPORTED, encodeKey(key));
+                exportedKeys.add(key);
+                scheduleFlush();
+            }
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error marking invoice as exported" + ": " + e.getMessage());
+        }
+    }
+
+    // ----------------------------
+    // Rétention et archive
+    // ----------------------------
+
+    /**
+     * Configure la rétention des factures certifiées dans le journal
+     */
+    public void setRetentionPolicy(InvoiceArchive.RetentionPolicy policy) {
+        this.retentionPolicy = policy;
+    }
+
+    /**
+     * Démarre le compactage périodique en arrière-plan
+     */
+    public void startMaintenance() {
+        synchronized (compactionLock) {
+            if (maintenanceTask != null) {
+                return;
+            }
+            maintenanceTask = maintenanceExecutor.scheduleWithFixedDelay(this::compact,
+                    MAINTENANCE_INITIAL_DELAY_MS, MAINTENANCE_PERIOD_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Archive les factures certifiées hors rétention et réécrit le journal avec le seul
+     * état courant. Bloquant : à appeler hors thread principal.
+     */
+    public void compact() {
+        synchronized (compactionLock) {
+            try {
+                compactJournal();
+            } catch (Exception e) {
+                TRACE.e(TAG + ": Error compacting journal" + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Parcourt les factures archivées émises entre deux mois (AAAA-MM, bornes incluses,
+     * null = sans limite). Lecture séquentielle des segments, rien n'est gardé en mémoire.
+     */
+    public void scanArchive(String fromMonth, String toMonth, InvoiceArchive.Visitor visitor) {
+        try {
+            getArchive().scan(fromMonth, toMonth, visitor);
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error scanning invoice archive" + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Mois (AAAA-MM) présents dans l'archive
+     */
+    public List<String> getArchiveMonths() {
+        return getArchive().months();
+    }
+
+    private synchronized InvoiceArchive getArchive() {
+        if (archive == null) {
+            archive = new InvoiceArchive(new File(getFilesDir(), ARCHIVE_DIR));
+        }
+        return archive;
+    }
+
+    private void compactJournal() throws IOException {
+        InvoiceArchive.RetentionPolicy policy = retentionPolicy;
+        InvoiceJournal source;
+        List<InvoiceIndex.Entry> cold;
+        synchronized (lock) {
+            source = ensureLoaded();
+            source.flush();
+            cold = selectCold(policy);
+            long live = index.count(InvoiceIndex.Status.PENDING) + index.count(InvoiceIndex.Status.CERTIFIED)
+                    + retryStates.size() + exportedKeys.size() + createdIds.size();
+            if (cold.isEmpty() && source.recordCount() < Math.max(COMPACTION_MIN_RECORDS, 2 * live)) {
+                return;
+            }
+        }
+
+        // Ecriture de l'archive hors verrou : les offsets lus ne changent pas tant
+        // que le journal n'est pas réécrit, ce qui n'arrive que sous compactionLock
+        Map<String, List<byte[]>> byMonth = new TreeMap<>();
+        for (InvoiceIndex.Entry entry : cold) {
+            byte[] payload = certifiedPayload(source, entry);
+            String month = InvoiceArchive.monthOf(entry.issueDate);
+            List<byte[]> payloads = byMonth.get(month);
+            if (payloads == null) {
+                payloads = new ArrayList<>();
+                byMonth.put(month, payloads);
+            }
+            payloads.add(payload);
+        }
+        if (!byMonth.isEmpty()) {
+            getArchive().write(byMonth);
+        }
+
+        synchronized (lock) {
+            // Une facture re-certifiée pendant l'archivage reste dans le journal
+            Set<InvoiceIndex.Key> archived = new HashSet<>();
+            for (InvoiceIndex.Entry entry : cold) {
+                InvoiceIndex.Entry current = index.get(entry.key);
+                if (current != null && current.offset == entry.offset) {
+                    archived.add(entry.key);
+                }
+            }
+
+            File file = getJournalFile();
+            File tmp = new File(file.getPath() + ".compact");
+            if (tmp.exists() && !tmp.delete()) {
+                throw new IOException("Cannot delete stale journal: " + tmp);
+            }
+            long before = journal.size();
+            try (InvoiceJournal compacted = InvoiceJournal.open(tmp, (type, payload, offset) -> { })) {
+                for (InvoiceIndex.Entry entry : index.entries(InvoiceIndex.Status.PENDING)) {
+                    compacted.append(REC_PENDING_ADD, InvoiceCodec.encodeInvoice(entry.pendingInvoice));
+                    InvoiceRetryScheduler.RetryState state = retryStates.get(entry.key);
+                    if (state != null) {
+                        compacted.append(REC_RETRY_STATE, encodeRetryState(entry.key, state));
+                    }
+                    String createdId = createdIds.get(entry.key);
+                    if (createdId != null) {
+                        compacted.append(REC_PENDING_CREATED, encodeCreated(entry.key, createdId));
+                    }
+                }
+                for (InvoiceIndex.Entry entry : index.entries(InvoiceIndex.Status.CERTIFIED)) {
+                    if (archived.contains(entry.key)) {
+                        continue;
+                    }
+                    compacted.append(REC_CERTIFIED_ADD, certifiedPayload(journal, entry));
+                    if (exportedKeys.contains(entry.key)) {
+                        compacted.append(REC_CERTIFIED_EXPORTED, encodeKey(entry.key));
+                    }
+                }
+            }
+
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            journal.close();
+            journal = null;
+            boolean installed = tmp.renameTo(file);
+            // Recharge le journal (compacté, ou l'ancien si le renommage a échoué)
+            ensureLoaded();
+            if (!installed) {
+                throw new IOException("Cannot install compacted journal: " + file);
+            }
+            TRACE.i(TAG + ": Journal compacted - archived: " + archived.size() + ", size: "
+                    + before + " -> " + journal.size() + " bytes");
+        }
+    }
+
+    /**
+     * Factures certifiées à sortir du journal selon la politique (appelé sous {@code lock})
+     */
+    private List<InvoiceIndex.Entry> selectCold(InvoiceArchive.RetentionPolicy policy) {
+        List<InvoiceIndex.Entry> certified = index.entries(InvoiceIndex.Status.CERTIFIED);
+        Set<InvoiceIndex.Key> cold = new LinkedHashSet<>();
+
+        if (policy.getHotMaxAgeDays() > 0) {
+            long cutoffMs = System.currentTimeMillis() - policy.getHotMaxAgeDays() * 24L * 60 * 60_000;
+            String cutoff = new SimpleDateFormat("yyyy-MM-dd", Locale.US).format(new Date(cutoffMs));
+            for (InvoiceIndex.Entry entry : index.entriesByIssueDate(null, cutoff, InvoiceIndex.Status.CERTIFIED)) {
+                if (!entry.issueDate.isEmpty() && entry.issueDate.compareTo(cutoff) < 0) {
+                    cold.add(entry.key);
+                }
+            }
+        }
+        if (policy.isArchiveExported()) {
+            cold.addAll(exportedKeys);
+        }
+        if (policy.getHotMaxCount() > 0) {
+            // Les plus anciennes certifications partent en premier
+            int hot = certified.size() - cold.size();
+            for (int i = 0; i < certified.size() && hot > policy.getHotMaxCount(); i++) {
+                if (cold.add(certified.get(i).key)) {
+                    hot--;
+                }
+            }
+        }
+
+        List<InvoiceIndex.Entry> entries = new ArrayList<>(cold.size());
+        for (InvoiceIndex.Key key : cold) {
+            entries.add(index.get(key));
+        }
+        return entries;
+    }
+
+    /**
+     * Payload binaire d'une facture certifiée (les enregistrements JSON hérités sont réencodés)
+     */
+    private byte[] certifiedPayload(InvoiceJournal source, InvoiceIndex.Entry entry) throws IOException {
+        InvoiceJournal.Record record = source.read(entry.offset);
+        if (isLegacyJson(record.payload)) {
+            return InvoiceCodec.encodeCertified(decodeCertified(record.payload));
+        }
+        return record.payload;
     }
 
     /**
      * Obtient le statut de synchronisation
      */
     public SyncStatus getSyncStatus() {
-        List<InvoiceData> pending = getPendingInvoices();
-        List<CertifiedInvoiceRecord> certified = getCertifiedInvoices();
-        
         return new SyncStatus(
-            pending.size(),
-            certified.size(),
+            getPendingCount(),
+            getCertifiedCount(),
             System.currentTimeMillis()
         );
     }
@@ -289,6 +1116,311 @@ public class StorageManager {
         prefs.edit().putString(KEY_SYNC_STATUS, json).apply();
     }
 
+    /**
+     * Rend durables toutes les écritures en attente (ex. avant l'impression du reçu fiscal)
+     */
+    public void flush() {
+        try {
+            synchronized (lock) {
+                if (scheduledFlush != null) {
+                    scheduledFlush.cancel(false);
+                    scheduledFlush = null;
+                }
+                if (journal != null) {
+                    journal.flush();
+                }
+            }
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Error flushing journal" + ": " + e.getMessage());
+        }
+    }
+
+    // ----------------------------
+    // Journal
+    // ----------------------------
+
+    /**
+     * Programme le flush différé, ou flushe tout de suite au-delà du seuil
+     * (appelé sous {@code lock})
+     */
+    private void scheduleFlush() throws IOException {
+        if (journal.pendingBytes() >= FLUSH_THRESHOLD_BYTES) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            journal.flush();
+            return;
+        }
+        if (scheduledFlush == null) {
+            scheduledFlush = InvoiceSyncEngine.scheduler().schedule(() -> {
+                synchronized (lock) {
+                    scheduledFlush = null;
+                }
+                flush();
+            }, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private File getJournalFile() {
+        return new File(getFilesDir(), JOURNAL_FILE);
+    }
+
+    private File getFilesDir() {
+        return filesDir != null ? filesDir : context.getFilesDir();
+    }
+
+    private ApiManager getApiManager() {
+        return apiManager != null ? apiManager : ApiManager.getInstance(context);
+    }
+
+    /**
+     * Ouvre le journal au premier accès et reconstruit l'état en mémoire
+     * (appelé sous {@code lock})
+     */
+    private InvoiceJournal ensureLoaded() throws IOException {
+        if (journal != null) {
+            return journal;
+        }
+
+        File file = getJournalFile();
+        if (prefs != null && !file.exists()) {
+            migrateLegacyPreferences(file);
+        } else if (prefs != null
+                && (prefs.contains(KEY_PENDING_INVOICES) || prefs.contains(KEY_CERTIFIED_INVOICES))) {
+            // Migration déjà faite, le processus s'est arrêté avant le nettoyage
+            prefs.edit().remove(KEY_PENDING_INVOICES).remove(KEY_CERTIFIED_INVOICES).apply();
+        }
+
+        index.clear();
+        retryStates.clear();
+        exportedKeys.clear();
+        createdIds.clear();
+        journal = InvoiceJournal.open(file, this::applyRecord);
+        TRACE.i(TAG + ": Journal loaded - pending: " + index.count(InvoiceIndex.Status.PENDING)
+                + ", certified: " + index.count(InvoiceIndex.Status.CERTIFIED));
+        return journal;
+    }
+
+    private void applyRecord(byte type, byte[] payload, long offset) throws IOException {
+        switch (type) {
+            case REC_PENDING_ADD: {
+                InvoiceData invoice = decodePending(payload);
+                InvoiceIndex.Entry existing = index.get(InvoiceIndex.Key.of(invoice));
+                if (existing == null || existing.status == InvoiceIndex.Status.PENDING) {
+                    index.put(pendingEntry(invoice, offset));
+                    retryStates.remove(InvoiceIndex.Key.of(invoice));
+                }
+                break;
+            }
+            case REC_PENDING_REMOVE:
+                try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+                    String machineNum = in.readUTF();
+                    InvoiceIndex.Key key = new InvoiceIndex.Key(machineNum, in.readUTF());
+                    InvoiceIndex.Entry entry = index.get(key);
+                    if (entry != null && entry.status == InvoiceIndex.Status.PENDING) {
+                        index.remove(key);
+                        retryStates.remove(key);
+                        createdIds.remove(key);
+                    }
+                }
+                break;
+            case REC_CERTIFIED_ADD: {
+                CertifiedInvoiceRecord record = decodeCertified(payload);
+                if (record != null && record.getInvoiceData() != null) {
+                    index.put(certifiedEntry(record.getInvoiceData(), offset));
+                    retryStates.remove(InvoiceIndex.Key.of(record.getInvoiceData()));
+                    exportedKeys.remove(InvoiceIndex.Key.of(record.getInvoiceData()));
+                    createdIds.remove(InvoiceIndex.Key.of(record.getInvoiceData()));
+                }
+                break;
+            }
+            case REC_PENDING_CLEAR:
+                index.removeAll(InvoiceIndex.Status.PENDING);
+                retryStates.clear();
+                createdIds.clear();
+                break;
+            case REC_CERTIFIED_CLEAR:
+                index.removeAll(InvoiceIndex.Status.CERTIFIED);
+                exportedKeys.clear();
+                break;
+            case REC_CERTIFIED_EXPORTED:
+                try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+                    String machineNum = in.readUTF();
+                    InvoiceIndex.Key key = new InvoiceIndex.Key(machineNum, in.readUTF());
+                    InvoiceIndex.Entry entry = index.get(key);
+                    if (entry != null && entry.status == InvoiceIndex.Status.CERTIFIED) {
+                        exportedKeys.add(key);
+                    }
+                }
+                break;
+            case REC_RETRY_STATE:
+                try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+                    String machineNum = in.readUTF();
+                    InvoiceIndex.Key key = new InvoiceIndex.Key(machineNum, in.readUTF());
+                    InvoiceIndex.Entry entry = index.get(key);
+                    int attempts = in.readInt();
+                    long nextAttemptAt = in.readLong();
+                    boolean permanent = in.readBoolean();
+                    String lastError = in.readUTF();
+                    if (entry != null && entry.status == InvoiceIndex.Status.PENDING) {
+                        retryStates.put(key, new InvoiceRetryScheduler.RetryState(
+                                attempts, nextAttemptAt, lastError, permanent));
+                    }
+                }
+                break;
+            case REC_PENDING_CREATED:
+                try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+                    String machineNum = in.readUTF();
+                    InvoiceIndex.Key key = new InvoiceIndex.Key(machineNum, in.readUTF());
+                    InvoiceIndex.Entry entry = index.get(key);
+                    String invoiceId = in.readUTF();
+                    if (entry != null && entry.status == InvoiceIndex.Status.PENDING) {
+                        createdIds.put(key, invoiceId);
+                    }
+                }
+                break;
+            default:
+                TRACE.w(TAG + ": Unknown journal record type: " + type);
+                break;
+        }
+    }
+
+    private static InvoiceIndex.Entry pendingEntry(InvoiceData invoice, long offset) {
+        return new InvoiceIndex.Entry(InvoiceIndex.Key.of(invoice), InvoiceIndex.Status.PENDING,
+                invoice.getIssueDate(), invoice.getTotalTtc(), offset, invoice);
+    }
+
+    private static InvoiceIndex.Entry certifiedEntry(InvoiceData invoice, long offset) {
+        return new InvoiceIndex.Entry(InvoiceIndex.Key.of(invoice), InvoiceIndex.Status.CERTIFIED,
+                invoice.getIssueDate(), invoice.getTotalTtc(), offset, null);
+    }
+
+    private List<CertifiedInvoiceRecord> readCertified(InvoiceJournal journal,
+                                                       List<InvoiceIndex.Entry> entries) throws IOException {
+        List<CertifiedInvoiceRecord> certified = new ArrayList<>(entries.size());
+        for (InvoiceIndex.Entry entry : entries) {
+            certified.add(readCertified(journal, entry));
+        }
+        return certified;
+    }
+
+    private CertifiedInvoiceRecord readCertified(InvoiceJournal journal, InvoiceIndex.Entry entry) throws IOException {
+        InvoiceJournal.Record record = journal.read(entry.offset);
+        return decodeCertified(record.payload);
+    }
+
+    private static byte[] encodeKey(InvoiceIndex.Key key) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(key.machineNum);
+            out.writeUTF(key.externalNum);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeCreated(InvoiceIndex.Key key, String invoiceId) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(key.machineNum);
+            out.writeUTF(key.externalNum);
+            out.writeUTF(invoiceId);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeRetryState(InvoiceIndex.Key key,
+                                           InvoiceRetryScheduler.RetryState state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(key.machineNum);
+            out.writeUTF(key.externalNum);
+            out.writeInt(state.getAttempts());
+            out.writeLong(state.getNextAttemptAt());
+            out.writeBoolean(state.isPermanent());
+            out.writeUTF(state.getLastError());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Importe les anciennes listes JSON des SharedPreferences dans un nouveau journal.
+     * Le journal est construit dans un fichier temporaire puis renommé, pour qu'un crash
+     * pendant la migration ne laisse jamais un import partiel.
+     */
+    private void migrateLegacyPreferences(File file) throws IOException {
+        String pendingJson = prefs.getString(KEY_PENDING_INVOICES, null);
+        String certifiedJson = prefs.getString(KEY_CERTIFIED_INVOICES, null);
+        if (pendingJson == null && certifiedJson == null) {
+            return;
+        }
+
+        List<InvoiceData> legacyPending = null;
+        List<CertifiedInvoiceRecord> legacyCertified = null;
+        try {
+            Type pendingType = new TypeToken<List<InvoiceData>>(){}.getType();
+            Type certifiedType = new TypeToken<List<CertifiedInvoiceRecord>>(){}.getType();
+            legacyPending = pendingJson != null ? gson.fromJson(pendingJson, pendingType) : null;
+            legacyCertified = certifiedJson != null ? gson.fromJson(certifiedJson, certifiedType) : null;
+        } catch (Exception e) {
+            TRACE.e(TAG + ": Legacy invoice lists are unreadable, skipping migration: " + e.getMessage());
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        if (tmp.exists() && !tmp.delete()) {
+            throw new IOException("Cannot delete stale journal: " + tmp);
+        }
+        try (InvoiceJournal migration = InvoiceJournal.open(tmp, (type, payload, offset) -> { })) {
+            if (legacyPending != null) {
+                for (InvoiceData invoice : legacyPending) {
+                    migration.append(REC_PENDING_ADD, InvoiceCodec.encodeInvoice(invoice));
+                }
+            }
+            if (legacyCertified != null) {
+                for (CertifiedInvoiceRecord record : legacyCertified) {
+                    migration.append(REC_CERTIFIED_ADD, InvoiceCodec.encodeCertified(record));
+                }
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot install migrated journal: " + file);
+        }
+        prefs.edit().remove(KEY_PENDING_INVOICES).remove(KEY_CERTIFIED_INVOICES).apply();
+
+        TRACE.i(TAG + ": Migrated " + (legacyPending != null ? legacyPending.size() : 0) + " pending and "
+                + (legacyCertified != null ? legacyCertified.size() : 0) + " certified invoice(s) to journal");
+    }
+
+    /**
+     * Décode une facture en attente. Les journaux écrits avant {@link InvoiceCodec}
+     * contiennent du JSON Gson, reconnaissable à son premier octet '{'.
+     */
+    private InvoiceData decodePending(byte[] payload) throws IOException {
+        if (isLegacyJson(payload)) {
+            return fromJsonBytes(payload, InvoiceData.class);
+        }
+        return InvoiceCodec.decodeInvoice(payload);
+    }
+
+    private CertifiedInvoiceRecord decodeCertified(byte[] payload) throws IOException {
+        if (isLegacyJson(payload)) {
+            return fromJsonBytes(payload, CertifiedInvoiceRecord.class);
+        }
+        return InvoiceCodec.decodeCertified(payload);
+    }
+
+    private static boolean isLegacyJson(byte[] payload) {
+        return payload.length > 0 && payload[0] == '{';
+    }
+
+    private <T> T fromJsonBytes(byte[] payload, Class<T> type) {
+        return gson.fromJson(new String(payload, StandardCharsets.UTF_8), type);
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
     /**
      * Classe pour représenter une facture certifiée
      */
@@ -298,9 +1430,13 @@ public class StorageManager {
         private long timestamp;
 
         public CertifiedInvoiceRecord(InvoiceData invoiceData, CertificationResponse response) {
+            this(invoiceData, response, System.currentTimeMillis());
+        }
+
+        CertifiedInvoiceRecord(InvoiceData invoiceData, CertificationResponse response, long timestamp) {
             this.invoiceData = invoiceData;
             this.response = response;
-            this.timestamp = System.currentTimeMillis();
+            this.timestamp = timestamp;
         }
 
         // Getters
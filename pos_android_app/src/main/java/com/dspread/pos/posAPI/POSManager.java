@@ -13,6 +13,10 @@ import android.widget.Toast;
 import androidx.core.app.ActivityCompat;
 
 import com.dspread.pos.common.enums.POS_TYPE;
+import com.dspread.pos.common.metrics.LatencyHistogram;
+import com.dspread.pos.common.metrics.Metrics;
+import com.dspread.pos.common.trace.Span;
+import com.dspread.pos.common.trace.Tracer;
 import com.dspread.pos.common.enums.TransCardMode;
 import com.dspread.pos.utils.DeviceUtils;
 import com.dspread.pos.utils.FileUtils;
@@ -32,6 +36,14 @@ import java.util.concurrent.TimeUnit;
 import me.goldze.mvvmhabit.utils.SPUtils;
 
 public class POSManager {
+    // Étapes d'une vente, mesurées depuis startTransaction
+    private static final LatencyHistogram TRADE_CARD_LATENCY = Metrics.getInstance().histogram("pos.trade.card");
+    private static final LatencyHistogram TRADE_ONLINE_LATENCY = Metrics.getInstance().histogram("pos.trade.online");
+    private static final LatencyHistogram TRADE_RESULT_LATENCY = Metrics.getInstance().histogram("pos.trade.result");
+    private static final Metrics.Counter TRADE_ERRORS = Metrics.getInstance().counter("pos.trade.errors");
+    // Callbacks de paiement : attente sur le thread principal, puis exécution
+    private static final LatencyHistogram CALLBACK_QUEUE_LATENCY = Metrics.getInstance().histogram("pos.callback.queue");
+    private static final LatencyHistogram CALLBACK_RUN_LATENCY = Metrics.getInstance().histogram("pos.callback.run");
     private static volatile POSManager instance;
     private QPOSService pos;
     private Context context;
@@ -44,6 +56,9 @@ public class POSManager {
     private PaymentResult paymentResult;
     private POS_TYPE posType;
     private boolean isICC;
+    private volatile long tradeStartNanos;
+    // Étape « lecture carte » de la vente en cours ; les callbacks du lecteur y sont marqués
+    private volatile Span tradeSpan = Span.NOOP;
 
     private POSManager(Context context) {
         this.context = context.getApplicationContext();
@@ -209,6 +224,8 @@ public class POSManager {
         int currencyCode = SPUtils.getInstance().getInt("currencyCode",156);
         pos.setCardTradeMode(getCardTradeMode());
         pos.setAmount(amount, "", String.valueOf(currencyCode), getTransType());
+        tradeStartNanos = System.nanoTime();
+        tradeSpan = Tracer.getInstance().startTrace("sale").startSpan("pos.trade").tag("amount", amount);
         pos.doTrade(60);
     }
 
@@ -368,7 +385,10 @@ public class POSManager {
     }
 
     private void notifyTransactionCallbacks(CallbackAction<PaymentServiceCallback> action) {
+        long postedNanos = System.nanoTime();
         mainHandler.post(() -> {
+            long runNanos = System.nanoTime();
+            CALLBACK_QUEUE_LATENCY.recordNanos(runNanos - postedNanos);
             for (PaymentServiceCallback callback : transactionCallbacks) {
                 try {
                     action.execute(callback);
@@ -376,9 +396,28 @@ public class POSManager {
                     TRACE.e("Error in transaction callback: " + e.getMessage());
                 }
             }
+            CALLBACK_RUN_LATENCY.recordSince(runNanos);
         });
     }
 
+    /**
+     * Échec du paiement : l'étape carte et la trace de la vente se terminent
+     */
+    private void failTrade(Object reason, String outcome) {
+        tradeSpan.fail(reason);
+        Tracer.getInstance().finishTrace(outcome);
+    }
+
+    /**
+     * Temps écoulé depuis le début de la vente en cours, si une vente a été lancée
+     */
+    private void recordTradeStage(LatencyHistogram histogram) {
+        long start = tradeStartNanos;
+        if (start != 0) {
+            histogram.recordSince(start);
+        }
+    }
+
     @FunctionalInterface
     private interface CallbackAction<T> {
         void execute(T callback) throws Exception;
@@ -414,6 +453,8 @@ public class POSManager {
 
         @Override
         public void onDoTradeResult(QPOSService.DoTradeResult result, Hashtable<String, String> decodeData) {
+            recordTradeStage(TRADE_CARD_LATENCY);
+            tradeSpan.mark("onDoTradeResult").tag("result", result);
             // Handle ICC card for EMV processing
             setICC(false);
             if (result == QPOSService.DoTradeResult.ICC) {
@@ -430,17 +471,22 @@ public class POSManager {
                 notifyTransactionCallbacks(cb -> cb.onTransactionCompleted(paymentResult));
             } else {
                 String msg = HandleTxnsResultUtils.getTradeResultMessage(result, context);
+                failTrade(result, "payment_failed");
                 notifyTransactionCallbacks(cb -> cb.onTransactionFailed(msg, null));
             }
         }
 
         @Override
         public void onRequestTransactionResult(QPOSService.TransactionResult transactionResult) {
+            recordTradeStage(TRADE_RESULT_LATENCY);
+            tradeSpan.mark("onRequestTransactionResult").tag("result", transactionResult);
             String msg = HandleTxnsResultUtils.getTransactionResultMessage(transactionResult, context);
             paymentResult.setStatus(msg);
             if (!msg.isEmpty()) {
+                failTrade(transactionResult, "payment_failed");
                 notifyTransactionCallbacks(cb -> cb.onTransactionFailed(msg,null));
             }else {
+                tradeSpan.end();
                 notifyTransactionCallbacks(cb -> cb.onTransactionResult(paymentResult));
             }
 
@@ -448,6 +494,7 @@ public class POSManager {
 
         @Override
         public void onRequestWaitingUser() {
+            tradeSpan.mark("onRequestWaitingUser");
             notifyTransactionCallbacks(cb -> cb.onRequestWaitingUser());
         }
 
@@ -458,33 +505,42 @@ public class POSManager {
 
         @Override
         public void onRequestSelectEmvApp(ArrayList<String> appList) {
+            tradeSpan.mark("onRequestSelectEmvApp");
             notifyTransactionCallbacks(cb -> cb.onRequestSelectEmvApp(appList));
         }
 
         @Override
         public void onRequestOnlineProcess(String tlv) {
+            recordTradeStage(TRADE_ONLINE_LATENCY);
+            tradeSpan.mark("onRequestOnlineProcess");
             notifyTransactionCallbacks(cb -> cb.onRequestOnlineProcess(tlv));
         }
 
         @Override
         public void onRequestBatchData(String tlv) {
+            tradeSpan.mark("onRequestBatchData");
+            tradeSpan.end();
             paymentResult.setTlv(tlv);
             notifyTransactionCallbacks(cb -> cb.onTransactionCompleted(paymentResult));
         }
 
         @Override
         public void onRequestSetPin(boolean isOfflinePin, int tryNum) {
+            tradeSpan.mark("onRequestSetPin").tag("offline", isOfflinePin);
             notifyTransactionCallbacks(cb -> cb.onRequestSetPin(isOfflinePin, tryNum));
         }
 
         @Override
         public void onRequestDisplay(QPOSService.Display displayMsg) {
             TRACE.i("parent onRequestDisplay");
+            tradeSpan.mark("onRequestDisplay").tag("message", displayMsg);
             notifyTransactionCallbacks(cb -> cb.onRequestDisplay(displayMsg));
         }
 
         @Override
         public void onError(QPOSService.Error errorState) {
+            TRADE_ERRORS.inc();
+            failTrade(errorState, "payment_failed");
             notifyTransactionCallbacks(cb -> cb.onTransactionFailed(errorState.name(), null));
         }
 
@@ -496,6 +552,7 @@ public class POSManager {
 
         @Override
         public void onEmvICCExceptionData(String tlv) {
+            failTrade("declined", "payment_failed");
             notifyTransactionCallbacks(cb -> cb.onTransactionFailed("Decline", tlv));
         }
 
@@ -506,6 +563,7 @@ public class POSManager {
 
         @Override
         public void onRequestSetPin() {
+            tradeSpan.mark("onRequestSetPin");
             notifyTransactionCallbacks(cb -> cb.onRequestSetPin());
         }
 
@@ -521,6 +579,7 @@ public class POSManager {
 
         @Override
         public void onTradeCancelled() {
+            failTrade("cancelled", "cancelled");
             notifyTransactionCallbacks(cb -> cb.onTransactionFailed("Cancel", null));
         }
     }
@@ -11,8 +11,16 @@ import androidx.annotation.NonNull;
 import me.goldze.mvvmhabit.base.BaseViewModel;
 import androidx.lifecycle.MutableLiveData;
 
+import com.dspread.pos.common.http.ApiException;
+import com.dspread.pos.common.http.ErrorCategory;
+import com.dspread.pos.common.trace.Span;
+import com.dspread.pos.common.trace.Trace;
+import com.dspread.pos.common.trace.Tracer;
 import com.dspread.pos.managers.ApiManager;
+import com.dspread.pos.managers.ConnectivityMonitor;
+import com.dspread.pos.managers.InvoiceSyncEngine;
 import com.dspread.pos.managers.PrinterManager;
+import com.dspread.pos.managers.RxApi;
 import com.dspread.pos.managers.StorageManager;
 import com.dspread.pos.models.InvoiceData;
 import com.dspread.pos.models.InvoiceLine;
@@ -20,15 +28,26 @@ import com.dspread.pos.models.CertificationResponse;
 import com.dspread.pos.models.InvoiceVerificationResponse;
 import com.dspread.pos.utils.TRACE;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
+import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.schedulers.Schedulers;
+
 /**
  * ViewModel pour la gestion des factures et certification DGI
  * Migré depuis InvoiceScreen.tsx de React Native
  */
 public class InvoiceViewModel extends BaseViewModel {
 
+    // Durée maximale de certification à la caisse (create → fiscalize)
+    private static final long CERTIFY_DEADLINE_MS = 15_000;
+    // Relance d'une coupure passagère avant la mise en file hors ligne
+    private static final int CERTIFY_RETRIES = 1;
+    private static final long CERTIFY_RETRY_DELAY_MS = 500;
+
     // LiveData pour les résultats de certification
     public MutableLiveData<CertificationResult> certificationResult = new MutableLiveData<>();
     
@@ -50,12 +69,31 @@ public class InvoiceViewModel extends BaseViewModel {
     private ApiManager apiManager;
     private PrinterManager printerManager;
     private StorageManager storageManager;
+    private InvoiceSyncEngine.SyncHandle syncHandle;
+    private InvoiceSyncEngine.Listener syncListener;
+    private ConnectivityMonitor connectivityMonitor;
+    private final ConnectivityMonitor.Listener connectivityListener = online -> isOnline.postValue(online);
+    private boolean keepAliveStarted;
     private Context context;
 
     public InvoiceViewModel(@NonNull Application application) {
         super(application);
         this.context = application.getApplicationContext();
         initializeManagers();
+
+        // Connexion DGI chaude dès l'ouverture de l'écran, tant qu'il reste actif
+        if (apiManager != null) {
+            apiManager.startKeepAlive();
+            keepAliveStarted = true;
+        }
+
+        try {
+            connectivityMonitor = ConnectivityMonitor.getInstance();
+            connectivityMonitor.addListener(connectivityListener);
+        } catch (IllegalStateException e) {
+            TRACE.i("InvoiceViewModel: ConnectivityMonitor not initialized, falling back to polling: " + e.getMessage());
+            connectivityMonitor = null;
+        }
     }
 
     private void initializeManagers() {
@@ -147,6 +185,12 @@ public class InvoiceViewModel extends BaseViewModel {
     }
 
     private void checkConnectivity() {
+        if (connectivityMonitor != null) {
+            // État maintenu par le callback réseau, pas d'interrogation synchrone
+            isOnline.postValue(connectivityMonitor.isOnline());
+            return;
+        }
+
         ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         if (cm == null) {
             isOnline.postValue(false);
@@ -208,11 +252,11 @@ public class InvoiceViewModel extends BaseViewModel {
         }
         
         try {
-            List<InvoiceData> pending = storageManager.getPendingInvoices();
+            int pendingCount = storageManager.getPendingCount();
             SyncStatus status = new SyncStatus(
-                pending.size() > 0,
-                pending.size() > 0 ? pending.size() + " invoice(s) pending" : "No pending invoices",
-                pending.size()
+                pendingCount > 0,
+                pendingCount > 0 ? pendingCount + " invoice(s) pending" : "No pending invoices",
+                pendingCount
             );
             syncStatus.postValue(status);
         } catch (Exception e) {
@@ -266,6 +310,9 @@ public class InvoiceViewModel extends BaseViewModel {
             return;
         }
         
+        // Trace de la vente : ouverte par le paiement carte, ou ici pour une vente sans carte
+        Trace trace = Tracer.getInstance().currentOrStart("sale");
+        
         // Re-check connectivity right before submitting (in case status changed)
         checkConnectivity();
         Boolean onlineStatus = isOnline.getValue();
@@ -277,76 +324,98 @@ public class InvoiceViewModel extends BaseViewModel {
             // Continue to try API call - if it fails, error handler will save offline
         }
 
-        // Submit to DGI API using complete certification flow
-        apiManager.certifyInvoice(invoiceData, new ApiManager.ApiCallback<InvoiceVerificationResponse>() {
-            @Override
-            public void onSuccess(InvoiceVerificationResponse response) {
-                isLoading.postValue(false);
-                
-                CertificationResult result = new CertificationResult(
-                    true,
-                    response.getStatus(),
-                    response.getMecefCode(),
-                    response.getQrCode(),
-                    response.getFiscalizationDate(),
-                    null
-                );
-                certificationResult.postValue(result);
-                
-                // Save the response
-                if (storageManager != null) {
-                    storageManager.saveCertifiedInvoice(invoiceData, response);
-                }
-                
-                // TOUJOURS imprimer après certification réussie (FISCALIZED)
-                String status = response.getStatus();
-                if ("FISCALIZED".equals(status)) {
-                    TRACE.i("InvoiceViewModel: Invoice certified successfully, starting print process");
-                    // Imprimer automatiquement après certification
-                    printInvoice(invoiceData, response);
-                } else {
-                    TRACE.w("InvoiceViewModel: Invoice status is " + status + ", not printing");
-                }
-            }
+        // Une facture déjà créée côté DGI (tentative précédente) reprend à fiscalize
+        String createdId = storageManager.getCreatedInvoiceId(invoiceData.getMachineNum(), invoiceData.getExternalNum());
+        final String[] createdInvoiceId = { createdId };
+
+        // Submit to DGI API: create → fiscalize → persist → print
+        // Au-delà de l'échéance, la facture passe en file hors ligne plutôt que de bloquer la caisse
+        long deadlineAt = System.currentTimeMillis() + CERTIFY_DEADLINE_MS;
+        addSubscribe(Single.defer(() -> apiManager.certifyInvoiceRx(invoiceData, createdInvoiceId[0],
+                        invoiceId -> createdInvoiceId[0] = invoiceId,
+                        Math.max(1, deadlineAt - System.currentTimeMillis()), trace))
+                // Une relance reprend à fiscalize si la facture a été créée entre-temps
+                .retryWhen(RxApi.retryTransient(CERTIFY_RETRIES, CERTIFY_RETRY_DELAY_MS, Schedulers.computation()))
+                // Écritures disque (et fsync) sur io : le thread principal ne fait que l'affichage et l'impression
+                .observeOn(Schedulers.io())
+                .doOnSuccess(response -> {
+                    Span persist = trace.startSpan("persist");
+                    try {
+                        storageManager.saveCertifiedInvoice(invoiceData, response);
+                        // Le reçu fiscal ne doit jamais sortir avant que la certification soit sur disque
+                        storageManager.flush();
+                    } finally {
+                        persist.end();
+                    }
+                })
+                .doOnError(error -> {
+                    // Serveur injoignable, lent ou circuit ouvert : la facture part en file hors ligne.
+                    // Rejets et données invalides n'y vont pas : le renvoi échouerait pareil
+                    if (categoryOf(error).isTransient()) {
+                        TRACE.i("InvoiceViewModel: Transient failure, saving invoice offline");
+                        // Créée mais pas fiscalisée : l'identifiant est écrit avec la facture,
+                        // la synchronisation reprendra à fiscalize
+                        saveInvoiceOffline(invoiceData, createdInvoiceId[0]);
+                    }
+                })
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(response -> onCertified(invoiceData, response, trace),
+                        error -> onCertificationFailed(error, trace)));
+    }
 
-            @Override
-            public void onError(String error) {
-                isLoading.postValue(false);
-                
-                TRACE.e("InvoiceViewModel: Certification error: " + error);
-                
-                // Check if it's a network error
-                boolean isNetworkError = error != null && (
-                    error.toLowerCase().contains("connection") ||
-                    error.toLowerCase().contains("network") ||
-                    error.toLowerCase().contains("timeout") ||
-                    error.toLowerCase().contains("unreachable") ||
-                    error.toLowerCase().contains("no internet")
-                );
-                
-                if (isNetworkError) {
-                    // Only save offline if it's actually a network error
-                    TRACE.i("InvoiceViewModel: Network error detected, saving invoice offline");
-                    saveInvoiceOffline(invoiceData);
-                    
-                    // Update connectivity status
-                    checkConnectivity();
-                }
-                
-                CertificationResult result = new CertificationResult(
-                    false,
-                    "ERROR",
-                    null,
-                    null,
-                    null,
-                    "Creation failed: " + error
-                );
-                certificationResult.postValue(result);
-            }
-        });
+    private static ErrorCategory categoryOf(Throwable error) {
+        return error instanceof ApiException ? ((ApiException) error).getCategory() : ErrorCategory.LOCAL;
     }
 
-    private void saveInvoiceOffline(InvoiceData invoiceData) {
+    private void onCertified(InvoiceData invoiceData, InvoiceVerificationResponse response, Trace trace) {
+        isLoading.setValue(false);
+
+        CertificationResult result = new CertificationResult(
+            true,
+            response.getStatus(),
+            response.getMecefCode(),
+            response.getQrCode(),
+            response.getFiscalizationDate(),
+            null
+        );
+        certificationResult.setValue(result);
+
+        // TOUJOURS imprimer après certification réussie (FISCALIZED)
+        String status = response.getStatus();
+        if ("FISCALIZED".equals(status)) {
+            TRACE.i("InvoiceViewModel: Invoice certified successfully, starting print process");
+            // Imprimer automatiquement après certification
+            printInvoice(invoiceData, response, trace);
+        } else {
+            TRACE.w("InvoiceViewModel: Invoice status is " + status + ", not printing");
+            Tracer.getInstance().finishTrace(trace, "not_fiscalized");
+        }
+    }
+
+    private void onCertificationFailed(Throwable error, Trace trace) {
+        isLoading.setValue(false);
+
+        ErrorCategory category = categoryOf(error);
+        TRACE.e("InvoiceViewModel: Certification error (" + category + "): " + error.getMessage());
+        Tracer.getInstance().finishTrace(trace, category.isTransient() ? "queued_offline" : "certification_failed");
+
+        // Facture mise en file hors ligne (voir submitInvoice) : update connectivity status
+        if (category.isTransient()) {
+            checkConnectivity();
+        }
+
+        CertificationResult result = new CertificationResult(
+            false,
+            "ERROR",
+            null,
+            null,
+            null,
+            error.getMessage()
+        );
+        certificationResult.setValue(result);
+    }
+
+    private void saveInvoiceOffline(InvoiceData invoiceData, String createdInvoiceId) {
         if (storageManager == null) {
             errorMessage.postValue("Storage not available. Cannot save invoice offline.");
             isLoading.postValue(false);
@@ -355,7 +424,7 @@ public class InvoiceViewModel extends BaseViewModel {
         }
         
         try {
-            storageManager.savePendingInvoice(invoiceData);
+            storageManager.savePendingInvoice(invoiceData, createdInvoiceId);
             loadPendingInvoices(); // Update status
             
             TRACE.i("InvoiceViewModel: Invoice saved offline");
@@ -366,16 +435,25 @@ public class InvoiceViewModel extends BaseViewModel {
     }
 
     public void printInvoice(InvoiceData invoiceData, CertificationResponse response) {
+        printInvoice(invoiceData, response, null);
+    }
+
+    /**
+     * Imprime le reçu ; {@code trace} est la vente à terminer avec l'impression (null pour une réimpression)
+     */
+    private void printInvoice(InvoiceData invoiceData, CertificationResponse response, Trace trace) {
         TRACE.i("InvoiceViewModel: Printing invoice with CertificationResponse");
         
         if (invoiceData == null) {
             TRACE.e("InvoiceViewModel: InvoiceData is null");
+            finishSale(trace, "print_failed");
             printResult.setValue(new PrintResult(false, "Invoice data is null"));
             return;
         }
         
         if (response == null) {
             TRACE.e("InvoiceViewModel: CertificationResponse is null");
+            finishSale(trace, "print_failed");
             printResult.setValue(new PrintResult(false, "Certification response is null"));
             return;
         }
@@ -386,6 +464,7 @@ public class InvoiceViewModel extends BaseViewModel {
                 printerManager = PrinterManager.getInstance();
             } catch (IllegalStateException e) {
                 TRACE.e("InvoiceViewModel: PrinterManager not initialized: " + e.getMessage());
+                finishSale(trace, "print_failed");
                 printResult.setValue(new PrintResult(false, "Printer service not available. Please restart the app."));
                 return;
             }
@@ -398,6 +477,8 @@ public class InvoiceViewModel extends BaseViewModel {
             @Override
             public void onSuccess() {
                 TRACE.i("InvoiceViewModel: Print completed successfully");
+                // Reçu sorti : fin de la vente
+                finishSale(trace, "printed");
                 PrintResult result = new PrintResult(true, null);
                 printResult.postValue(result);
             }
@@ -405,6 +486,7 @@ public class InvoiceViewModel extends BaseViewModel {
             @Override
             public void onError(String error) {
                 TRACE.e("InvoiceViewModel: Print failed: " + error);
+                finishSale(trace, "print_failed");
                 PrintResult result = new PrintResult(false, error != null ? error : "Unknown print error");
                 printResult.postValue(result);
             }
@@ -412,10 +494,15 @@ public class InvoiceViewModel extends BaseViewModel {
     }
 
     public void printInvoice(InvoiceData invoiceData, InvoiceVerificationResponse response) {
+        printInvoice(invoiceData, response, null);
+    }
+
+    private void printInvoice(InvoiceData invoiceData, InvoiceVerificationResponse response, Trace trace) {
         TRACE.i("InvoiceViewModel: Printing invoice from InvoiceVerificationResponse");
         
         if (response == null) {
             TRACE.e("InvoiceViewModel: InvoiceVerificationResponse is null");
+            finishSale(trace, "print_failed");
             printResult.setValue(new PrintResult(false, "Response data is null"));
             return;
         }
@@ -434,7 +521,13 @@ public class InvoiceViewModel extends BaseViewModel {
                ", MECEF: " + (certResponse.getMecefCode() != null ? certResponse.getMecefCode() : "null") +
                ", QR: " + (certResponse.getQrData() != null ? "present" : "null"));
         
-        printInvoice(invoiceData, certResponse);
+        printInvoice(invoiceData, certResponse, trace);
+    }
+
+    private static void finishSale(Trace trace, String outcome) {
+        if (trace != null) {
+            Tracer.getInstance().finishTrace(trace, outcome);
+        }
     }
 
     public void downloadAndPrintInvoice(InvoiceData invoiceData, InvoiceVerificationResponse verificationResponse) {
@@ -446,14 +539,14 @@ public class InvoiceViewModel extends BaseViewModel {
             return;
         }
         
-        // Download PDF first
-        apiManager.getInvoicePdf(verificationResponse.getInvoiceId(), new ApiManager.ApiCallback<byte[]>() {
+        // Download PDF first (streamed to the disk cache, reprints reuse it)
+        apiManager.downloadInvoicePdf(verificationResponse.getInvoiceId(), null, new ApiManager.ApiCallback<File>() {
             @Override
-            public void onSuccess(byte[] pdfData) {
-                TRACE.i("InvoiceViewModel: PDF downloaded successfully, size: " + pdfData.length + " bytes");
+            public void onSuccess(File pdfFile) {
+                TRACE.i("InvoiceViewModel: PDF ready, size: " + pdfFile.length() + " bytes");
                 
                 // Now print the invoice with PDF data
-                printInvoiceWithPdf(invoiceData, verificationResponse, pdfData);
+                printInvoiceWithPdf(invoiceData, verificationResponse, pdfFile);
             }
 
             @Override
@@ -465,7 +558,7 @@ public class InvoiceViewModel extends BaseViewModel {
         });
     }
 
-    private void printInvoiceWithPdf(InvoiceData invoiceData, InvoiceVerificationResponse verificationResponse, byte[] pdfData) {
+    private void printInvoiceWithPdf(InvoiceData invoiceData, InvoiceVerificationResponse verificationResponse, File pdfFile) {
         TRACE.i("InvoiceViewModel: Printing invoice with PDF data");
         
         if (printerManager == null) {
@@ -504,25 +597,54 @@ public class InvoiceViewModel extends BaseViewModel {
         
         TRACE.i("InvoiceViewModel: Syncing pending invoices");
         
-        storageManager.syncPendingInvoices(new StorageManager.SyncCallback() {
+        syncListener = new InvoiceSyncEngine.Listener() {
+            @Override
+            public void onProgress(InvoiceSyncEngine.Progress progress) {
+                int done = progress.getSucceeded() + progress.getFailed();
+                syncStatus.postValue(new SyncStatus(
+                    true,
+                    "Syncing " + done + "/" + progress.getTotal() + " invoice(s)",
+                    progress.getRemaining()
+                ));
+            }
+
             @Override
-            public void onSuccess(int syncedCount) {
+            public void onComplete(InvoiceSyncEngine.Progress progress) {
                 isLoading.postValue(false);
                 loadPendingInvoices(); // Update status
                 
+                int syncedCount = progress.getSucceeded();
                 if (syncedCount > 0) {
                     errorMessage.postValue(syncedCount + " invoice(s) synchronized successfully");
+                } else if (progress.getFailed() > 0) {
+                    errorMessage.postValue("Sync error: " + progress.getFailed() + " invoice(s) could not be synchronized");
                 } else {
                     errorMessage.postValue("No invoices to sync");
                 }
             }
+        };
+        syncHandle = storageManager.syncPendingInvoices(syncListener);
+    }
 
-            @Override
-            public void onError(String error) {
-                isLoading.postValue(false);
-                errorMessage.postValue("Sync error: " + error);
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        // Synchronisation lancée par cet écran : les pipelines en vol se terminent et sont
+        // enregistrés, aucune nouvelle facture n'est envoyée. Une synchronisation de fond
+        // suivie par l'écran continue sans lui.
+        if (syncHandle != null) {
+            if (storageManager.removeSyncListener(syncListener)) {
+                syncHandle.cancel();
             }
-        });
+            syncHandle = null;
+            syncListener = null;
+        }
+        if (connectivityMonitor != null) {
+            connectivityMonitor.removeListener(connectivityListener);
+        }
+        if (keepAliveStarted) {
+            apiManager.stopKeepAlive();
+        }
     }
 
     public void checkConnectivityAndSync() {
@@ -531,8 +653,7 @@ public class InvoiceViewModel extends BaseViewModel {
         // If online and there are pending invoices, suggest synchronization
         if (isOnline.getValue() && storageManager != null) {
             try {
-                List<InvoiceData> pending = storageManager.getPendingInvoices();
-                if (pending.size() > 0) {
+                if (storageManager.getPendingCount() > 0) {
                     // TODO: Show notification or button to sync
                 }
             } catch (Exception e) {
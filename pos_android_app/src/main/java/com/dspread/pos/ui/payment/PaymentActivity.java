@@ -457,7 +457,7 @@ public class PaymentActivity extends BaseActivity<ActivityPaymentBinding, Paymen
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        LogFileConfig.getInstance(this).readLog();
+        LogFileConfig.getInstance(this).readLogAsync();
         PrinterHelper.getInstance().close();
         POSManager.getInstance().unregisterCallbacks();
         if (systemKeyListener != null) {
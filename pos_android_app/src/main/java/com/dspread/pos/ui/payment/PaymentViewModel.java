@@ -19,6 +19,9 @@ import com.dspread.pos.common.base.BaseAppViewModel;
 import com.dspread.pos.common.http.RetrofitClient;
 import com.dspread.pos.common.http.api.RequestOnlineAuthAPI;
 import com.dspread.pos.common.http.model.AuthRequest;
+import com.dspread.pos.common.trace.Span;
+import com.dspread.pos.common.trace.Trace;
+import com.dspread.pos.common.trace.Tracer;
 import com.dspread.pos.posAPI.POSManager;
 import com.dspread.pos.printerAPI.PrinterHelper;
 import com.dspread.pos.utils.DeviceUtils;
@@ -257,12 +260,16 @@ public class PaymentViewModel extends BaseAppViewModel {
 
     public void requestOnlineAuth(boolean isICC, PaymentModel paymentModel) {
         AuthRequest authRequest = createAuthRequest(paymentModel);
-        addSubscribe(apiService.sendMessage(AUTHFROMISSUER_URL, authRequest)
+        Trace trace = Tracer.getInstance().current();
+        Span authSpan = Tracer.getInstance().startSpan("online.auth").tag("icc", isICC);
+        // Seul appel de la vente vers l'émetteur à porter l'identifiant de trace
+        addSubscribe(apiService.sendMessage(AUTHFROMISSUER_URL, authRequest, trace != null ? trace.getTraceId() : null)
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(response -> {
                     TRACE.i("online auth rsp code= " + response.getResult());
                     String onlineRspCode = (String) response.getResult();
+                    authSpan.tag("ok", response.isOk()).tag("rspCode", onlineRspCode).end();
                     if (response.isOk()) {
                         ToastUtils.showShort("Send online success");
                         if (isICC) {
@@ -280,6 +287,7 @@ public class PaymentViewModel extends BaseAppViewModel {
                         ToastUtils.showShort("Send online failed：" + response.getMessage());
                     }
                 }, throwable -> {
+                    authSpan.fail(throwable.getClass().getSimpleName());
                     if (isICC) {
                         POSManager.getInstance().sendOnlineProcessResult("8A023035");
                     } else {
@@ -0,0 +1,344 @@
+package com.dspread.pos.utils;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Écriture des logs fichier hors du thread appelant
+ *
+ * Les lignes passent par un tampon circulaire sans verrou (plusieurs producteurs,
+ * un consommateur) vers un thread d'écriture unique, qui garde le fichier ouvert
+ * et écrit les lignes par lots. L'horodatage est pris à l'appel et mis en forme
+ * par le thread d'écriture. Tampon plein : selon {@link OverflowPolicy}, la ligne
+ * est perdue (comptée, signalée dans le fichier) ou l'appelant attend de la place.
+ * Avec un {@link LogRotator}, le thread d'écriture archive aussi le fichier quand
+ * il devient trop gros ou trop vieux.
+ * Les événements {@link PosLog} sont encodés en JSON lignes par le thread d'écriture.
+ */
+public final class AsyncLogWriter {
+    private static final String TAG = "AsyncLogWriter";
+    // Attente du thread d'écriture quand le tampon est vide
+    private static final long IDLE_PARK_NANOS = 200_000_000L;
+    private static final long FULL_PARK_NANOS = 100_000L;
+    private static final int BATCH_BYTES = 64 * 1024;
+
+    public enum OverflowPolicy {
+        /** La ligne est perdue : le logging n'ajoute jamais d'attente à l'appelant */
+        DROP,
+        /** L'appelant attend qu'une place se libère */
+        BLOCK
+    }
+
+    private static final class Entry {
+        final long time;
+        final String message;
+        final PosLog.Event event;
+
+        Entry(long time, String message, PosLog.Event event) {
+            this.time = time;
+            this.message = message;
+            this.event = event;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> ring;
+    private final int mask;
+    // Prochaine place à réserver (producteurs) et prochaine place à lire (thread d'écriture)
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile OverflowPolicy policy;
+    private volatile File file;
+    private volatile boolean closed;
+    private volatile LogRotator rotator;
+    private final AtomicLong rotateRequests = new AtomicLong();
+    private volatile long rotationsDone;
+    private final Thread writer;
+
+    // Confinés au thread d'écriture
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+    private final StringBuilder batch = new StringBuilder();
+    private FileChannel channel;
+    private File openedFile;
+    private long fileBytes;
+    // Début du fichier actif selon le rotateur, 0 tant qu'il n'a pas été lu
+    private long startedAt;
+    private long reportedDrops;
+
+    /**
+     * @param capacity nombre de lignes en attente, arrondi à la puissance de 2 supérieure
+     */
+    public AsyncLogWriter(File file, int capacity, OverflowPolicy policy) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.file = file;
+        this.policy = policy;
+        this.writer = new Thread(this::drainLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    public void setOverflowPolicy(OverflowPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Change de fichier : les lignes encore en attente iront dans le nouveau
+     */
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Active la rotation du fichier (null pour la désactiver)
+     */
+    public void setRotator(LogRotator rotator) {
+        this.rotator = rotator;
+    }
+
+    /**
+     * Écrit les lignes en attente puis archive le fichier actif (avant envoi des logs)
+     *
+     * @return false si le délai a expiré avant
+     */
+    public boolean rotate(long timeoutMs) {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        if (!flush(timeoutMs)) {
+            return false;
+        }
+        long request = rotateRequests.incrementAndGet();
+        while (rotationsDone < request) {
+            if (System.nanoTime() > deadline || !writer.isAlive()) {
+                return false;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(1_000_000L);
+        }
+        return true;
+    }
+
+    /**
+     * Lignes perdues depuis le démarrage (tampon plein en mode DROP)
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Met la ligne en attente d'écriture, sans I/O sur le thread appelant
+     *
+     * @return false si la ligne a été perdue
+     */
+    public boolean write(String message) {
+        return enqueue(message, null);
+    }
+
+    /**
+     * Met l'événement en attente ; il sera écrit sur une ligne JSON
+     *
+     * @return false si l'événement a été perdu
+     */
+    public boolean write(PosLog.Event event) {
+        return enqueue(null, event);
+    }
+
+    private boolean enqueue(String message, PosLog.Event event) {
+        if (closed) {
+            return false;
+        }
+        Entry entry = new Entry(System.currentTimeMillis(), message, event);
+        int capacity = mask + 1;
+        while (true) {
+            long slot = tail.get();
+            if (slot - head >= capacity) {
+                if (policy == OverflowPolicy.DROP) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+                continue;
+            }
+            if (tail.compareAndSet(slot, slot + 1)) {
+                ring.lazySet((int) (slot & mask), entry);
+                if (slot - head >= capacity / 2) {
+                    // Réveil anticipé avant que le tampon ne déborde
+                    LockSupport.unpark(writer);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Attend que les lignes déjà écrites soient sur disque (avant lecture du fichier)
+     *
+     * @return false si le délai a expiré avant
+     */
+    public boolean flush(long timeoutMs) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        while (head < target) {
+            if (System.nanoTime() > deadline || !writer.isAlive()) {
+                return false;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(1_000_000L);
+        }
+        return true;
+    }
+
+    /**
+     * Écrit les lignes en attente puis arrête le thread d'écriture
+     */
+    public void close(long timeoutMs) {
+        flush(timeoutMs);
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        while (!closed || head < tail.get()) {
+            boolean wrote = drainBatch();
+            long requested = rotateRequests.get();
+            if (requested > rotationsDone) {
+                rotateActive();
+                rotationsDone = requested;
+            } else if (!wrote) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        closeChannel();
+    }
+
+    /**
+     * @return false si le tampon était vide
+     */
+    private boolean drainBatch() {
+        long lost = dropped.get() - reportedDrops;
+        if (lost > 0) {
+            reportedDrops += lost;
+            append(System.currentTimeMillis(), "[log] " + lost + " line(s) dropped, buffer full");
+        }
+        long next = head;
+        while (batch.length() < BATCH_BYTES) {
+            int index = (int) (next & mask);
+            Entry entry = ring.get(index);
+            if (entry == null) {
+                // Place libre, ou réservée mais pas encore publiée
+                break;
+            }
+            ring.lazySet(index, null);
+            if (entry.event != null) {
+                entry.event.appendJson(batch, dateFormat.format(new Date(entry.time)));
+                batch.append("\r\n");
+            } else {
+                append(entry.time, entry.message);
+            }
+            next++;
+            head = next;
+        }
+        if (batch.length() == 0) {
+            return false;
+        }
+        writeBatch();
+        return true;
+    }
+
+    private void append(long time, String message) {
+        batch.append(dateFormat.format(new Date(time))).append("--").append(message).append("\r\n");
+    }
+
+    private void writeBatch() {
+        try {
+            byte[] data = batch.toString().getBytes(StandardCharsets.UTF_8);
+            FileChannel target = channel();
+            LogRotator current = rotator;
+            if (current != null) {
+                long now = System.currentTimeMillis();
+                if (startedAt == 0) {
+                    startedAt = current.startedAt(openedFile, now);
+                }
+                if (current.isDue(fileBytes, data.length, startedAt, now)) {
+                    rotateActive();
+                    target = channel();
+                    startedAt = current.startedAt(openedFile, now);
+                }
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(data);
+            while (bytes.hasRemaining()) {
+                target.write(bytes);
+            }
+            fileBytes += data.length;
+        } catch (IOException e) {
+            // Le lot est perdu ; le fichier sera rouvert au prochain lot
+            Log.w(TAG, "Cannot write log batch: " + e.getMessage());
+            closeChannel();
+        } finally {
+            batch.setLength(0);
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        File current = file;
+        // Fichier supprimé (logs envoyés) ou remplacé : on le rouvre
+        if (channel == null || current != openedFile || !current.exists()) {
+            closeChannel();
+            File parent = current.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            channel = new FileOutputStream(current, true).getChannel();
+            openedFile = current;
+            fileBytes = channel.size();
+            startedAt = 0;
+        }
+        return channel;
+    }
+
+    private void rotateActive() {
+        LogRotator current = rotator;
+        File active = openedFile != null ? openedFile : file;
+        closeChannel();
+        if (current == null || active == null) {
+            return;
+        }
+        try {
+            current.archive(active);
+        } catch (IOException e) {
+            // Le fichier actif reste en place ; nouvel essai à la prochaine échéance
+            Log.w(TAG, "Cannot archive log file: " + e.getMessage());
+        }
+        // Repart de zéro pour la taille et l'âge, même si l'archivage a échoué
+        openedFile = null;
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+    }
+}
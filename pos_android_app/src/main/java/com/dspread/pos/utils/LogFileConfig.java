@@ -8,23 +8,21 @@ import android.os.Environment;
 import android.util.Log;
 
 import com.alibaba.fastjson.JSON;
+import com.dspread.pos.common.metrics.Metrics;
 import com.tencent.bugly.crashreport.BuglyLog;
 import com.tencent.bugly.crashreport.CrashReport;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import me.goldze.mvvmhabit.utils.SPUtils;
 
@@ -35,6 +33,26 @@ public class LogFileConfig {
     private String  PATH_DS_LOG= "/DSLogs/";
     private boolean writeFlag = true;
     private static Context mContext;
+    // Lignes en attente d'écriture ; au-delà, perdues (DROP) ou bloquantes (BLOCK)
+    private static final int LOG_BUFFER_LINES = 4096;
+    private static final long FLUSH_TIMEOUT_MS = 2000;
+    // Rotation : segment archivé (gzip) au-delà de 1 Mo ou 24 h, 8 Mo d'archives au plus
+    private static final String ARCHIVE_DIR = "DSLogs";
+    private static final long MAX_FILE_BYTES = 1024 * 1024;
+    private static final long MAX_FILE_AGE_MS = 24 * 60 * 60_000L;
+    private static final long MAX_ARCHIVE_BYTES = 8 * 1024 * 1024;
+    // Taille des morceaux envoyés à Bugly
+    private static final int UPLOAD_CHUNK_CHARS = 4096;
+    // Instantanés JSON des métriques, à côté des logs
+    private static final String METRICS_DIR = "metrics";
+    private LogRotator rotator;
+    private AsyncLogWriter writer;
+    // Envois vers Bugly, un à la fois, hors du thread principal
+    private final ExecutorService uploader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "log-upload");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private LogFileConfig() {
         LogFileInit(FILE_DS_LOG);
@@ -48,13 +66,32 @@ public class LogFileConfig {
         return writeFlag;
     }
 
+    /**
+     * Comportement quand le tampon des logs est plein (DROP par défaut)
+     */
+    public void setOverflowPolicy(AsyncLogWriter.OverflowPolicy policy) {
+        if (writer != null) {
+            writer.setOverflowPolicy(policy);
+        }
+    }
+
+    /**
+     * Attend que les logs en attente soient écrits dans le fichier
+     */
+    public void flush() {
+        if (writer != null) {
+            writer.flush(FLUSH_TIMEOUT_MS);
+        }
+    }
+
     private static class LogFileConfigHolder {
         private static LogFileConfig config = new LogFileConfig();
     }
 
 
     public static LogFileConfig getInstance(Context context) {
-        mContext = context;
+        // Contexte de l'application : l'envoi des logs survit à l'activité appelante
+        mContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
         return LogFileConfigHolder.config;
     }
 
@@ -72,114 +109,100 @@ public class LogFileConfig {
         }
 
         logFileWR = createMyFile(filename);
+        if (logFileWR == null) {
+            return;
+        }
+        if (writer == null) {
+            rotator = new LogRotator(new File(logFileWR.getParentFile(), ARCHIVE_DIR),
+                    MAX_FILE_BYTES, MAX_FILE_AGE_MS, MAX_ARCHIVE_BYTES);
+            writer = new AsyncLogWriter(logFileWR, LOG_BUFFER_LINES, AsyncLogWriter.OverflowPolicy.DROP);
+            writer.setRotator(rotator);
+        } else {
+            writer.setFile(logFileWR);
+        }
     }
 
     public void writeLog(String str) {
         if (!writeFlag) {
             return;
         }
-        if (logFileWR == null) {
+        if (logFileWR == null || writer == null) {
             LogFileInit(FILE_DS_LOG);
             return;
         }
-        try {
-            Date date = new Date();
-            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            String logDate = format.format(date);
-
-            str += "\r\n";
-            str = logDate + "--" + str;
-            DataOutputStream d = new DataOutputStream(new FileOutputStream(logFileWR, true));
-            d.write(str.getBytes());
-            d.flush();
-            d.close();
-            // Upload logs to Bugly
-//            CrashReport.postCatchedException(new Exception(str));
-        } catch (Exception e) {
-//            e.printStackTrace();
+        // Horodatage et écriture sur le thread des logs : aucune I/O ici
+        writer.write(str);
+    }
+
+    /**
+     * Met un événement structuré en attente d'écriture (une ligne JSON)
+     */
+    void writeEvent(PosLog.Event event) {
+        if (!writeFlag || writer == null) {
+            return;
         }
+        writer.write(event);
     }
 
-    public String readLog(){
-        InputStream inputStream = null;
-        Reader reader = null;
-        BufferedReader bufferedReader = null;
-        try {
+    /**
+     * {@link #readLog()} sur le thread d'envoi, sans attendre le résultat
+     * (rotation, gzip et lecture des segments ne bloquent pas l'appelant)
+     */
+    public void readLogAsync() {
+        uploader.execute(this::readLog);
+    }
 
-            File file= logFileWR;
-            inputStream = new FileInputStream(file);
-            reader = new InputStreamReader(inputStream);
-            bufferedReader = new BufferedReader(reader);
-            StringBuilder result = new StringBuilder();
-            String temp;
-            while ((temp = bufferedReader.readLine()) != null) {
-                result.append(temp);
-            }
+    /**
+     * Envoie les logs à Bugly puis les supprime (bloquant, pas sur le thread principal)
+     *
+     * Le fichier actif est d'abord archivé ; chaque segment est ensuite relu par
+     * morceaux de {@link #UPLOAD_CHUNK_CHARS} caractères, sans charger un fichier
+     * entier en mémoire. Le résumé des métriques est ajouté aux logs envoyés et
+     * un instantané JSON est gardé dans {@link #METRICS_DIR}.
+     *
+     * @return true si tous les segments ont été envoyés
+     */
+    public boolean readLog(){
+        if (writer == null || rotator == null) {
+            return false;
+        }
+        Metrics metrics = Metrics.getInstance();
+        writeLog(metrics.report());
+        try {
+            metrics.export(new File(logFileWR.getParentFile(), METRICS_DIR));
+        } catch (IOException e) {
+            Log.w("pos", "Cannot export metrics: " + e.getMessage());
+        }
+        writer.rotate(FLUSH_TIMEOUT_MS);
+        List<File> segments = rotator.segments();
+        if (segments.isEmpty()) {
+            return true;
+        }
 
-//            int maxLength = 512; // Bugly has a limit on the length of each data segment
-//            int segments = (result.length() + maxLength - 1) / maxLength;
-//
-//            for (int i = 0; i < segments; i++) {
-//                int start = i * maxLength;
-//                int end = Math.min((i + 1) * maxLength, result.length());
-//                String segment = result.substring(start, end);
-//
-//                // Upload log fragments
-//                Map<String, String> map = new HashMap<>();
-//                map.put("logFileName", file.getName());
-//                map.put("segmentIndex", String.valueOf(i));
-//                map.put("totalSegments", String.valueOf(segments));
-//                map.put("logContent", segment);
-//
-////                CrashReport.putUserData(mContext,
-////                        "customLog_" + SPUtils.getInstance().getString("posID")+"_"+file.getName() + "_" + i,
-////                        JSON.toJSONString(map));
-//            }
-            BuglyLog.e(
-                    file.getName(),
-                    result.toString());
-            CrashReport.putUserData(mContext,"POSID", SPUtils.getInstance().getString("posID"));
-
-            // 2. 设置日志文件路径（Bugly会在崩溃时自动上传）
-            // Set scene labels when payment
-            CrashReport.setUserSceneTag(mContext, 90001);
-            String uniqueID = java.util.UUID.randomUUID().toString() + "_"+ file.getName() + "_" + System.currentTimeMillis();
-            TRACE.i( "uniqueID:" + uniqueID);
-            CrashReport.putUserData(mContext, "log_uuid", uniqueID);
-            // Trigger upload
-            CrashReport.postCatchedException(
-                        new BuglyCustomLogException("CustomLog: " +uniqueID));
-            //  info 级别日志，Bugly 控制台能看到独立的日志记录
-            TRACE.i( "result:" + result);
-            deleteDir(file);
-            return result.toString();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        boolean complete = true;
+        for (File segment : segments) {
+            int[] index = { 0 };
+            try {
+                LogRotator.readChunks(segment, UPLOAD_CHUNK_CHARS,
+                        chunk -> BuglyLog.e(segment.getName() + "#" + index[0]++, chunk));
+                deleteDir(segment);
+            } catch (IOException e) {
+                // Segment gardé pour le prochain envoi
+                Log.w("pos", "Cannot read log segment " + segment.getName() + ": " + e.getMessage());
+                complete = false;
             }
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (bufferedReader != null) {
-                try {
-                    bufferedReader.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-
         }
-        return null;
+
+        CrashReport.putUserData(mContext,"POSID", SPUtils.getInstance().getString("posID"));
+        // Set scene labels when payment
+        CrashReport.setUserSceneTag(mContext, 90001);
+        String uniqueID = java.util.UUID.randomUUID().toString() + "_" + segments.size() + "_segments_" + System.currentTimeMillis();
+        TRACE.i( "uniqueID:" + uniqueID);
+        CrashReport.putUserData(mContext, "log_uuid", uniqueID);
+        // Trigger upload
+        CrashReport.postCatchedException(
+                    new BuglyCustomLogException("CustomLog: " +uniqueID));
+        return complete;
     }
 
     private File createMyFile(String fileName) {
@@ -0,0 +1,198 @@
+package com.dspread.pos.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Rotation du fichier de logs par taille et par âge
+ *
+ * Le fichier actif est compressé (gzip) en segment d'archive puis recommencé à
+ * vide. Au-delà de {@code maxArchiveBytes}, les segments les plus anciens sont
+ * supprimés. Les segments se relisent par morceaux ({@link #readChunks}) sans
+ * charger un fichier entier en mémoire.
+ */
+public final class LogRotator {
+    private static final String SUFFIX = ".txt.gz";
+    // Repère de début du fichier actif, à côté des segments
+    private static final String START_SUFFIX = ".start";
+
+    /**
+     * Reçoit un segment de logs morceau par morceau
+     */
+    public interface ChunkConsumer {
+        void accept(String chunk) throws IOException;
+    }
+
+    private final File archiveDir;
+    private final long maxFileBytes;
+    private final long maxAgeMs;
+    private final long maxArchiveBytes;
+    private final SimpleDateFormat stampFormat = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.US);
+
+    public LogRotator(File archiveDir, long maxFileBytes, long maxAgeMs, long maxArchiveBytes) {
+        this.archiveDir = archiveDir;
+        this.maxFileBytes = maxFileBytes;
+        this.maxAgeMs = maxAgeMs;
+        this.maxArchiveBytes = maxArchiveBytes;
+    }
+
+    /**
+     * Vrai si le fichier actif doit être archivé avant d'y écrire {@code pendingBytes}
+     */
+    boolean isDue(long fileBytes, long pendingBytes, long startedAt, long now) {
+        if (fileBytes == 0) {
+            return false;
+        }
+        return fileBytes + pendingBytes > maxFileBytes || now - startedAt >= maxAgeMs;
+    }
+
+    /**
+     * Heure de la première ligne du fichier actif, conservée d'une ouverture et d'un
+     * redémarrage à l'autre : l'âge ne repart pas de zéro à chaque réouverture
+     *
+     * Fichier vide : l'âge part de {@code now}. Fichier déjà rempli sans repère
+     * (version précédente) : sa date de modification.
+     */
+    synchronized long startedAt(File active, long now) {
+        File stamp = startStamp(active);
+        if (active.length() > 0) {
+            Long recorded = readStamp(stamp);
+            if (recorded != null) {
+                return recorded;
+            }
+        }
+        long startedAt = active.length() > 0 ? Math.min(active.lastModified(), now) : now;
+        if (!archiveDir.exists()) {
+            archiveDir.mkdirs();
+        }
+        try (OutputStream out = new FileOutputStream(stamp)) {
+            out.write(String.valueOf(startedAt).getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException ignored) {
+            // Sans repère, l'âge sera recalculé à la prochaine ouverture
+        }
+        return startedAt;
+    }
+
+    /**
+     * Compresse le fichier actif en segment d'archive puis le supprime
+     *
+     * @return le segment créé, ou null si le fichier est vide ou absent
+     */
+    synchronized File archive(File active) throws IOException {
+        if (!active.isFile() || active.length() == 0) {
+            return null;
+        }
+        if (!archiveDir.exists() && !archiveDir.mkdirs()) {
+            throw new IOException("Cannot create log archive directory: " + archiveDir);
+        }
+        String base = active.getName().replaceAll("\\.txt$", "");
+        File segment = new File(archiveDir, base + "_" + stampFormat.format(new Date()) + SUFFIX);
+        File tmp = new File(segment.getPath() + ".tmp");
+        byte[] buffer = new byte[8192];
+        try (InputStream in = new FileInputStream(active);
+             OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), buffer.length)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        if (!tmp.renameTo(segment)) {
+            tmp.delete();
+            throw new IOException("Cannot install log segment: " + segment);
+        }
+        active.delete();
+        startStamp(active).delete();
+        trim();
+        return segment;
+    }
+
+    /**
+     * Segments d'archive, du plus ancien au plus récent
+     */
+    public synchronized List<File> segments() {
+        File[] files = archiveDir.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files, (a, b) -> {
+            int byTime = Long.compare(a.lastModified(), b.lastModified());
+            return byTime != 0 ? byTime : a.getName().compareTo(b.getName());
+        });
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    /**
+     * Relit un segment décompressé, par morceaux d'au plus {@code chunkChars} caractères
+     */
+    public static void readChunks(File segment, int chunkChars, ChunkConsumer consumer) throws IOException {
+        try (Reader reader = new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(segment)), StandardCharsets.UTF_8)) {
+            char[] chunk = new char[chunkChars];
+            int filled = 0;
+            int read;
+            while ((read = reader.read(chunk, filled, chunk.length - filled)) != -1) {
+                filled += read;
+                if (filled == chunk.length) {
+                    consumer.accept(new String(chunk, 0, filled));
+                    filled = 0;
+                }
+            }
+            if (filled > 0) {
+                consumer.accept(new String(chunk, 0, filled));
+            }
+        }
+    }
+
+    private File startStamp(File active) {
+        return new File(archiveDir, active.getName() + START_SUFFIX);
+    }
+
+    private static Long readStamp(File stamp) {
+        if (!stamp.isFile()) {
+            return null;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(stamp), StandardCharsets.US_ASCII)) {
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[32];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, read);
+            }
+            return Long.parseLong(text.toString().trim());
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    void trim() {
+        List<File> files = segments();
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        for (File file : files) {
+            if (total <= maxArchiveBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+}
@@ -1,16 +1,19 @@
 package com.dspread.pos.utils;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import com.dspread.pos.common.http.HttpTransport;
+
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
 /**
- * HTTP request utility class implemented using Java standard library, no external dependencies
+ * HTTP request utility class, requests go through the shared {@link HttpTransport}
  */
 
 
@@ -25,10 +28,7 @@ public class OnlineRequestFromAWS {
     private static final String FUNCTION_URL = "https://ypparbjfugzgwijijfnb.supabase.co/functions/v1/dukpt-decrypt";
     private static final String EXPORT_FUNCTION_URL = "https://ypparbjfugzgwijijfnb.supabase.co/functions/v1/export-tr31";
     
-    // Set connection timeout (milliseconds)
-    private static final int CONNECT_TIMEOUT = 30000;
-    // Set read timeout (milliseconds)
-    private static final int READ_TIMEOUT = 30000;
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
 
     // Simple JSON building utility method
     private static String buildJsonString(Map<String, String> simpleFields, Map<String, Map<String, String>> nestedObjects) {
@@ -86,41 +86,17 @@ public class OnlineRequestFromAWS {
                    .replace("\t", "\\t");
     }
     
-    // Generic method to send HTTP POST request
+    // Generic method to send HTTP POST request (timeouts: see HttpTransport)
     private static String sendPostRequest(String urlString, String jsonBody) throws IOException {
-        URL url = new URL(urlString);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        
-        try {
-            // Set connection properties
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-            connection.setDoOutput(true);
-            connection.setConnectTimeout(CONNECT_TIMEOUT);
-            connection.setReadTimeout(READ_TIMEOUT);
-            
-            // Write request body
-        try (DataOutputStream wr = new DataOutputStream(connection.getOutputStream())) {
-                wr.writeBytes(jsonBody);
-                wr.flush();
-            }
-            
-            // Read response
-        StringBuilder response = new StringBuilder();
-            int responseCode = connection.getResponseCode();
-            
-            try (BufferedReader in = new BufferedReader(
-                    new InputStreamReader(responseCode >= 400 ? 
-                            connection.getErrorStream() : connection.getInputStream()))) {
-                String inputLine;
-                while ((inputLine = in.readLine()) != null) {
-                    response.append(inputLine);
-                }
-            }
-            
-            return response.toString();
-        } finally {
-            connection.disconnect();
+        Request request = new Request.Builder()
+                .url(urlString)
+                .post(RequestBody.create(jsonBody, JSON))
+                .build();
+
+        // Error responses (>= 400) are returned as-is, like the success body
+        try (Response response = HttpTransport.client().newCall(request).execute()) {
+            ResponseBody body = response.body();
+            return body != null ? body.string() : "";
         }
     }
     
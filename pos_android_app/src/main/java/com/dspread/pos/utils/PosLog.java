@@ -0,0 +1,272 @@
+package com.dspread.pos.utils;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Logs structurés : niveau, message paramétré et champs clé-valeur
+ *
+ * Le niveau est comparé au seuil ({@link #setLevel}) avant toute mise en forme :
+ * sous le seuil, un appel ne construit ni chaîne ni événement. Les messages
+ * prennent des paramètres {@code {}} ou un {@link Supplier} ; {@link #at(Level)}
+ * ajoute des champs. Sortie : logcat en texte, fichier de logs en JSON lignes
+ * (encodé par le thread d'écriture, voir {@link AsyncLogWriter}).
+ *
+ * <pre>
+ * private static final PosLog LOG = PosLog.get(TAG);
+ * LOG.i("Invoice created - ID: {}", id);
+ * LOG.at(PosLog.Level.INFO).kv("externalNum", num).kv("ttc", ttc).log("Creating invoice");
+ * </pre>
+ */
+public final class PosLog {
+    private static final String APP_TAG = "POS_LOG";
+
+    public enum Level {
+        VERBOSE(Log.VERBOSE, "V"), DEBUG(Log.DEBUG, "D"), INFO(Log.INFO, "I"), WARN(Log.WARN, "W"), ERROR(Log.ERROR, "E");
+
+        final int priority;
+        final String code;
+
+        Level(int priority, String code) {
+            this.priority = priority;
+            this.code = code;
+        }
+    }
+
+    // Seuil lu à chaque appel : un champ volatile, pas de verrou
+    private static volatile int threshold = Level.VERBOSE.ordinal();
+    private static volatile LogFileConfig fileSink;
+
+    private final String tag;
+    private final Event noop;
+
+    private PosLog(String tag) {
+        this.tag = tag;
+        this.noop = new Event(null, tag, false);
+    }
+
+    public static PosLog get(String tag) {
+        return new PosLog(tag);
+    }
+
+    /**
+     * Niveau minimal écrit (VERBOSE par défaut) ; en dessous, les appels ne coûtent qu'une comparaison
+     */
+    public static void setLevel(Level level) {
+        threshold = level.ordinal();
+    }
+
+    public static Level getLevel() {
+        return Level.values()[threshold];
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    /**
+     * Fichier de logs des événements (null : logcat seulement)
+     */
+    static void setFileSink(LogFileConfig sink) {
+        fileSink = sink;
+    }
+
+    public void v(String message) { if (isEnabled(Level.VERBOSE)) emit(Level.VERBOSE, message, null); }
+    public void v(String template, Object arg) { if (isEnabled(Level.VERBOSE)) emit(Level.VERBOSE, format(template, arg), null); }
+    public void v(Supplier<String> message) { if (isEnabled(Level.VERBOSE)) emit(Level.VERBOSE, message.get(), null); }
+
+    public void d(String message) { if (isEnabled(Level.DEBUG)) emit(Level.DEBUG, message, null); }
+    public void d(String template, Object arg) { if (isEnabled(Level.DEBUG)) emit(Level.DEBUG, format(template, arg), null); }
+    public void d(String template, Object arg1, Object arg2) { if (isEnabled(Level.DEBUG)) emit(Level.DEBUG, format(template, arg1, arg2), null); }
+    public void d(Supplier<String> message) { if (isEnabled(Level.DEBUG)) emit(Level.DEBUG, message.get(), null); }
+
+    public void i(String message) { if (isEnabled(Level.INFO)) emit(Level.INFO, message, null); }
+    public void i(String template, Object arg) { if (isEnabled(Level.INFO)) emit(Level.INFO, format(template, arg), null); }
+    public void i(String template, Object arg1, Object arg2) { if (isEnabled(Level.INFO)) emit(Level.INFO, format(template, arg1, arg2), null); }
+    public void i(Supplier<String> message) { if (isEnabled(Level.INFO)) emit(Level.INFO, message.get(), null); }
+
+    public void w(String message) { if (isEnabled(Level.WARN)) emit(Level.WARN, message, null); }
+    public void w(String template, Object arg) { if (isEnabled(Level.WARN)) emit(Level.WARN, format(template, arg), null); }
+    public void w(String template, Object arg1, Object arg2) { if (isEnabled(Level.WARN)) emit(Level.WARN, format(template, arg1, arg2), null); }
+
+    public void e(String message) { if (isEnabled(Level.ERROR)) emit(Level.ERROR, message, null); }
+    public void e(String template, Object arg) { if (isEnabled(Level.ERROR)) emit(Level.ERROR, format(template, arg), null); }
+    public void e(String template, Object arg1, Object arg2) { if (isEnabled(Level.ERROR)) emit(Level.ERROR, format(template, arg1, arg2), null); }
+    public void e(String message, Throwable error) { if (isEnabled(Level.ERROR)) emit(Level.ERROR, message, error); }
+
+    /**
+     * Événement avec champs, terminé par {@link Event#log} ; sous le seuil, un
+     * événement inerte partagé (aucune allocation)
+     */
+    public Event at(Level level) {
+        return isEnabled(level) ? new Event(level, tag, true) : noop;
+    }
+
+    private void emit(Level level, String message, Throwable error) {
+        Event event = new Event(level, tag, true);
+        if (error != null) {
+            event.kv("error", error.toString());
+        }
+        event.log(message);
+    }
+
+    /**
+     * Remplace chaque {@code {}} par le paramètre suivant ; les paramètres en trop sont ignorés
+     */
+    static String format(String template, Object... args) {
+        if (template == null || args.length == 0) {
+            return template;
+        }
+        StringBuilder out = new StringBuilder(template.length() + 16 * args.length);
+        int from = 0;
+        int next = 0;
+        int at;
+        while (next < args.length && (at = template.indexOf("{}", from)) >= 0) {
+            out.append(template, from, at).append(args[next++]);
+            from = at + 2;
+        }
+        return out.append(template, from, template.length()).toString();
+    }
+
+    /**
+     * Message et champs d'un log ; à usage unique, figé une fois passé à {@link #log}
+     */
+    public static final class Event {
+        private final Level level;
+        private final String tag;
+        private final boolean enabled;
+        private String message;
+        // Clés et valeurs alternées ; valeurs String, Long, Double ou Boolean
+        private Object[] fields;
+        private int fieldCount;
+
+        Event(Level level, String tag, boolean enabled) {
+            this.level = level;
+            this.tag = tag;
+            this.enabled = enabled;
+        }
+
+        public Event kv(String key, String value) {
+            return enabled ? put(key, value) : this;
+        }
+
+        public Event kv(String key, long value) {
+            return enabled ? put(key, value) : this;
+        }
+
+        public Event kv(String key, double value) {
+            return enabled ? put(key, value) : this;
+        }
+
+        public Event kv(String key, boolean value) {
+            return enabled ? put(key, value) : this;
+        }
+
+        /**
+         * Valeur mise en texte tout de suite : l'objet peut changer après l'appel
+         */
+        public Event kv(String key, Object value) {
+            return enabled ? put(key, value == null ? null : String.valueOf(value)) : this;
+        }
+
+        public void log(String message) {
+            if (!enabled) {
+                return;
+            }
+            this.message = message;
+            Log.println(level.priority, APP_TAG, toText());
+            LogFileConfig sink = fileSink;
+            if (sink != null) {
+                sink.writeEvent(this);
+            }
+        }
+
+        public void log(String template, Object arg) {
+            if (enabled) {
+                log(format(template, arg));
+            }
+        }
+
+        public void log(String template, Object arg1, Object arg2) {
+            if (enabled) {
+                log(format(template, arg1, arg2));
+            }
+        }
+
+        private Event put(String key, Object value) {
+            if (fields == null) {
+                fields = new Object[8];
+            } else if (fieldCount == fields.length) {
+                fields = Arrays.copyOf(fields, fields.length * 2);
+            }
+            fields[fieldCount++] = key;
+            fields[fieldCount++] = value;
+            return this;
+        }
+
+        /**
+         * Forme logcat : {@code Tag: message key=value key=value}
+         */
+        String toText() {
+            StringBuilder out = new StringBuilder(tag).append(": ").append(message);
+            for (int i = 0; i < fieldCount; i += 2) {
+                out.append(' ').append(fields[i]).append('=').append(fields[i + 1]);
+            }
+            return out.toString();
+        }
+
+        /**
+         * Ligne JSON sans retour à la ligne : {@code {"ts":..,"lvl":..,"tag":..,"msg":..,champs}}
+         */
+        void appendJson(StringBuilder out, String timestamp) {
+            out.append("{\"ts\":\"").append(timestamp)
+                    .append("\",\"lvl\":\"").append(level.code).append("\",\"tag\":");
+            appendString(out, tag);
+            out.append(",\"msg\":");
+            appendString(out, message);
+            for (int i = 0; i < fieldCount; i += 2) {
+                out.append(',');
+                appendString(out, (String) fields[i]);
+                out.append(':');
+                Object value = fields[i + 1];
+                if (value instanceof String) {
+                    appendString(out, (String) value);
+                } else if (value instanceof Double && !Double.isFinite((Double) value)) {
+                    // NaN et infinis n'existent pas en JSON
+                    appendString(out, value.toString());
+                } else {
+                    // null, Long, Double fini ou Boolean : littéraux JSON
+                    out.append(value);
+                }
+            }
+            out.append('}');
+        }
+
+        private static void appendString(StringBuilder out, String value) {
+            if (value == null) {
+                out.append("null");
+                return;
+            }
+            out.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"': out.append("\\\""); break;
+                    case '\\': out.append("\\\\"); break;
+                    case '\n': out.append("\\n"); break;
+                    case '\r': out.append("\\r"); break;
+                    case '\t': out.append("\\t"); break;
+                    default:
+                        if (c < 0x20) {
+                            out.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            out.append(c);
+                        }
+                }
+            }
+            out.append('"');
+        }
+    }
+}
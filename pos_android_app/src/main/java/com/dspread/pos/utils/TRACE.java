@@ -20,10 +20,11 @@ public class TRACE implements Logger {
     public static void setContext(Context context){
         mContext = context;
         logFileConfig = LogFileConfig.getInstance(context);
+        PosLog.setFileSink(logFileConfig);
     }
 
     public static void v(String string) {
-        if (isTesting) {
+        if (isTesting && PosLog.isEnabled(PosLog.Level.VERBOSE)) {
             Log.v(AppName, string);
 //            Sentry.captureMessage(string);
             if(logFileConfig != null){
@@ -34,7 +35,7 @@ public class TRACE implements Logger {
     }
 
     public static void i(String string) {
-        if (isTesting) {
+        if (isTesting && PosLog.isEnabled(PosLog.Level.INFO)) {
             Log.i(AppName, string);
 //            Sentry.captureMessage(string);
             if(logFileConfig != null){
@@ -45,7 +46,7 @@ public class TRACE implements Logger {
     }
 
     public static void w(String string) {
-        if (isTesting) {
+        if (isTesting && PosLog.isEnabled(PosLog.Level.WARN)) {
             Log.w(AppName, string);
 //            Sentry.captureMessage(string);
             if(logFileConfig != null){
@@ -56,7 +57,7 @@ public class TRACE implements Logger {
     }
 
     public static void e(Exception exception) {
-        if (isTesting) {
+        if (isTesting && PosLog.isEnabled(PosLog.Level.ERROR)) {
             Log.e(AppName, exception.toString());
             if(logFileConfig != null){
                 logFileConfig.writeLog(exception.toString());
@@ -65,7 +66,7 @@ public class TRACE implements Logger {
     }
 
     public static void e(String exception) {
-        if (isTesting) {
+        if (isTesting && PosLog.isEnabled(PosLog.Level.ERROR)) {
             Log.e(AppName, exception);
             if(logFileConfig != null){
                 logFileConfig.writeLog(exception);
@@ -74,7 +75,7 @@ public class TRACE implements Logger {
     }
 
     public static void d(String string) {
-        if (isTesting) {
+        if (isTesting && PosLog.isEnabled(PosLog.Level.DEBUG)) {
             Log.d(AppName, string);
 //            String posID = BaseApplication.getmPosID();
 //            User user = new User();
@@ -88,7 +89,7 @@ public class TRACE implements Logger {
     }
 
     public static void a(int num) {
-        if (isTesting) {
+        if (isTesting && PosLog.isEnabled(PosLog.Level.DEBUG)) {
             Log.d(AppName, Integer.toString(num));
             if(logFileConfig != null){
                 logFileConfig.writeLog(String.valueOf(num));
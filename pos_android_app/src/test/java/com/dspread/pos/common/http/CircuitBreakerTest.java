@@ -0,0 +1,108 @@
+package com.dspread.pos.common.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.Request;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Disjoncteur : ouverture sur taux d'échec, refus immédiat, sonde semi-ouverte
+ */
+public class CircuitBreakerTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void testOpensOnFailureRateAndProbesAfterDelay() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("dgi", 4, 0.5, 100);
+        breaker.record(null);
+        breaker.record(ErrorCategory.REJECTED);
+        breaker.record(ErrorCategory.TIMEOUT);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.record(ErrorCategory.NETWORK);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        Thread.sleep(150);
+        // Une seule sonde à la fois
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.record(ErrorCategory.SERVER);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(150);
+        assertTrue(breaker.tryAcquire());
+        breaker.record(null);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testOpenCircuitFailsFastWithoutNetwork() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            server.enqueue(new MockResponse().setResponseCode(503));
+        }
+        for (int i = 0; i < 6; i++) {
+            assertEquals(ErrorCategory.SERVER, execute().category());
+        }
+
+        ApiResult.Error<String> rejected = execute();
+        assertEquals(ErrorCategory.CIRCUIT_OPEN, rejected.category());
+        assertTrue(rejected.category().isTransient());
+        assertEquals(6, server.getRequestCount());
+    }
+
+    @Test
+    public void testThrowingCallbackReceivesSingleResult() throws Exception {
+        server.enqueue(new MockResponse().setBody("\"ok\""));
+        Request request = new Request.Builder().url(server.url("/api/invoices")).get().build();
+        AtomicInteger results = new AtomicInteger();
+        CountDownLatch called = new CountDownLatch(1);
+        NetworkClient.getInstance().execute(request, String.class, res -> {
+            results.incrementAndGet();
+            called.countDown();
+            throw new IllegalStateException("caller bug");
+        });
+        assertTrue("request did not complete", called.await(10, TimeUnit.SECONDS));
+
+        // L'exception de l'appelant ne produit pas un second résultat (erreur après succès)
+        Thread.sleep(200);
+        assertEquals(1, results.get());
+    }
+
+    private ApiResult.Error<String> execute() throws Exception {
+        Request request = new Request.Builder().url(server.url("/api/invoices")).get().build();
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<ApiResult<String>> result = new AtomicReference<>();
+        NetworkClient.getInstance().execute(request, String.class, res -> {
+            result.set(res);
+            done.countDown();
+        });
+        assertTrue("request did not complete", done.await(10, TimeUnit.SECONDS));
+        assertTrue(result.get() instanceof ApiResult.Error);
+        return (ApiResult.Error<String>) result.get();
+    }
+}
@@ -0,0 +1,112 @@
+package com.dspread.pos.common.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.Request;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cache des réponses GET : fraîcheur, revalidation par ETag et réponse périmée hors ligne
+ */
+public class NetworkClientCacheTest {
+
+    private static final long HOUR_MS = 60 * 60_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private ResponseCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        cache = new ResponseCache(folder.newFolder("http_cache"), 16, 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void testFreshEntryIsServedWithoutNetwork() throws Exception {
+        server.enqueue(new MockResponse().setBody("[\"MACHINE-01\"]").setHeader("ETag", "\"v1\""));
+
+        assertEquals("[\"MACHINE-01\"]", get(HOUR_MS));
+        assertEquals("[\"MACHINE-01\"]", get(HOUR_MS));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void testExpiredEntryIsRevalidatedWithEtag() throws Exception {
+        server.enqueue(new MockResponse().setBody("[\"MACHINE-01\"]").setHeader("ETag", "\"v1\""));
+        server.enqueue(new MockResponse().setResponseCode(304));
+
+        get(0);
+        assertEquals("[\"MACHINE-01\"]", get(0));
+
+        assertNull(server.takeRequest().getHeader("If-None-Match"));
+        RecordedRequest revalidation = server.takeRequest();
+        assertEquals("\"v1\"", revalidation.getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void testStaleEntryIsServedWhenServerIsUnreachable() throws Exception {
+        server.enqueue(new MockResponse().setBody("[\"MACHINE-01\"]"));
+        get(0);
+        server.shutdown();
+
+        assertEquals("[\"MACHINE-01\"]", get(0));
+        // Un nouveau cache sur le même répertoire relit l'entrée sur disque
+        cache = new ResponseCache(folder.getRoot().toPath().resolve("http_cache").toFile(), 16, 1024 * 1024);
+        assertEquals("[\"MACHINE-01\"]", get(0));
+    }
+
+    @Test
+    public void testCacheHitIsDeliveredOffCallerThread() throws Exception {
+        server.enqueue(new MockResponse().setBody("[\"MACHINE-01\"]"));
+        get(0);
+
+        Request request = new Request.Builder().url(server.url("/testing/machines")).get().build();
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        NetworkClient.getInstance().executeCached(request, String.class, cache, 60_000, res -> {
+            thread.set(Thread.currentThread());
+            done.countDown();
+        });
+        assertTrue("request did not complete", done.await(10, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), thread.get());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    private String get(long ttlMs) throws Exception {
+        Request request = new Request.Builder().url(server.url("/testing/machines")).get().build();
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<String> result = new AtomicReference<>();
+        NetworkClient.getInstance().executeCached(request, String.class, cache, ttlMs, res -> {
+            if (res instanceof ApiResult.Success) {
+                result.set(((ApiResult.Success<String>) res).data());
+            }
+            done.countDown();
+        });
+        assertTrue("request did not complete", done.await(10, TimeUnit.SECONDS));
+        return result.get();
+    }
+}
@@ -0,0 +1,93 @@
+package com.dspread.pos.common.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.Request;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Délais adaptatifs par point d'entrée et échéance d'une chaîne d'appels
+ */
+public class NetworkClientTimeoutTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void testBudgetUsesCeilingUntilEnoughSamples() {
+        LatencyBudget budget = new LatencyBudget("fiscalize", 1_000, 30_000, 3.0);
+        assertEquals(30_000, budget.timeoutMs());
+
+        for (int i = 0; i < LatencyBudget.MIN_SAMPLES; i++) {
+            budget.record(400);
+        }
+        assertEquals(1_200, budget.timeoutMs());
+
+        // Les durées rapides ne descendent pas sous le plancher
+        for (int i = 0; i < LatencyBudget.WINDOW; i++) {
+            budget.record(50);
+        }
+        assertEquals(1_000, budget.timeoutMs());
+    }
+
+    @Test
+    public void testBudgetCutsStalledCall() throws Exception {
+        LatencyBudget budget = new LatencyBudget("fiscalize", 200, 30_000, 2.0);
+        for (int i = 0; i < LatencyBudget.MIN_SAMPLES; i++) {
+            budget.record(100);
+        }
+        server.enqueue(new MockResponse().setBody("{}").setHeadersDelay(5, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        ApiResult<String> result = execute(budget, 0);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(result instanceof ApiResult.Error);
+        assertTrue(((ApiResult.Error<String>) result).message(),
+                ((ApiResult.Error<String>) result).message().contains("timeout"));
+        assertTrue("elapsed " + elapsedMs, elapsedMs < 2_000);
+        // L'appel coupé est compté : le p99 remonte vers le délai appliqué
+        assertEquals(200, budget.p99Ms(), 100);
+    }
+
+    @Test
+    public void testExpiredDeadlineFailsWithoutNetwork() throws Exception {
+        ApiResult<String> result = execute(null, System.currentTimeMillis() - 1);
+
+        assertTrue(result instanceof ApiResult.Error);
+        assertTrue(((ApiResult.Error<String>) result).message().contains("timeout"));
+        assertEquals(0, server.getRequestCount());
+    }
+
+    private ApiResult<String> execute(LatencyBudget budget, long deadlineAtMs) throws Exception {
+        Request request = new Request.Builder().url(server.url("/api/invoices/1/fiscalize")).get().build();
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<ApiResult<String>> result = new AtomicReference<>();
+        NetworkClient.getInstance().execute(request, String.class, budget, deadlineAtMs, res -> {
+            result.set(res);
+            done.countDown();
+        });
+        assertTrue("request did not complete", done.await(10, TimeUnit.SECONDS));
+        return result.get();
+    }
+}
@@ -0,0 +1,74 @@
+package com.dspread.pos.common.metrics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Histogrammes log-linéaires (précision des centiles) et export du registre
+ */
+public class MetricsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBucketsAreContiguous() {
+        for (long v = 0; v < 1_000_000; v++) {
+            int index = LatencyHistogram.index(v);
+            assertTrue(v + " above bucket " + index, v <= LatencyHistogram.upperBound(index));
+            if (index > 0) {
+                assertTrue(v + " below bucket " + index, v > LatencyHistogram.upperBound(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1 ms à 1000 ms, uniformément
+        for (int ms = 1; ms <= 1000; ms++) {
+            histogram.recordMicros(ms * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500, snapshot.getP50Ms(), 500 * 0.04);
+        assertEquals(950, snapshot.getP95Ms(), 950 * 0.04);
+        assertEquals(990, snapshot.getP99Ms(), 990 * 0.04);
+        assertEquals(1000, snapshot.getMaxMs(), 0.001);
+        assertEquals(500.5, snapshot.getMeanMs(), 0.001);
+    }
+
+    @Test
+    public void testExportWritesLabelsAndKeepsLatestFiles() throws Exception {
+        Metrics metrics = new Metrics();
+        assertSame(metrics.histogram("api.create"), metrics.histogram("api.create"));
+        metrics.histogram("api.create").recordMicros(120_000);
+        metrics.counter("api.create.errors").inc();
+        metrics.gauge("storage.pending").set(3);
+        metrics.setLabel("app", "1.2.0");
+
+        File dir = folder.newFolder("metrics");
+        File file = metrics.export(dir);
+        String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertTrue(json, json.contains("\"app\": \"1.2.0\""));
+        assertTrue(json, json.contains("\"api.create.errors\": 1"));
+        assertTrue(json, json.contains("\"storage.pending\": 3"));
+        assertTrue(json, json.contains("\"p99Ms\": 120.0"));
+        assertTrue(metrics.report().contains("api.create n=1"));
+
+        for (int i = 0; i < 12; i++) {
+            metrics.export(dir);
+            Thread.sleep(2);
+        }
+        assertEquals(10, dir.listFiles().length);
+    }
+}
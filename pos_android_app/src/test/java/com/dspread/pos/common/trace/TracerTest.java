@@ -0,0 +1,152 @@
+package com.dspread.pos.common.trace;
+
+import com.dspread.pos.common.http.NetworkClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Request;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Traces de vente : en-tête de corrélation, étapes imbriquées, fichier circulaire
+ */
+public class TracerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        Tracer.getInstance().clearHeaderHosts();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Tracer.getInstance().finishTrace("test_end");
+        Tracer.getInstance().setStore(null);
+        server.shutdown();
+    }
+
+    @Test
+    public void testSaleTracePropagatesHeaderAndIsPersisted() throws Exception {
+        TraceStore store = new TraceStore(new File(folder.getRoot(), "traces.ring"), 4, 16 * 1024);
+        Tracer tracer = Tracer.getInstance();
+        tracer.setStore(store);
+
+        Trace trace = tracer.startTrace("sale");
+        Span trade = tracer.startSpan("pos.trade");
+        trade.mark("onDoTradeResult").tag("result", "ICC");
+        trade.end();
+        Span certify = tracer.startSpan("certify");
+        tracer.addHeaderHost(server.getHostName());
+        server.enqueue(new MockResponse().setBody("42"));
+        execute(trace);
+        certify.end();
+        tracer.finishTrace(trace, "printed");
+
+        RecordedRequest recorded = server.takeRequest(5, TimeUnit.SECONDS);
+        assertEquals(trace.getTraceId(), recorded.getHeader(Tracer.HEADER));
+        assertEquals(32, trace.getTraceId().length());
+        assertNull(tracer.current());
+        // Après la vente : plus d'étape
+        assertSame(Span.NOOP, tracer.startSpan("late"));
+
+        List<String> traces = awaitTraces(store, 1);
+        String json = traces.get(0);
+        assertTrue(json, json.contains("\"traceId\":\"" + trace.getTraceId() + "\""));
+        assertTrue(json, json.contains("\"outcome\":\"printed\""));
+        assertTrue(json, json.contains("\"id\":3,\"parent\":2,\"name\":\"onDoTradeResult\""));
+        assertTrue(json, json.contains("\"name\":\"http GET /api/invoices\""));
+        assertTrue(json, json.contains("\"status\":\"200\""));
+        assertFalse(json, json.contains("\"open\""));
+    }
+
+    @Test
+    public void testOnlyTaggedCallsToDeclaredHostsCarryHeader() throws Exception {
+        Tracer tracer = Tracer.getInstance();
+        Trace trace = tracer.startTrace("sale");
+
+        // Appel non rattaché à la vente (synchronisation en arrière-plan) pendant celle-ci
+        server.enqueue(new MockResponse().setBody("42"));
+        execute(null);
+        assertNull(server.takeRequest(5, TimeUnit.SECONDS).getHeader(Tracer.HEADER));
+
+        // Hôte non déclaré (service tiers) : pas d'en-tête même pour un appel de la vente
+        server.enqueue(new MockResponse().setBody("43"));
+        execute(trace);
+        assertNull(server.takeRequest(5, TimeUnit.SECONDS).getHeader(Tracer.HEADER));
+
+        tracer.addHeaderHost(server.getHostName());
+        server.enqueue(new MockResponse().setBody("44"));
+        execute(trace);
+        assertEquals(trace.getTraceId(), server.takeRequest(5, TimeUnit.SECONDS).getHeader(Tracer.HEADER));
+    }
+
+    @Test
+    public void testNewSaleAbandonsUnfinishedOne() {
+        Tracer tracer = Tracer.getInstance();
+        Trace first = tracer.startTrace("sale");
+        Trace second = tracer.startTrace("sale");
+        assertTrue(first.isFinished());
+        assertSame(second, tracer.currentOrStart("sale"));
+        // Fin tardive de la première vente : la seconde reste en cours
+        tracer.finishTrace(first, "printed");
+        assertSame(second, tracer.current());
+    }
+
+    @Test
+    public void testRingKeepsLatestTracesInOrder() throws Exception {
+        TraceStore store = new TraceStore(new File(folder.getRoot(), "ring"), 3, 64);
+        for (int i = 0; i < 5; i++) {
+            store.append("{\"n\":" + i + "}");
+        }
+        List<String> traces = store.readAll();
+        assertEquals(3, traces.size());
+        assertEquals("{\"n\":2}", traces.get(0));
+        assertEquals("{\"n\":4}", traces.get(2));
+
+        // Géométrie différente : fichier recréé vide
+        assertTrue(new TraceStore(new File(folder.getRoot(), "ring"), 4, 64).readAll().isEmpty());
+    }
+
+    private void execute(Trace trace) throws Exception {
+        Request request = new Request.Builder().url(server.url("/api/invoices")).get()
+                .tag(Trace.class, trace)
+                .build();
+        CountDownLatch done = new CountDownLatch(1);
+        NetworkClient.getInstance().execute(request, String.class, res -> done.countDown());
+        assertTrue("request did not complete", done.await(10, TimeUnit.SECONDS));
+    }
+
+    private static List<String> awaitTraces(TraceStore store, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        List<String> traces = store.readAll();
+        while (traces.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            traces = store.readAll();
+        }
+        assertEquals(count, traces.size());
+        return traces;
+    }
+}
@@ -0,0 +1,269 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.common.http.ErrorCategory;
+import com.dspread.pos.common.http.NetworkClient;
+import com.dspread.pos.models.InvoiceData;
+import com.dspread.pos.models.InvoiceVerificationResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static com.dspread.pos.managers.DgiFixtures.invoice;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Certification par lot contre un serveur local qui rejoue le contrat DGI
+ * (create puis fiscalize), échecs partiels et appels en double compris
+ */
+public class ApiManagerBatchTest {
+
+    // Fiscalize des factures SLOW-*, au-delà de l'échéance d'un appelant
+    private static final long SLOW_FISCALIZE_MS = 1_500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private ApiManager apiManager;
+    private final AtomicInteger flakyFailures = new AtomicInteger();
+    // DUP-* : rejet au create ; FLAKY-* : un 503 au fiscalize ; FAIL-* : 500 au fiscalize
+    private final DgiFixtures.DgiDispatcher dgi = new DgiFixtures.DgiDispatcher(1000, 20) {
+        @Override
+        MockResponse beforeCreate(String externalNum) {
+            if (externalNum.startsWith("DUP")) {
+                return new MockResponse().setResponseCode(400)
+                        .setBody("{\"errorCode\":\"REJ009\",\"message\":\"REJ009\"}");
+            }
+            return null;
+        }
+
+        @Override
+        MockResponse beforeFiscalize(String externalNum) throws InterruptedException {
+            if (externalNum.startsWith("FLAKY") && flakyFailures.getAndIncrement() == 0) {
+                return new MockResponse().setResponseCode(503);
+            }
+            if (externalNum.startsWith("SLOW")) {
+                Thread.sleep(SLOW_FISCALIZE_MS);
+            }
+            if (externalNum.startsWith("FAIL")) {
+                return new MockResponse().setResponseCode(500).setBody("{\"message\":\"Internal error\"}");
+            }
+            return null;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(dgi);
+        server.start();
+        apiManager = new ApiManager(NetworkClient.getInstance(), server.url("").toString().replaceAll("/$", ""),
+                folder.newFolder("cache"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void testBatchReturnsPerInvoiceResultsInOrder() throws Exception {
+        List<InvoiceData> invoices = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            invoices.add(invoice("EXT-" + i));
+        }
+        // Doublon rejeté au create, erreur serveur au fiscalize
+        invoices.set(3, invoice("DUP-3"));
+        invoices.set(7, invoice("FAIL-7"));
+
+        List<ApiManager.BatchItemResult> results = certify(invoices);
+
+        assertEquals(20, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            ApiManager.BatchItemResult result = results.get(i);
+            assertEquals(invoices.get(i).getExternalNum(), result.getInvoice().getExternalNum());
+            if (i == 3) {
+                assertFalse(result.isSuccess());
+                assertEquals(Integer.valueOf(400), result.getHttpCode());
+                assertTrue(result.getError(), result.getError().contains("REJ009"));
+            } else if (i == 7) {
+                assertFalse(result.isSuccess());
+                assertEquals(Integer.valueOf(500), result.getHttpCode());
+                assertTrue(result.getError(), result.getError().startsWith("Fiscalization failed"));
+            } else {
+                assertTrue(result.getError(), result.isSuccess());
+                assertNull(result.getHttpCode());
+                assertEquals("FISCALIZED", result.getResponse().getStatus());
+                assertEquals("TOKEN-" + invoices.get(i).getExternalNum(), result.getResponse().getMecefCode());
+            }
+        }
+        // 19 créations (le doublon est rejeté) et 19 fiscalisations
+        assertEquals(19, dgi.created.size());
+        assertEquals(20 + 19, server.getRequestCount());
+        // Les chaînes sont bien lancées en parallèle, dans la limite du lot
+        int maxInFlight = dgi.maxInFlight.get();
+        assertTrue("max in flight " + maxInFlight, maxInFlight > 1 && maxInFlight <= 8);
+    }
+
+    @Test
+    public void testEmptyBatchCompletesImmediately() throws Exception {
+        List<ApiManager.BatchItemResult> results = certify(Collections.emptyList());
+        assertTrue(results.isEmpty());
+        assertEquals(0, server.getRequestCount());
+    }
+
+    @Test
+    public void testConcurrentCertificationsOfSameInvoiceShareOneFlow() throws Exception {
+        InvoiceData invoice = invoice("EXT-TAP");
+        CountDownLatch done = new CountDownLatch(2);
+        List<String> tokens = Collections.synchronizedList(new ArrayList<>());
+        List<String> createdIds = Collections.synchronizedList(new ArrayList<>());
+        ApiManager.ApiCallback<InvoiceVerificationResponse> cb = new ApiManager.ApiCallback<InvoiceVerificationResponse>() {
+            @Override
+            public void onSuccess(InvoiceVerificationResponse response) {
+                tokens.add(response.getMecefCode());
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String error) {
+                done.countDown();
+            }
+        };
+        // Double appui : la seconde certification démarre pendant la première
+        apiManager.certifyInvoice(invoice, null, createdIds::add, cb);
+        apiManager.certifyInvoice(invoice, null, createdIds::add, cb);
+        assertTrue("certification did not complete", done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList("TOKEN-EXT-TAP", "TOKEN-EXT-TAP"), tokens);
+        assertEquals(2, createdIds.size());
+        assertEquals(createdIds.get(0), createdIds.get(1));
+        // Un seul create et un seul fiscalize
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testJoinerDeadlineFailsOnlyTheJoiner() throws Exception {
+        InvoiceData invoice = invoice("SLOW-1");
+        CountDownLatch leaderDone = new CountDownLatch(1);
+        CountDownLatch joinerDone = new CountDownLatch(1);
+        AtomicReference<String> leaderToken = new AtomicReference<>();
+        AtomicReference<ErrorCategory> joinerCategory = new AtomicReference<>();
+        AtomicReference<String> joinerCreatedId = new AtomicReference<>();
+        List<Long> joinerFailedAfter = Collections.synchronizedList(new ArrayList<>());
+
+        apiManager.certifyInvoice(invoice, null, null, new ApiManager.ApiCallback<InvoiceVerificationResponse>() {
+            @Override
+            public void onSuccess(InvoiceVerificationResponse response) {
+                leaderToken.set(response.getMecefCode());
+                leaderDone.countDown();
+            }
+
+            @Override
+            public void onError(String error) {
+                leaderDone.countDown();
+            }
+        });
+        // Écran relancé pendant la certification, avec une échéance courte
+        long joinedAt = System.currentTimeMillis();
+        apiManager.certifyInvoice(invoice, null, joinerCreatedId::set, 300,
+                new ApiManager.ApiCallback<InvoiceVerificationResponse>() {
+                    @Override
+                    public void onSuccess(InvoiceVerificationResponse response) {
+                        joinerDone.countDown();
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        joinerDone.countDown();
+                    }
+
+                    @Override
+                    public void onError(String error, Integer httpCode, ErrorCategory category) {
+                        joinerCategory.set(category);
+                        joinerFailedAfter.add(System.currentTimeMillis() - joinedAt);
+                        joinerDone.countDown();
+                    }
+                });
+
+        assertTrue("joiner was not notified", joinerDone.await(10, TimeUnit.SECONDS));
+        assertEquals(ErrorCategory.TIMEOUT, joinerCategory.get());
+        assertTrue("joiner failed after " + joinerFailedAfter, joinerFailedAfter.get(0) < SLOW_FISCALIZE_MS);
+        // La facture était créée avant l'échéance : l'appelant rattaché a reçu l'identifiant
+        assertNotNull(joinerCreatedId.get());
+
+        // La certification continue pour le premier appelant
+        assertTrue("certification did not complete", leaderDone.await(10, TimeUnit.SECONDS));
+        assertEquals("TOKEN-SLOW-1", leaderToken.get());
+        assertEquals(1, joinerFailedAfter.size());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testRxRetryResumesAtFiscalize() throws Exception {
+        InvoiceData invoice = invoice("FLAKY-1");
+        String[] createdId = { null };
+
+        InvoiceVerificationResponse response = Single.defer(() ->
+                        apiManager.certifyInvoiceRx(invoice, createdId[0], id -> createdId[0] = id, 0))
+                .retryWhen(RxApi.retryTransient(2, 10, Schedulers.computation()))
+                .blockingGet();
+
+        assertEquals("TOKEN-FLAKY-1", response.getMecefCode());
+        // La relance n'a pas recréé la facture : 1 create, 2 fiscalize
+        assertEquals(1, dgi.created.size());
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void testRxBatchEmitsEveryItem() throws Exception {
+        List<InvoiceData> invoices = Arrays.asList(invoice("EXT-A"), invoice("DUP-B"), invoice("EXT-C"));
+
+        List<ApiManager.BatchItemResult> results = apiManager.certifyInvoicesRx(invoices)
+                .toList()
+                .blockingGet();
+
+        assertEquals(3, results.size());
+        int failures = 0;
+        for (ApiManager.BatchItemResult result : results) {
+            failures += result.isSuccess() ? 0 : 1;
+        }
+        assertEquals(1, failures);
+    }
+
+    private List<ApiManager.BatchItemResult> certify(List<InvoiceData> invoices) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<List<ApiManager.BatchItemResult>> results = new AtomicReference<>();
+        apiManager.certifyInvoices(invoices, new ApiManager.BatchCallback() {
+            @Override
+            public void onComplete(List<ApiManager.BatchItemResult> batch) {
+                results.set(batch);
+                done.countDown();
+            }
+        });
+        assertTrue("batch did not complete", done.await(30, TimeUnit.SECONDS));
+        assertNotNull(results.get());
+        return results.get();
+    }
+}
@@ -0,0 +1,137 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.common.http.NetworkClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Téléchargement des PDF vers le cache disque : reprise par Range, serveur qui
+ * ignore le Range, et réutilisation du cache
+ */
+public class ApiManagerPdfTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private ApiManager apiManager;
+    private final byte[] pdf = samplePdf(300 * 1024);
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        apiManager = new ApiManager(NetworkClient.getInstance(), server.url("").toString().replaceAll("/$", ""),
+                folder.newFolder("cache"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void testInterruptedDownloadResumesWithRange() throws Exception {
+        // Première tentative coupée au milieu du corps
+        server.enqueue(new MockResponse().setBody(new Buffer().write(pdf))
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+        assertNull(download("1001").get());
+
+        server.takeRequest();
+        File partial = new File(folder.getRoot(), "cache/invoice_pdf/1001.pdf.part");
+        long offset = partial.length();
+        assertTrue("partial " + offset, offset > 0 && offset < pdf.length);
+
+        server.enqueue(new MockResponse().setResponseCode(206)
+                .setHeader("Content-Range", "bytes " + offset + "-" + (pdf.length - 1) + "/" + pdf.length)
+                .setBody(new Buffer().write(Arrays.copyOfRange(pdf, (int) offset, pdf.length))));
+        AtomicLong lastProgress = new AtomicLong();
+        File file = download("1001", lastProgress).get();
+
+        RecordedRequest resumed = server.takeRequest();
+        assertEquals("bytes=" + offset + "-", resumed.getHeader("Range"));
+        assertNotNull(file);
+        assertArrayEquals(pdf, Files.readAllBytes(file.toPath()));
+        assertEquals(pdf.length, lastProgress.get());
+    }
+
+    @Test
+    public void testRangeIgnoredRestartsFromScratch() throws Exception {
+        File partial = new File(folder.getRoot(), "cache/invoice_pdf/1002.pdf.part");
+        assertTrue(partial.getParentFile().mkdirs());
+        Files.write(partial.toPath(), new byte[]{ 1, 2, 3 });
+
+        server.enqueue(new MockResponse().setBody(new Buffer().write(pdf)));
+        File file = download("1002").get();
+
+        assertEquals("bytes=3-", server.takeRequest().getHeader("Range"));
+        assertArrayEquals(pdf, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testCachedPdfIsNotDownloadedAgain() throws Exception {
+        server.enqueue(new MockResponse().setBody(new Buffer().write(pdf)));
+        File first = download("1003").get();
+        File second = download("1003").get();
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(first, second);
+        assertEquals(first, apiManager.getCachedInvoicePdf("1003"));
+    }
+
+    private AtomicReference<File> download(String invoiceId) throws Exception {
+        return download(invoiceId, new AtomicLong());
+    }
+
+    private AtomicReference<File> download(String invoiceId, AtomicLong lastProgress) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<File> result = new AtomicReference<>();
+        apiManager.downloadInvoicePdf(invoiceId, (bytesRead, totalBytes) -> lastProgress.set(bytesRead),
+                new ApiManager.ApiCallback<File>() {
+            @Override
+            public void onSuccess(File pdfFile) {
+                result.set(pdfFile);
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String error) {
+                done.countDown();
+            }
+        });
+        assertTrue("download did not complete", done.await(10, TimeUnit.SECONDS));
+        return result;
+    }
+
+    private static byte[] samplePdf(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31 + 7);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,103 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.managers.StorageManager.CertifiedInvoiceRecord;
+import com.dspread.pos.models.CertificationResponse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static com.dspread.pos.managers.DgiFixtures.invoice;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Curseur paginé des factures certifiées : découpage en pages, repositionnement,
+ * factures archivées après l'ouverture
+ */
+public class CertifiedInvoiceCursorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPagesCoverAllKeysOnce() {
+        List<String> reads = new ArrayList<>();
+        CertifiedInvoiceCursor cursor = new CertifiedInvoiceCursor(keys(7), 3, (keys, from, to) -> {
+            reads.add(from + "-" + to);
+            return new ArrayList<>();
+        });
+
+        assertEquals(7, cursor.getCount());
+        while (cursor.hasNextPage()) {
+            cursor.nextPage();
+        }
+        assertEquals(Arrays.asList("0-3", "3-6", "6-7"), reads);
+        assertEquals(7, cursor.getPosition());
+        try {
+            cursor.nextPage();
+            fail("expected NoSuchElementException");
+        } catch (NoSuchElementException expected) {
+            // fin du curseur
+        }
+
+        cursor.seek(5);
+        cursor.nextPage();
+        assertEquals("5-7", reads.get(reads.size() - 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPageSizeMustBePositive() {
+        new CertifiedInvoiceCursor(keys(1), 0, (keys, from, to) -> null);
+    }
+
+    @Test
+    public void testNewestFirstAndArchivedInvoicesSkipped() throws Exception {
+        StorageManager storage = new StorageManager(folder.newFolder("files"), null);
+        for (int i = 0; i < 5; i++) {
+            storage.saveCertifiedInvoice(invoice("EXT-" + i), response(i));
+        }
+
+        CertifiedInvoiceCursor cursor = storage.openCertifiedCursor(2, true);
+        assertEquals(Arrays.asList("EXT-4", "EXT-3"), externalNums(cursor.nextPage()));
+
+        // Archivage des plus anciennes après l'ouverture : le journal est réécrit
+        storage.setRetentionPolicy(new InvoiceArchive.RetentionPolicy()
+                .setHotMaxAgeDays(0).setHotMaxCount(3).setArchiveExported(false));
+        storage.compact();
+
+        assertEquals(Arrays.asList("EXT-2"), externalNums(cursor.nextPage()));
+        assertTrue(cursor.hasNextPage());
+        assertTrue(cursor.nextPage().isEmpty());
+        assertFalse(cursor.hasNextPage());
+        assertEquals(3, storage.getCertifiedCount());
+    }
+
+    private static InvoiceIndex.Key[] keys(int count) {
+        InvoiceIndex.Key[] keys = new InvoiceIndex.Key[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = new InvoiceIndex.Key("M1", "E" + i);
+        }
+        return keys;
+    }
+
+    private static List<String> externalNums(List<CertifiedInvoiceRecord> records) {
+        List<String> nums = new ArrayList<>();
+        for (CertifiedInvoiceRecord record : records) {
+            nums.add(record.getInvoiceData().getExternalNum());
+        }
+        return nums;
+    }
+
+    private static CertificationResponse response(int i) {
+        return new CertificationResponse("FISCALIZED", "MECEF-" + i, "qr", String.valueOf(1000 + i),
+                "2025-10-18T10:15:01");
+    }
+}
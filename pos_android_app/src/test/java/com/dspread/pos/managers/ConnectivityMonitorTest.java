@@ -0,0 +1,97 @@
+package com.dspread.pos.managers;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stabilisation des changements de réseau : seul l'état qui dure est notifié
+ */
+public class ConnectivityMonitorTest {
+
+    private static final long DEBOUNCE_MS = 300;
+
+    @Test
+    public void testFlappingNetworkNotifiesOnce() throws Exception {
+        ConnectivityMonitor monitor = new ConnectivityMonitor(null, DEBOUNCE_MS);
+        List<Boolean> changes = new CopyOnWriteArrayList<>();
+        monitor.addListener(changes::add);
+
+        monitor.onNetworkChanged(true);
+        Thread.sleep(DEBOUNCE_MS / 3);
+        monitor.onNetworkChanged(false);
+        Thread.sleep(DEBOUNCE_MS / 3);
+        monitor.onNetworkChanged(true);
+        // Chaque changement repousse la notification
+        Thread.sleep(DEBOUNCE_MS / 2);
+        assertTrue(changes.isEmpty());
+        assertFalse(monitor.isOnline());
+
+        awaitChanges(changes, 1);
+        assertEquals(true, changes.get(0));
+        assertTrue(monitor.isOnline());
+    }
+
+    @Test
+    public void testBriefDropIsIgnored() throws Exception {
+        ConnectivityMonitor monitor = new ConnectivityMonitor(null, DEBOUNCE_MS);
+        List<Boolean> changes = new CopyOnWriteArrayList<>();
+        monitor.addListener(changes::add);
+        monitor.onNetworkChanged(true);
+        awaitChanges(changes, 1);
+
+        // Coupure plus courte que le délai : l'état stable n'a pas changé
+        monitor.onNetworkChanged(false);
+        monitor.onNetworkChanged(true);
+        Thread.sleep(DEBOUNCE_MS * 3);
+        assertEquals(1, changes.size());
+
+        monitor.onNetworkChanged(false);
+        awaitChanges(changes, 2);
+        assertEquals(false, changes.get(1));
+        assertFalse(monitor.isOnline());
+    }
+
+    @Test
+    public void testStateIsUnknownUntilSeededOrStable() throws Exception {
+        ConnectivityMonitor monitor = new ConnectivityMonitor(null, DEBOUNCE_MS);
+        // Démarrage : ni en ligne ni hors ligne connu, les envois ne sont pas bloqués
+        assertFalse(monitor.knownOffline());
+
+        monitor.onNetworkChanged(false);
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!monitor.knownOffline() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(monitor.knownOffline());
+    }
+
+    @Test
+    public void testSeedSetsStateWithoutNotifying() throws Exception {
+        ConnectivityMonitor monitor = new ConnectivityMonitor(null, DEBOUNCE_MS);
+        List<Boolean> changes = new CopyOnWriteArrayList<>();
+        monitor.addListener(changes::add);
+
+        monitor.seed(true);
+        assertTrue(monitor.isOnline());
+        assertFalse(monitor.knownOffline());
+
+        // Le premier callback confirme l'état : pas de notification
+        monitor.onNetworkChanged(true);
+        Thread.sleep(DEBOUNCE_MS * 2);
+        assertTrue(changes.isEmpty());
+    }
+
+    private static void awaitChanges(List<Boolean> changes, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (changes.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, changes.size());
+    }
+}
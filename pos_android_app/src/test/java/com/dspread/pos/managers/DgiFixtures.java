@@ -0,0 +1,134 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.models.Customer;
+import com.dspread.pos.models.InvoiceData;
+import com.dspread.pos.models.InvoiceLine;
+import com.dspread.pos.models.Issuer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Factures de test et serveur DGI local partagés par les tests des managers
+ */
+final class DgiFixtures {
+
+    static final String MACHINE_NUM = "MACHINE-01";
+    static final String ISSUE_DATE = "2025-10-18T10:15:00";
+
+    private DgiFixtures() {}
+
+    static InvoiceData invoice(String externalNum) {
+        return invoice(externalNum, ISSUE_DATE);
+    }
+
+    static InvoiceData invoice(String externalNum, String issueDate) {
+        List<InvoiceLine> lines = new ArrayList<>();
+        lines.add(new InvoiceLine("Article", 2, 1500, 18));
+        return new InvoiceData(externalNum, MACHINE_NUM,
+                new Issuer("Boutique", "P123456789", "+237600000000"),
+                new Customer("Client", "C987654321", "+237611111111"),
+                lines, 0, 0, 0, issueDate);
+    }
+
+    /**
+     * Contrat DGI : POST /api/invoices (identifiant numérique brut, REJ009 pour une
+     * facture déjà créée) puis POST /api/invoices/{id}/fiscalize (token et QR)
+     *
+     * Les tests adaptent les réponses par {@link #beforeCreate} et {@link #beforeFiscalize}.
+     */
+    static class DgiDispatcher extends Dispatcher {
+        // externalNum des factures créées, par identifiant DGI
+        final Map<String, String> created = new ConcurrentHashMap<>();
+        final AtomicInteger creates = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        private final AtomicInteger nextId;
+        // Latence réseau : laisse les requêtes se chevaucher
+        volatile long latencyMs;
+
+        DgiDispatcher(int firstId, long latencyMs) {
+            this.nextId = new AtomicInteger(firstId);
+            this.latencyMs = latencyMs;
+        }
+
+        /**
+         * Facture créée hors du serveur de test (tentative d'un processus précédent)
+         */
+        String register(String externalNum) {
+            String id = String.valueOf(nextId.incrementAndGet());
+            created.put(id, externalNum);
+            return id;
+        }
+
+        /**
+         * Réponse imposée au create, ou null pour le contrat normal
+         */
+        MockResponse beforeCreate(String externalNum) throws InterruptedException {
+            return null;
+        }
+
+        /**
+         * Réponse imposée au fiscalize, ou null pour le contrat normal
+         */
+        MockResponse beforeFiscalize(String externalNum) throws InterruptedException {
+            return null;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+                String path = request.getPath();
+                if ("/api/invoices".equals(path)) {
+                    return create(request.getBody().readUtf8()
+                            .replaceAll(".*\"externalNum\":\"([^\"]+)\".*", "$1"));
+                }
+                if (path != null && path.startsWith("/api/invoices/") && path.endsWith("/fiscalize")) {
+                    return fiscalize(path.substring("/api/invoices/".length(), path.length() - "/fiscalize".length()));
+                }
+                return new MockResponse().setResponseCode(404);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private MockResponse create(String externalNum) throws InterruptedException {
+            creates.incrementAndGet();
+            MockResponse forced = beforeCreate(externalNum);
+            if (forced != null) {
+                return forced;
+            }
+            Thread.sleep(latencyMs);
+            if (created.containsValue(externalNum)) {
+                rejected.incrementAndGet();
+                return new MockResponse().setResponseCode(400)
+                        .setBody("{\"errorCode\":\"REJ009\",\"message\":\"REJ009\"}");
+            }
+            return new MockResponse().setBody(register(externalNum));
+        }
+
+        private MockResponse fiscalize(String id) throws InterruptedException {
+            Thread.sleep(latencyMs);
+            String externalNum = created.get(id);
+            if (externalNum == null) {
+                return new MockResponse().setResponseCode(404).setBody("{\"errorCode\":\"REJ030\"}");
+            }
+            MockResponse forced = beforeFiscalize(externalNum);
+            if (forced != null) {
+                return forced;
+            }
+            return new MockResponse().setBody("{\"token\":\"TOKEN-" + externalNum
+                    + "\",\"qrBase64\":\"QR\",\"certifiedAt\":\"2025-10-18T10:15:01\"}");
+        }
+    }
+}
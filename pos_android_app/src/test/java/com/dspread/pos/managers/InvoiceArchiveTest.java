@@ -0,0 +1,121 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.managers.StorageManager.CertifiedInvoiceRecord;
+import com.dspread.pos.models.CertificationResponse;
+import com.dspread.pos.models.InvoiceData;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.dspread.pos.managers.DgiFixtures.invoice;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compactage du journal et archive des factures certifiées : politique de
+ * rétention, état en attente conservé, reprise après un compactage interrompu
+ */
+public class InvoiceArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String TODAY = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US).format(new Date());
+
+    @Test
+    public void testCompactionArchivesColdInvoicesAndKeepsPendingState() throws Exception {
+        File dir = folder.newFolder("files");
+        StorageManager storage = new StorageManager(dir, null);
+        storage.saveCertifiedInvoice(invoice("OLD-1", "2025-08-10T10:00:00"), response("1"));
+        storage.saveCertifiedInvoice(invoice("OLD-2", "2025-09-02T10:00:00"), response("2"));
+        storage.saveCertifiedInvoice(invoice("NEW-1", TODAY), response("3"));
+        storage.saveCertifiedInvoice(invoice("NEW-2", TODAY), response("4"));
+        storage.markCertifiedExported("MACHINE-01", "NEW-2");
+        InvoiceData pending = invoice("PEND-1", TODAY);
+        storage.savePendingInvoice(pending);
+        storage.recordSyncFailure(pending, "Connection timeout", null);
+        storage.markCreated(pending, "7001");
+        storage.flush();
+        long journalBefore = new File(dir, "invoices.journal").length();
+
+        storage.setRetentionPolicy(new InvoiceArchive.RetentionPolicy()
+                .setHotMaxAgeDays(30).setHotMaxCount(0).setArchiveExported(true));
+        storage.compact();
+
+        assertEquals(1, storage.getCertifiedCount());
+        assertNull(storage.findCertifiedInvoice("MACHINE-01", "OLD-1"));
+        assertTrue(new File(dir, "invoices.journal").length() < journalBefore);
+        assertEquals(Arrays.asList("2025-08", "2025-09", TODAY.substring(0, 7)), storage.getArchiveMonths());
+        assertEquals(Arrays.asList("OLD-1", "OLD-2", "NEW-2"), scan(storage, null, null));
+        assertEquals(Collections.singletonList("OLD-2"), scan(storage, "2025-09", "2025-09"));
+
+        // Le journal compacté se relit avec le même état
+        StorageManager restarted = new StorageManager(dir, null);
+        assertEquals(1, restarted.getCertifiedCount());
+        assertEquals(1, restarted.getPendingCount());
+        assertEquals("7001", restarted.getCreatedInvoiceId("MACHINE-01", "PEND-1"));
+        assertEquals(StorageManager.InvoiceState.CREATED, restarted.getInvoiceState("MACHINE-01", "PEND-1"));
+        assertEquals(1, restarted.getRetryState("MACHINE-01", "PEND-1").getAttempts());
+    }
+
+    @Test
+    public void testInterruptedCompactionDoesNotDuplicateArchivedInvoices() throws Exception {
+        File dir = folder.newFolder("files");
+        StorageManager storage = new StorageManager(dir, null);
+        storage.saveCertifiedInvoice(invoice("OLD-1", "2025-08-10T10:00:00"), response("1"));
+        storage.saveCertifiedInvoice(invoice("OLD-2", "2025-08-11T10:00:00"), response("2"));
+        storage.saveCertifiedInvoice(invoice("NEW-1", TODAY), response("3"));
+        storage.flush();
+
+        // Compactage précédent arrêté après l'écriture de l'archive, avant le renommage du journal
+        Map<String, List<byte[]>> segment = new TreeMap<>();
+        segment.put("2025-08", Arrays.asList(
+                InvoiceCodec.encodeCertified(storage.findCertifiedInvoice("MACHINE-01", "OLD-1")),
+                InvoiceCodec.encodeCertified(storage.findCertifiedInvoice("MACHINE-01", "OLD-2"))));
+        File archiveDir = new File(dir, "invoice_archive");
+        new InvoiceArchive(archiveDir).write(segment);
+        File staleJournal = new File(dir, "invoices.journal.compact");
+        Files.write(staleJournal.toPath(), "partial".getBytes(StandardCharsets.UTF_8));
+
+        StorageManager restarted = new StorageManager(dir, null);
+        assertEquals(3, restarted.getCertifiedCount());
+        restarted.setRetentionPolicy(new InvoiceArchive.RetentionPolicy()
+                .setHotMaxAgeDays(30).setHotMaxCount(0));
+        restarted.compact();
+
+        assertEquals(1, restarted.getCertifiedCount());
+        assertFalse(staleJournal.exists());
+        // Deux segments pour le même mois, chaque facture n'est lue qu'une fois
+        assertEquals(2, archiveDir.list((d, name) -> name.startsWith("certified-2025-08.")).length);
+        assertEquals(Arrays.asList("OLD-1", "OLD-2"), scan(restarted, null, null));
+    }
+
+    private static List<String> scan(StorageManager storage, String fromMonth, String toMonth) {
+        List<String> nums = new ArrayList<>();
+        storage.scanArchive(fromMonth, toMonth, (CertifiedInvoiceRecord record) -> {
+            nums.add(record.getInvoiceData().getExternalNum());
+            return true;
+        });
+        return nums;
+    }
+
+    private static CertificationResponse response(String invoiceId) {
+        return new CertificationResponse("FISCALIZED", "MECEF-" + invoiceId, "qr", invoiceId, "2025-10-18T10:15:01");
+    }
+}
@@ -0,0 +1,57 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.models.InvoiceData;
+import com.google.gson.Gson;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compare le codec binaire au chemin Gson réflexif (encodage + décodage)
+ *
+ * Lancement manuel, hors suite de tests : les durées dépendent de la charge de la
+ * machine. Depuis l'IDE, exécuter {@link #main} ; les rounds se passent en argument.
+ */
+public final class InvoiceCodecBenchmark {
+
+    private InvoiceCodecBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        InvoiceData invoice = InvoiceCodecTest.sampleInvoice(10);
+        Gson gson = new Gson();
+
+        // Préchauffage des deux chemins
+        long sink = runGson(gson, invoice, rounds / 4) + runCodec(invoice, rounds / 4);
+
+        long start = System.nanoTime();
+        sink += runGson(gson, invoice, rounds);
+        long gsonNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        sink += runCodec(invoice, rounds);
+        long codecNanos = System.nanoTime() - start;
+
+        int gsonSize = gson.toJson(invoice).getBytes(StandardCharsets.UTF_8).length;
+        int codecSize = InvoiceCodec.encodeInvoice(invoice).length;
+        System.out.println("InvoiceCodec benchmark (" + rounds + " encode+decode): gson "
+                + gsonNanos / 1_000_000 + "ms / " + gsonSize + " bytes, codec "
+                + codecNanos / 1_000_000 + "ms / " + codecSize + " bytes (sink " + sink + ")");
+    }
+
+    private static long runGson(Gson gson, InvoiceData invoice, int rounds) {
+        long sink = 0;
+        for (int i = 0; i < rounds; i++) {
+            byte[] payload = gson.toJson(invoice).getBytes(StandardCharsets.UTF_8);
+            sink += gson.fromJson(new String(payload, StandardCharsets.UTF_8), InvoiceData.class).getTotalTtc();
+        }
+        return sink;
+    }
+
+    private static long runCodec(InvoiceData invoice, int rounds) throws Exception {
+        long sink = 0;
+        for (int i = 0; i < rounds; i++) {
+            sink += InvoiceCodec.decodeInvoice(InvoiceCodec.encodeInvoice(invoice)).getTotalTtc();
+        }
+        return sink;
+    }
+}
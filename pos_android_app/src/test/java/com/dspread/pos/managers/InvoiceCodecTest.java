@@ -0,0 +1,88 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.models.CertificationResponse;
+import com.dspread.pos.models.Customer;
+import com.dspread.pos.models.InvoiceData;
+import com.dspread.pos.models.InvoiceLine;
+import com.dspread.pos.models.Issuer;
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests du codec des factures : aller-retour binaire, équivalence du JSON avec Gson
+ * et taille des enregistrements (performances : voir {@link InvoiceCodecBenchmark})
+ */
+public class InvoiceCodecTest {
+
+    @Test
+    public void testInvoiceBinaryRoundTrip() throws Exception {
+        InvoiceData invoice = sampleInvoice(3);
+        invoice.setCustomer(null);
+
+        InvoiceData decoded = InvoiceCodec.decodeInvoice(InvoiceCodec.encodeInvoice(invoice));
+
+        assertEquals(invoice.toString(), decoded.toString());
+        assertNull(decoded.getCustomer());
+    }
+
+    @Test
+    public void testCertifiedRecordBinaryRoundTrip() throws Exception {
+        CertificationResponse response = new CertificationResponse("FISCALIZED", "MECEF-1", "qr", "42", "2025-10-18T10:00:00");
+        response.setWarnings(Arrays.asList("w1", "w2"));
+        StorageManager.CertifiedInvoiceRecord record =
+                new StorageManager.CertifiedInvoiceRecord(sampleInvoice(2), response, 1234L);
+
+        StorageManager.CertifiedInvoiceRecord decoded =
+                InvoiceCodec.decodeCertified(InvoiceCodec.encodeCertified(record));
+
+        assertEquals(record.getInvoiceData().toString(), decoded.getInvoiceData().toString());
+        assertEquals(response.toString(), decoded.getResponse().toString());
+        assertEquals(Arrays.asList("w1", "w2"), decoded.getResponse().getWarnings());
+        assertNull(decoded.getResponse().getReasons());
+        assertEquals(1234L, decoded.getTimestamp());
+    }
+
+    @Test
+    public void testJsonMatchesGson() throws Exception {
+        InvoiceData invoice = sampleInvoice(4);
+        invoice.getCustomer().setTel(null);
+        invoice.getInvoiceLines().get(0).setDesignation("Café <\"spécial\"> & co");
+
+        assertEquals(JsonParser.parseString(new Gson().toJson(invoice)),
+                JsonParser.parseString(InvoiceCodec.toJson(invoice)));
+    }
+
+    @Test
+    public void testBinaryPayloadIsSmallerThanJson() throws Exception {
+        InvoiceData invoice = sampleInvoice(10);
+
+        int gsonSize = new Gson().toJson(invoice).getBytes(StandardCharsets.UTF_8).length;
+        int codecSize = InvoiceCodec.encodeInvoice(invoice).length;
+
+        assertTrue("binary payload should be smaller than JSON", codecSize < gsonSize);
+    }
+
+    static InvoiceData sampleInvoice(int lineCount) {
+        List<InvoiceLine> lines = new ArrayList<>();
+        for (int i = 0; i < lineCount; i++) {
+            lines.add(new InvoiceLine("Article " + i, i + 1, 1500 + i, 18));
+        }
+        InvoiceData invoice = new InvoiceData("EXT-0001", "MACHINE-01",
+                new Issuer("Boutique", "P123456789", "+237600000000"),
+                new Customer("Client", "C987654321", "+237611111111"),
+                lines, 0, 0, 0, "2025-10-18T10:15:00");
+        invoice.calculateTotals();
+        return invoice;
+    }
+}
@@ -0,0 +1,103 @@
+package com.dspread.pos.managers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Index des factures : clé primaire, index par date d'émission et par statut
+ */
+public class InvoiceIndexTest {
+
+    @Test
+    public void testPutReplacesEntryAndMovesSecondaryIndexes() {
+        InvoiceIndex index = new InvoiceIndex();
+        InvoiceIndex.Entry pending = entry("M1", "E1", InvoiceIndex.Status.PENDING, "2025-10-17T09:00:00", 10);
+        assertNull(index.put(pending));
+
+        // Certification : même clé, nouveau statut et nouvel offset
+        InvoiceIndex.Entry certified = entry("M1", "E1", InvoiceIndex.Status.CERTIFIED, "2025-10-18T09:00:00", 20);
+        assertSame(pending, index.put(certified));
+
+        assertSame(certified, index.get(new InvoiceIndex.Key("M1", "E1")));
+        assertEquals(0, index.count(InvoiceIndex.Status.PENDING));
+        assertEquals(1, index.count(InvoiceIndex.Status.CERTIFIED));
+        assertTrue(index.entriesByIssueDate("2025-10-17", "2025-10-17", null).isEmpty());
+        assertEquals(1, index.entriesByIssueDate("2025-10-18", "2025-10-18", null).size());
+    }
+
+    @Test
+    public void testNullKeyPartsMatchEmptyStrings() {
+        InvoiceIndex index = new InvoiceIndex();
+        index.put(entry(null, "E1", InvoiceIndex.Status.PENDING, "2025-10-18", 1));
+
+        assertEquals(new InvoiceIndex.Key("", "E1"), new InvoiceIndex.Key(null, "E1"));
+        assertEquals(1, index.count(InvoiceIndex.Status.PENDING));
+        assertEquals(1, index.get(new InvoiceIndex.Key("", "E1")).offset);
+    }
+
+    @Test
+    public void testIssueDateRangeIncludesWholeLastDay() {
+        InvoiceIndex index = new InvoiceIndex();
+        index.put(entry("M1", "E1", InvoiceIndex.Status.CERTIFIED, "2025-10-16T23:59:59", 1));
+        index.put(entry("M1", "E2", InvoiceIndex.Status.CERTIFIED, "2025-10-17T00:00:00", 2));
+        index.put(entry("M1", "E3", InvoiceIndex.Status.PENDING, "2025-10-18T12:00:00", 3));
+        index.put(entry("M1", "E4", InvoiceIndex.Status.CERTIFIED, "2025-10-18T23:59:59", 4));
+        index.put(entry("M1", "E5", InvoiceIndex.Status.CERTIFIED, "2025-10-19T00:00:00", 5));
+
+        assertEquals(Arrays.asList("E2", "E3", "E4"),
+                externalNums(index.entriesByIssueDate("2025-10-17", "2025-10-18", null)));
+        assertEquals(Arrays.asList("E2", "E4"),
+                externalNums(index.entriesByIssueDate("2025-10-17", "2025-10-18", InvoiceIndex.Status.CERTIFIED)));
+        // Borne basse nulle : depuis la première date
+        assertEquals(Arrays.asList("E1", "E2", "E4", "E5"),
+                externalNums(index.entriesByIssueDate(null, "9999", InvoiceIndex.Status.CERTIFIED)));
+    }
+
+    @Test
+    public void testStatusIndexKeepsInsertionOrder() {
+        InvoiceIndex index = new InvoiceIndex();
+        index.put(entry("M2", "E9", InvoiceIndex.Status.PENDING, "2025-10-18", 1));
+        index.put(entry("M1", "E1", InvoiceIndex.Status.PENDING, "2025-10-18", 2));
+        index.put(entry("M1", "E5", InvoiceIndex.Status.CERTIFIED, "2025-10-18", 3));
+        index.put(entry("M1", "E3", InvoiceIndex.Status.PENDING, "2025-10-18", 4));
+
+        assertEquals(Arrays.asList("E9", "E1", "E3"), externalNums(index.entries(InvoiceIndex.Status.PENDING)));
+        assertEquals(Arrays.asList("E5"), externalNums(index.entries(InvoiceIndex.Status.CERTIFIED)));
+    }
+
+    @Test
+    public void testRemoveAllClearsOneStatusOnly() {
+        InvoiceIndex index = new InvoiceIndex();
+        index.put(entry("M1", "E1", InvoiceIndex.Status.PENDING, "2025-10-18", 1));
+        index.put(entry("M1", "E2", InvoiceIndex.Status.CERTIFIED, "2025-10-18", 2));
+        index.put(entry("M1", "E3", InvoiceIndex.Status.PENDING, "2025-10-19", 3));
+
+        index.removeAll(InvoiceIndex.Status.PENDING);
+
+        assertEquals(0, index.count(InvoiceIndex.Status.PENDING));
+        assertNull(index.get(new InvoiceIndex.Key("M1", "E1")));
+        assertEquals(Arrays.asList("E2"), externalNums(index.entriesByIssueDate(null, "9999", null)));
+        assertNull(index.remove(new InvoiceIndex.Key("M1", "E3")));
+    }
+
+    private static InvoiceIndex.Entry entry(String machineNum, String externalNum, InvoiceIndex.Status status,
+                                            String issueDate, long offset) {
+        return new InvoiceIndex.Entry(new InvoiceIndex.Key(machineNum, externalNum), status, issueDate, 0, offset, null);
+    }
+
+    private static List<String> externalNums(List<InvoiceIndex.Entry> entries) {
+        List<String> nums = new ArrayList<>();
+        for (InvoiceIndex.Entry entry : entries) {
+            nums.add(entry.key.externalNum);
+        }
+        return nums;
+    }
+}
@@ -0,0 +1,162 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.common.http.ErrorCategory;
+import com.dspread.pos.common.http.NetworkClient;
+import com.dspread.pos.models.InvoiceData;
+import com.dspread.pos.models.InvoiceVerificationResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static com.dspread.pos.managers.DgiFixtures.invoice;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reprise d'une certification interrompue (PENDING → CREATED → FISCALIZED) : une
+ * facture déjà créée côté DGI ne doit jamais être recréée (rejet REJ009)
+ */
+public class InvoiceResumeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private ApiManager apiManager;
+    private File filesDir;
+    // Latence du prochain fiscalize (au-delà de l'échéance du client)
+    private volatile long slowFiscalizeMs;
+    private final DgiFixtures.DgiDispatcher dgi = new DgiFixtures.DgiDispatcher(7000, 0) {
+        @Override
+        MockResponse beforeFiscalize(String externalNum) throws InterruptedException {
+            long delayMs = slowFiscalizeMs;
+            if (delayMs > 0) {
+                Thread.sleep(delayMs);
+            }
+            return null;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(dgi);
+        server.start();
+        apiManager = new ApiManager(NetworkClient.getInstance(), server.url("").toString().replaceAll("/$", ""),
+                folder.newFolder("cache"));
+        filesDir = folder.newFolder("files");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void testTimeoutAfterCreateResumesAtFiscalize() throws Exception {
+        InvoiceData invoice = invoice("EXT-1");
+        slowFiscalizeMs = 1_500;
+
+        // Caisse : create aboutit, fiscalize dépasse l'échéance de la vente
+        AtomicReference<String> createdId = new AtomicReference<>();
+        AtomicReference<ErrorCategory> category = new AtomicReference<>();
+        CountDownLatch failed = new CountDownLatch(1);
+        apiManager.certifyInvoice(invoice, null, createdId::set, 500,
+                new ApiManager.ApiCallback<InvoiceVerificationResponse>() {
+                    @Override
+                    public void onSuccess(InvoiceVerificationResponse result) {
+                        failed.countDown();
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        failed.countDown();
+                    }
+
+                    @Override
+                    public void onError(String error, Integer httpCode, ErrorCategory errorCategory) {
+                        category.set(errorCategory);
+                        failed.countDown();
+                    }
+                });
+        assertTrue("certification did not fail", failed.await(10, TimeUnit.SECONDS));
+        assertEquals(ErrorCategory.TIMEOUT, category.get());
+        assertNotNull(createdId.get());
+        slowFiscalizeMs = 0;
+
+        // Mise en file hors ligne : les relances sont actives et partent aussitôt
+        StorageManager storage = new StorageManager(filesDir, apiManager);
+        storage.startRetryScheduler();
+        try {
+            storage.savePendingInvoice(invoice, createdId.get());
+            awaitState(storage, "EXT-1", StorageManager.InvoiceState.FISCALIZED);
+        } finally {
+            storage.stopRetryScheduler();
+        }
+
+        assertEquals(1, dgi.creates.get());
+        assertEquals(0, dgi.rejected.get());
+        assertEquals(0, storage.getPendingCount());
+        assertEquals("TOKEN-EXT-1", storage.findCertifiedInvoice("MACHINE-01", "EXT-1")
+                .getResponse().getMecefCode());
+    }
+
+    @Test
+    public void testCreatedStateSurvivesRestart() throws Exception {
+        InvoiceData invoice = invoice("EXT-2");
+        StorageManager storage = new StorageManager(filesDir, apiManager);
+        storage.savePendingInvoice(invoice);
+        assertEquals(StorageManager.InvoiceState.PENDING, storage.getInvoiceState("MACHINE-01", "EXT-2"));
+
+        // Création côté DGI, puis arrêt du processus avant fiscalize
+        String id = dgi.register("EXT-2");
+        storage.markCreated(invoice, id);
+
+        StorageManager restarted = new StorageManager(filesDir, apiManager);
+        assertEquals(StorageManager.InvoiceState.CREATED, restarted.getInvoiceState("MACHINE-01", "EXT-2"));
+        assertEquals(id, restarted.getCreatedInvoiceId("MACHINE-01", "EXT-2"));
+
+        CountDownLatch done = new CountDownLatch(1);
+        restarted.syncPendingInvoices(new InvoiceSyncEngine.Listener() {
+            @Override
+            public void onProgress(InvoiceSyncEngine.Progress progress) {
+            }
+
+            @Override
+            public void onComplete(InvoiceSyncEngine.Progress progress) {
+                done.countDown();
+            }
+        });
+        assertTrue("sync did not complete", done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(0, dgi.creates.get());
+        assertEquals(StorageManager.InvoiceState.FISCALIZED, restarted.getInvoiceState("MACHINE-01", "EXT-2"));
+        assertNull(restarted.getCreatedInvoiceId("MACHINE-01", "EXT-2"));
+        // L'état certifié est durable
+        assertEquals(StorageManager.InvoiceState.FISCALIZED,
+                new StorageManager(filesDir, apiManager).getInvoiceState("MACHINE-01", "EXT-2"));
+    }
+
+    private static void awaitState(StorageManager storage, String externalNum,
+                                   StorageManager.InvoiceState expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (storage.getInvoiceState("MACHINE-01", externalNum) != expected
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, storage.getInvoiceState("MACHINE-01", externalNum));
+    }
+}
@@ -0,0 +1,105 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.models.InvoiceData;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static com.dspread.pos.managers.DgiFixtures.invoice;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Relances des certifications en échec : backoff exponentiel avec jitter, état
+ * persisté dans le journal et rechargé après un redémarrage
+ */
+public class InvoiceRetrySchedulerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDelayDoublesUpToCeilingWithJitter() {
+        InvoiceRetryScheduler.Policy policy = new InvoiceRetryScheduler.Policy()
+                .setBaseDelay(1_000).setMaxDelay(8_000);
+        Random random = new Random(42);
+
+        for (int attempts = 1; attempts <= 8; attempts++) {
+            long ceiling = Math.min(8_000, 1_000L << (attempts - 1));
+            Set<Long> delays = new HashSet<>();
+            for (int i = 0; i < 50; i++) {
+                long delay = policy.delayFor(attempts, random);
+                assertTrue("attempt " + attempts + ": " + delay, delay >= ceiling / 2 && delay <= ceiling);
+                delays.add(delay);
+            }
+            // Tirage aléatoire : les terminaux ne relancent pas tous au même instant
+            assertTrue(delays.size() > 1);
+        }
+    }
+
+    @Test
+    public void testRetryStateSurvivesRestart() throws Exception {
+        File dir = folder.newFolder("files");
+        StorageManager storage = new StorageManager(dir, null);
+        InvoiceData invoice = invoice("EXT-1");
+        storage.savePendingInvoice(invoice);
+        long before = System.currentTimeMillis();
+        storage.recordSyncFailure(invoice, "Connection timeout", null);
+        storage.recordSyncFailure(invoice, "Connection timeout", 503);
+        storage.flush();
+
+        InvoiceRetryScheduler.RetryState state = storage.getRetryState("MACHINE-01", "EXT-1");
+        assertEquals(2, state.getAttempts());
+        assertFalse(state.isPermanent());
+        assertTrue(state.getNextAttemptAt() > before);
+
+        // Redémarrage : l'état est relu depuis le journal
+        StorageManager restarted = new StorageManager(dir, null);
+        InvoiceRetryScheduler.RetryState reloaded = restarted.getRetryState("MACHINE-01", "EXT-1");
+        assertNotNull(reloaded);
+        assertEquals(2, reloaded.getAttempts());
+        assertEquals(state.getNextAttemptAt(), reloaded.getNextAttemptAt());
+        assertEquals("Connection timeout", reloaded.getLastError());
+        assertEquals(state.getNextAttemptAt(), restarted.nextRetryAt());
+    }
+
+    @Test
+    public void testRejectionIsNotRetried() throws Exception {
+        StorageManager storage = new StorageManager(folder.newFolder("files"), null);
+        InvoiceData invoice = invoice("EXT-1");
+        storage.savePendingInvoice(invoice);
+
+        storage.recordSyncFailure(invoice, "REJ012: invalid customer", 400);
+
+        InvoiceRetryScheduler.RetryState state = storage.getRetryState("MACHINE-01", "EXT-1");
+        assertTrue(state.isPermanent());
+        assertEquals(Long.MAX_VALUE, storage.nextRetryAt());
+        // Une nouvelle sauvegarde (facture corrigée) repart sans état de relance
+        storage.savePendingInvoice(invoice);
+        assertNull(storage.getRetryState("MACHINE-01", "EXT-1"));
+    }
+
+    @Test
+    public void testMaxAttemptsStopsRetries() throws Exception {
+        StorageManager storage = new StorageManager(folder.newFolder("files"), null);
+        storage.setRetryPolicy(new InvoiceRetryScheduler.Policy().setMaxAttempts(2));
+        InvoiceData invoice = invoice("EXT-1");
+        storage.savePendingInvoice(invoice);
+
+        storage.recordSyncFailure(invoice, "HTTP 500", 500);
+        assertFalse(storage.getRetryState("MACHINE-01", "EXT-1").isPermanent());
+        storage.recordSyncFailure(invoice, "HTTP 500", 500);
+
+        assertTrue(storage.getRetryState("MACHINE-01", "EXT-1").isPermanent());
+        assertEquals(Long.MAX_VALUE, storage.nextRetryAt());
+    }
+}
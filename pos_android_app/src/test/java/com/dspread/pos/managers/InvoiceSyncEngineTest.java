@@ -0,0 +1,310 @@
+package com.dspread.pos.managers;
+
+import com.dspread.pos.common.http.NetworkClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static com.dspread.pos.managers.DgiFixtures.invoice;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Synchronisation des factures en attente contre un serveur DGI local : fenêtre
+ * d'envoi, back-pressure sur 429/503, annulation et second appel pendant un envoi
+ */
+public class InvoiceSyncEngineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private StorageManager storage;
+    // Nombre de 503 à renvoyer aux prochains create
+    private final AtomicInteger throttledCreates = new AtomicInteger();
+    private final List<Long> createTimes = new CopyOnWriteArrayList<>();
+    private final List<Long> throttleTimes = new CopyOnWriteArrayList<>();
+    private final DgiFixtures.DgiDispatcher dgi = new DgiFixtures.DgiDispatcher(1000, 20) {
+        @Override
+        MockResponse beforeCreate(String externalNum) {
+            long now = System.currentTimeMillis();
+            createTimes.add(now);
+            if (throttledCreates.getAndDecrement() > 0) {
+                throttleTimes.add(now);
+                return new MockResponse().setResponseCode(503);
+            }
+            return null;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(dgi);
+        server.start();
+        ApiManager apiManager = new ApiManager(NetworkClient.getInstance(),
+                server.url("").toString().replaceAll("/$", ""), folder.newFolder("cache"));
+        storage = new StorageManager(folder.newFolder("files"), apiManager);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void testWindowBoundsRequestsInFlight() throws Exception {
+        storage.setSyncConfig(new InvoiceSyncEngine.Config().setMaxInFlight(3));
+        queue(12);
+
+        InvoiceSyncEngine.Progress progress = sync();
+
+        assertEquals(12, progress.getTotal());
+        assertEquals(12, progress.getSucceeded());
+        assertEquals(0, storage.getPendingCount());
+        assertEquals(12, storage.getCertifiedCount());
+        int maxInFlight = dgi.maxInFlight.get();
+        assertTrue("max in flight " + maxInFlight, maxInFlight > 1 && maxInFlight <= 3);
+    }
+
+    @Test
+    public void testThrottledInvoicesAreRequeuedAfterBackoff() throws Exception {
+        storage.setSyncConfig(new InvoiceSyncEngine.Config().setMaxInFlight(4).setBackoff(300, 1_000));
+        throttledCreates.set(2);
+        queue(6);
+
+        InvoiceSyncEngine.Progress progress = sync();
+
+        // Les factures refusées par 503 repartent : aucune n'est comptée en échec
+        assertEquals(6, progress.getSucceeded());
+        assertEquals(0, progress.getFailed());
+        assertEquals(2, throttleTimes.size());
+        assertNull(storage.getRetryState("MACHINE-01", "EXT-0"));
+        // Après les 4 premiers envois, rien n'est créé pendant la pause qui suit le premier 503
+        assertEquals(6 + 2, createTimes.size());
+        long firstThrottle = throttleTimes.get(0);
+        for (long at : createTimes.subList(4, createTimes.size())) {
+            assertTrue("create sent " + (at - firstThrottle) + "ms after throttle", at - firstThrottle >= 250);
+        }
+    }
+
+    @Test
+    public void testThrottleRetriesExhaustedArmsRetry() throws Exception {
+        storage.setSyncConfig(new InvoiceSyncEngine.Config().setMaxInFlight(1).setBackoff(20, 20)
+                .setMaxThrottleRetries(1));
+        throttledCreates.set(2);
+        queue(1);
+
+        InvoiceSyncEngine.Progress progress = sync();
+
+        assertEquals(1, progress.getFailed());
+        InvoiceRetryScheduler.RetryState state = storage.getRetryState("MACHINE-01", "EXT-0");
+        assertNotNull(state);
+        assertEquals(1, state.getAttempts());
+        assertFalse(state.isPermanent());
+    }
+
+    @Test
+    public void testSyncCallbackReportsFailures() throws Exception {
+        storage.setSyncConfig(new InvoiceSyncEngine.Config().setMaxInFlight(1).setBackoff(20, 20)
+                .setMaxThrottleRetries(0));
+        throttledCreates.set(1);
+        queue(2);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<String> error = new AtomicReference<>();
+        AtomicInteger synced = new AtomicInteger(-1);
+
+        storage.syncPendingInvoices(new StorageManager.SyncCallback() {
+            @Override
+            public void onSuccess(int syncedCount) {
+                synced.set(syncedCount);
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String message) {
+                error.set(message);
+                done.countDown();
+            }
+        });
+        assertTrue("sync did not complete", done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(-1, synced.get());
+        assertTrue(error.get(), error.get().startsWith("1 invoice(s) could not be synchronized"));
+    }
+
+    @Test
+    public void testCancelLeavesRemainingInvoicesPending() throws Exception {
+        storage.setSyncConfig(new InvoiceSyncEngine.Config().setMaxInFlight(1));
+        dgi.latencyMs = 100;
+        queue(5);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<InvoiceSyncEngine.Progress> result = new AtomicReference<>();
+        AtomicReference<InvoiceSyncEngine.SyncHandle> handle = new AtomicReference<>();
+
+        handle.set(storage.syncPendingInvoices(new InvoiceSyncEngine.Listener() {
+            @Override
+            public void onProgress(InvoiceSyncEngine.Progress progress) {
+                // Annule dès la première facture terminée
+                handle.get().cancel();
+            }
+
+            @Override
+            public void onComplete(InvoiceSyncEngine.Progress progress) {
+                result.set(progress);
+                done.countDown();
+            }
+        }));
+        assertTrue("sync did not complete", done.await(10, TimeUnit.SECONDS));
+
+        assertTrue(result.get().isCancelled());
+        assertEquals(1, result.get().getSucceeded());
+        assertEquals(4, result.get().getRemaining());
+        assertEquals(4, storage.getPendingCount());
+        assertFalse(handle.get().isRunning());
+    }
+
+    @Test
+    public void testSecondCallerFollowsRunningSync() throws Exception {
+        storage.setSyncConfig(new InvoiceSyncEngine.Config().setMaxInFlight(1));
+        dgi.latencyMs = 50;
+        queue(3);
+        CountDownLatch done = new CountDownLatch(2);
+        List<InvoiceSyncEngine.Progress> completions = new CopyOnWriteArrayList<>();
+        InvoiceSyncEngine.Listener listener = new InvoiceSyncEngine.Listener() {
+            @Override
+            public void onProgress(InvoiceSyncEngine.Progress progress) {
+            }
+
+            @Override
+            public void onComplete(InvoiceSyncEngine.Progress progress) {
+                completions.add(progress);
+                done.countDown();
+            }
+        };
+
+        InvoiceSyncEngine.SyncHandle first = storage.syncPendingInvoices(listener);
+        InvoiceSyncEngine.SyncHandle second = storage.syncPendingInvoices(listener);
+        assertTrue("sync did not complete", done.await(10, TimeUnit.SECONDS));
+
+        assertSame(first, second);
+        // Les deux appelants voient la fin du même envoi, pas un envoi vide
+        assertEquals(2, completions.size());
+        for (InvoiceSyncEngine.Progress progress : completions) {
+            assertEquals(3, progress.getTotal());
+            assertEquals(3, progress.getSucceeded());
+        }
+        assertEquals(3, dgi.created.size());
+    }
+
+    @Test
+    public void testFollowerDetachesWithoutStoppingSync() throws Exception {
+        storage.setSyncConfig(new InvoiceSyncEngine.Config().setMaxInFlight(1));
+        dgi.latencyMs = 50;
+        queue(3);
+        CountDownLatch done = new CountDownLatch(1);
+        List<InvoiceSyncEngine.Progress> followerCompletions = new CopyOnWriteArrayList<>();
+        InvoiceSyncEngine.Listener owner = new InvoiceSyncEngine.Listener() {
+            @Override
+            public void onProgress(InvoiceSyncEngine.Progress progress) {
+            }
+
+            @Override
+            public void onComplete(InvoiceSyncEngine.Progress progress) {
+                done.countDown();
+            }
+        };
+        InvoiceSyncEngine.Listener follower = new InvoiceSyncEngine.Listener() {
+            @Override
+            public void onProgress(InvoiceSyncEngine.Progress progress) {
+            }
+
+            @Override
+            public void onComplete(InvoiceSyncEngine.Progress progress) {
+                followerCompletions.add(progress);
+            }
+        };
+
+        // Synchronisation de fond en cours, un écran la suit puis se ferme
+        storage.syncPendingInvoices(owner);
+        storage.syncPendingInvoices(follower);
+        assertFalse(storage.removeSyncListener(follower));
+        assertTrue("sync did not complete", done.await(10, TimeUnit.SECONDS));
+
+        assertTrue(followerCompletions.isEmpty());
+        assertEquals(0, storage.getPendingCount());
+        assertEquals(3, dgi.created.size());
+        // Terminée : plus rien à détacher
+        assertFalse(storage.removeSyncListener(owner));
+    }
+
+    @Test
+    public void testOwnerIsToldItStartedTheSync() throws Exception {
+        storage.setSyncConfig(new InvoiceSyncEngine.Config().setMaxInFlight(1));
+        dgi.latencyMs = 50;
+        queue(2);
+        InvoiceSyncEngine.Listener owner = new InvoiceSyncEngine.Listener() {
+            @Override
+            public void onProgress(InvoiceSyncEngine.Progress progress) {
+            }
+
+            @Override
+            public void onComplete(InvoiceSyncEngine.Progress progress) {
+            }
+        };
+
+        InvoiceSyncEngine.SyncHandle handle = storage.syncPendingInvoices(owner);
+        assertTrue(storage.removeSyncListener(owner));
+        handle.cancel();
+        assertTrue("sync did not stop", awaitStopped(handle));
+    }
+
+    private static boolean awaitStopped(InvoiceSyncEngine.SyncHandle handle) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (handle.isRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return !handle.isRunning();
+    }
+
+    private void queue(int count) {
+        for (int i = 0; i < count; i++) {
+            storage.savePendingInvoice(invoice("EXT-" + i));
+        }
+    }
+
+    private InvoiceSyncEngine.Progress sync() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<InvoiceSyncEngine.Progress> result = new AtomicReference<>();
+        storage.syncPendingInvoices(new InvoiceSyncEngine.Listener() {
+            @Override
+            public void onProgress(InvoiceSyncEngine.Progress progress) {
+            }
+
+            @Override
+            public void onComplete(InvoiceSyncEngine.Progress progress) {
+                result.set(progress);
+                done.countDown();
+            }
+        });
+        assertTrue("sync did not complete", done.await(20, TimeUnit.SECONDS));
+        return result.get();
+    }
+}
@@ -0,0 +1,122 @@
+package com.dspread.pos.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Écriture asynchrone des logs : aucune ligne perdue ni mélangée entre threads,
+ * politique DROP quand le tampon est plein, fichier recréé après suppression
+ */
+public class AsyncLogWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConcurrentWritersKeepEveryLineInOrder() throws Exception {
+        File file = new File(folder.getRoot(), "ds_log.txt");
+        AsyncLogWriter writer = new AsyncLogWriter(file, 64, AsyncLogWriter.OverflowPolicy.BLOCK);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int id = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    writer.write("T" + id + " " + i);
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        assertTrue(writer.flush(5000));
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(8000, lines.size());
+        int[] next = new int[4];
+        for (String line : lines) {
+            String message = line.substring(line.indexOf("--") + 2);
+            int id = message.charAt(1) - '0';
+            assertEquals(line, next[id]++, Integer.parseInt(message.substring(3)));
+        }
+        assertEquals(0, writer.getDroppedCount());
+        writer.close(1000);
+    }
+
+    @Test
+    public void testDropPolicyNeverBlocksAndReportsLoss() throws Exception {
+        File file = new File(folder.getRoot(), "ds_log.txt");
+        AsyncLogWriter writer = new AsyncLogWriter(file, 4, AsyncLogWriter.OverflowPolicy.DROP);
+        int accepted = 0;
+        for (int i = 0; i < 10_000; i++) {
+            accepted += writer.write("line " + i) ? 1 : 0;
+        }
+        assertTrue(accepted < 10_000);
+        writer.write("after");
+        writer.close(5000);
+
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertTrue(content.contains("dropped, buffer full"));
+        assertFalse(writer.write("closed"));
+    }
+
+    @Test
+    public void testDeletedFileIsRecreated() throws Exception {
+        File file = new File(folder.getRoot(), "ds_log.txt");
+        AsyncLogWriter writer = new AsyncLogWriter(file, 16, AsyncLogWriter.OverflowPolicy.DROP);
+        writer.write("first");
+        assertTrue(writer.flush(5000));
+        assertTrue(file.delete());
+
+        writer.write("second");
+        assertTrue(writer.flush(5000));
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).endsWith("--second"));
+        writer.close(1000);
+    }
+
+    @Test
+    public void testRotationArchivesSegmentsAndCapsDisk() throws Exception {
+        File file = new File(folder.getRoot(), "ds_log.txt");
+        File archiveDir = new File(folder.getRoot(), "DSLogs");
+        LogRotator rotator = new LogRotator(archiveDir, 4 * 1024, 60_000, 6 * 1024);
+        AsyncLogWriter writer = new AsyncLogWriter(file, 256, AsyncLogWriter.OverflowPolicy.BLOCK);
+        writer.setRotator(rotator);
+        for (int i = 0; i < 3000; i++) {
+            writer.write("line " + i + " " + (i * 7919 % 10007));
+            if (i % 100 == 0) {
+                // Lots séparés : la taille est vérifiée avant chaque écriture
+                assertTrue(writer.flush(5000));
+            }
+        }
+        assertTrue(writer.rotate(5000));
+        assertFalse(file.exists());
+
+        List<File> segments = rotator.segments();
+        assertTrue("segments " + segments.size(), segments.size() > 1);
+        long archived = 0;
+        for (File segment : segments) {
+            archived += segment.length();
+        }
+        assertTrue("archived " + archived, archived <= 6 * 1024);
+
+        // Les plus anciens ont été supprimés ; le dernier segment finit par la dernière ligne
+        StringBuilder last = new StringBuilder();
+        LogRotator.readChunks(segments.get(segments.size() - 1), 100, chunk -> {
+            assertTrue(chunk.length() <= 100);
+            last.append(chunk);
+        });
+        assertTrue(last.toString().endsWith("--line 2999 " + (2999 * 7919 % 10007) + "\r\n"));
+        writer.close(1000);
+    }
+}
@@ -0,0 +1,111 @@
+package com.dspread.pos.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Rotation des logs : échéance par taille et par âge (âge conservé après
+ * réouverture), suppression des segments les plus anciens
+ */
+public class LogRotatorTest {
+
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSizeRotation() {
+        LogRotator rotator = new LogRotator(folder.getRoot(), 1024, HOUR_MS, 1 << 20);
+        long now = System.currentTimeMillis();
+
+        assertFalse(rotator.isDue(1000, 24, now, now));
+        assertTrue(rotator.isDue(1000, 25, now, now));
+        // Un fichier vide n'est jamais archivé, même pour un lot trop gros
+        assertFalse(rotator.isDue(0, 4096, now, now));
+    }
+
+    @Test
+    public void testAgeRotationSurvivesReopen() throws Exception {
+        File archiveDir = new File(folder.getRoot(), "DSLogs");
+        File active = new File(folder.getRoot(), "ds_log.txt");
+        LogRotator rotator = new LogRotator(archiveDir, 1 << 20, HOUR_MS, 1 << 20);
+        long start = System.currentTimeMillis();
+
+        assertEquals(start, rotator.startedAt(active, start));
+        write(active, "first line\r\n");
+        assertFalse(rotator.isDue(active.length(), 10, start, start + HOUR_MS - 1));
+
+        // Réouverture après redémarrage : l'âge part toujours de la première ligne
+        LogRotator restarted = new LogRotator(archiveDir, 1 << 20, HOUR_MS, 1 << 20);
+        long startedAt = restarted.startedAt(active, start + HOUR_MS);
+        assertEquals(start, startedAt);
+        assertTrue(restarted.isDue(active.length(), 10, startedAt, start + HOUR_MS));
+
+        // Après archivage, le nouveau fichier repart de zéro
+        assertNotNull(restarted.archive(active));
+        long later = start + 2 * HOUR_MS;
+        assertEquals(later, restarted.startedAt(active, later));
+    }
+
+    @Test
+    public void testTrimDropsOldestSegments() throws Exception {
+        File archiveDir = new File(folder.getRoot(), "DSLogs");
+        File active = new File(folder.getRoot(), "ds_log.txt");
+        LogRotator rotator = new LogRotator(archiveDir, 1 << 20, HOUR_MS, 10 * 1024);
+        Random random = new Random(42);
+        File first = null;
+        File last = null;
+        for (int i = 0; i < 5; i++) {
+            // Contenu peu compressible : environ 3 Ko par segment
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 6 * 1024) {
+                text.append(Long.toHexString(random.nextLong()));
+            }
+            write(active, text.toString());
+            last = rotator.archive(active);
+            if (first == null) {
+                first = last;
+            }
+            // Ordre des segments par date de modification
+            assertTrue(last.setLastModified(1_000_000L * (i + 1)));
+            // Noms de segments horodatés à la milliseconde
+            Thread.sleep(2);
+        }
+
+        List<File> segments = rotator.segments();
+        long total = 0;
+        for (File segment : segments) {
+            total += segment.length();
+        }
+        assertTrue("archived " + total, total <= 10 * 1024);
+        assertTrue(segments.size() < 5);
+        assertFalse(first.exists());
+        assertEquals(last, segments.get(segments.size() - 1));
+
+        // Plafond abaissé : trim() ne garde que ce qui tient encore
+        new LogRotator(archiveDir, 1 << 20, HOUR_MS, last.length()).trim();
+        assertEquals(1, rotator.segments().size());
+        assertTrue(last.exists());
+    }
+
+    private static void write(File file, String text) throws IOException {
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
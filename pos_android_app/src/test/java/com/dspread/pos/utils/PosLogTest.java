@@ -0,0 +1,75 @@
+package com.dspread.pos.utils;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Logs structurés : seuil évalué avant mise en forme, paramètres {}, encodage JSON lignes
+ */
+public class PosLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final PosLog log = PosLog.get("Test");
+
+    @After
+    public void tearDown() {
+        PosLog.setLevel(PosLog.Level.VERBOSE);
+    }
+
+    @Test
+    public void testSuppressedLevelsBuildNothing() {
+        PosLog.setLevel(PosLog.Level.INFO);
+        AtomicInteger built = new AtomicInteger();
+        log.d(() -> "built " + built.incrementAndGet());
+        assertEquals(0, built.get());
+        assertSame(log.at(PosLog.Level.DEBUG), log.at(PosLog.Level.VERBOSE));
+
+        log.i(() -> "built " + built.incrementAndGet());
+        assertEquals(1, built.get());
+    }
+
+    @Test
+    public void testFormatsPlaceholdersInOrder() {
+        assertEquals("Creation failed (TIMEOUT): late", PosLog.format("Creation failed ({}): {}", "TIMEOUT", "late"));
+        assertEquals("a 1 {}", PosLog.format("a {} {}", 1));
+        assertEquals("no placeholder", PosLog.format("no placeholder", 1, 2));
+    }
+
+    @Test
+    public void testEventsAreWrittenAsJsonLines() throws Exception {
+        File file = new File(folder.getRoot(), "ds_log.txt");
+        AsyncLogWriter writer = new AsyncLogWriter(file, 16, AsyncLogWriter.OverflowPolicy.BLOCK);
+        PosLog.Event event = log.at(PosLog.Level.INFO)
+                .kv("externalNum", "FAC \"7\"")
+                .kv("totalTtc", 11800)
+                .kv("healthy", true)
+                .kv("httpCode", (Object) null);
+        event.log("Creating invoice");
+        writer.write(event);
+        writer.write("plain line");
+        assertTrue(writer.flush(5000));
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        String json = lines.get(0);
+        assertTrue(json, json.startsWith("{\"ts\":\""));
+        assertTrue(json, json.endsWith("\",\"lvl\":\"I\",\"tag\":\"Test\",\"msg\":\"Creating invoice\","
+                + "\"externalNum\":\"FAC \\\"7\\\"\",\"totalTtc\":11800,\"healthy\":true,\"httpCode\":null}"));
+        assertTrue(lines.get(1).endsWith("--plain line"));
+        writer.close(1000);
+    }
+}